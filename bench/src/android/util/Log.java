@@ -0,0 +1,30 @@
+package android.util;
+
+/**
+ * Stand-in for the Android logger so msafluid runs on a desktop JVM, prints to stderr.
+ */
+public final class Log {
+	private Log() {
+	}
+
+	public static int d(final String tag, final String msg) {
+		return print("D", tag, msg);
+	}
+
+	public static int i(final String tag, final String msg) {
+		return print("I", tag, msg);
+	}
+
+	public static int w(final String tag, final String msg) {
+		return print("W", tag, msg);
+	}
+
+	public static int e(final String tag, final String msg) {
+		return print("E", tag, msg);
+	}
+
+	private static int print(final String level, final String tag, final String msg) {
+		System.err.println(level + "/" + tag + ": " + msg);
+		return 0;
+	}
+}
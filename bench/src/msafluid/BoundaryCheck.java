@@ -0,0 +1,314 @@
+package msafluid;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Checks the ghost cells each MSAFluidSolver2D.setBoundaryType policy leaves around the grid, on
+ * the float, parallel and interleaved engines, and times what the policies cost. See bench/README.
+ *
+ * Each engine gets FRAMES frames of splats pushing outwards at the middle of every edge and into
+ * every corner. After every frame the ghost cells of u, v and the three dye channels are checked
+ * against what the policy says they hold, worked out here from the cells inside:
+ *
+ * BOUNDARY_NONE       never written, so they stay 0
+ * BOUNDARY_FREE_SLIP  copied from the cell next to them, the velocity into the wall turned around
+ * BOUNDARY_NO_SLIP    copied, both velocity components turned around
+ * BOUNDARY_OPEN       copied
+ * BOUNDARY_WRAP       copied from the cell inside the opposite edge
+ *
+ * The corners take the mean of the two ghost cells next to them, with wrap the cell inside the
+ * opposite corner. The ghost cells of the interleaved engine also have to be bit for bit those of
+ * the float one (the parallel engine's red-black sweeps give a slightly different field from 64
+ * wide on, so it is only checked against the policy). Exits with status 1 if anything doesn't match.
+ *
+ * The timing gives what a policy costs per frame: the number of fields update() fills the ghost
+ * cells of (counted by a solver that counts its setBoundary calls) times the time of one such
+ * fill, measured over setBoundaryUV and setBoundaryRGB. It prints that next to the time of a whole
+ * update() with the policy, all from one state primed with PRIME_FRAMES frames. How long update()
+ * takes also depends on how the flow goes at the edges, so comparing update() times between the
+ * policies says more about that than about the ghost cells.
+ */
+public class BoundaryCheck {
+	final static int[]		POLICIES		= {MSAFluidSolver2D.BOUNDARY_NONE, MSAFluidSolver2D.BOUNDARY_FREE_SLIP, MSAFluidSolver2D.BOUNDARY_NO_SLIP,
+											   MSAFluidSolver2D.BOUNDARY_WRAP, MSAFluidSolver2D.BOUNDARY_OPEN};
+	final static String[]	POLICY_NAMES	= {"none", "free slip", "no slip", "wrap", "open"};
+	final static int[]		ENGINES			= {FluidSolverSelector.ENGINE_FLOAT, FluidSolverSelector.ENGINE_PARALLEL, FluidSolverSelector.ENGINE_INTERLEAVED};
+	/** whether an engine gives the float engine's field bit for bit **/
+	final static boolean[]	IS_BITWISE		= {true, false, true};
+	final static int[]		WIDTHS			= {40, 90};
+	final static int[]		TIME_WIDTHS		= {24, 40, 90, 160};
+	final static String[]	FIELDS			= {"u", "v", "red", "green", "blue"};
+	final static int		FRAMES			= 200;
+	final static int		THREADS			= 2;
+
+	final static int		PRIME_FRAMES	= 60;
+	final static int		BATCH_OPS		= 20;
+	final static int		WARMUP			= 3;
+	final static int		MEASURE			= 5;
+	final static long		ITERATION_NANOS	= 50 * 1000000L;
+
+	/* splats at the middle of each edge and in each corner, pushing outwards */
+	private final float[]	_splatX = {0.02f, 0.98f, 0.5f, 0.5f, 0.02f, 0.98f, 0.02f, 0.98f};
+	private final float[]	_splatY = {0.5f, 0.5f, 0.02f, 0.98f, 0.02f, 0.02f, 0.98f, 0.98f};
+	private final float[]	_splatDX = new float[_splatX.length], _splatDY = new float[_splatX.length], _splatAmount = new float[_splatX.length];
+	private final int[]		_splatColor = new int[_splatX.length];
+	private float			_sink;
+
+	public static void main(final String[] args) {
+		final BoundaryCheck check = new BoundaryCheck();
+		final boolean isMatching = check.checkGhosts();
+		check.time();
+		if (!isMatching) System.exit(1);
+	}
+
+	BoundaryCheck() {
+		for (int s = 0; s < _splatX.length; s++) {
+			_splatDX[s] = 0.02f * Math.signum(_splatX[s] - 0.5f);
+			_splatDY[s] = 0.02f * Math.signum(_splatY[s] - 0.5f);
+			_splatColor[s] = 0xff8000 + 0x20 * s;
+			_splatAmount[s] = 1;
+		}
+	}
+
+	boolean checkGhosts() {
+		System.out.println(String.format(Locale.US, "%-10s %-12s %5s %8s %s", "boundary", "engine", "NX", "frames", "result"));
+		boolean isMatching = true;
+		for (final int policy : POLICIES) {
+			for (final int width : WIDTHS) {
+				final MSAFluidSolver2D[] solvers = new MSAFluidSolver2D[ENGINES.length];
+				final String[] results = new String[ENGINES.length];
+				final int[] frames = new int[ENGINES.length];
+				for (int e = 0; e < ENGINES.length; e++) {
+					solvers[e] = solver(ENGINES[e], width, policy);
+					results[e] = "matches";
+				}
+				for (int frame = 0; frame < FRAMES; frame++) {
+					for (int e = 0; e < ENGINES.length; e++) {
+						if (!results[e].equals("matches")) continue;
+						drive(solvers[e]);
+						frames[e] = frame + 1;
+						String mismatch = firstWrongGhost(solvers[e], policy);
+						if (mismatch == null && e > 0 && IS_BITWISE[e]) mismatch = firstDifferentGhost(solvers[0], solvers[e]);
+						if (mismatch != null) results[e] = mismatch;
+					}
+				}
+				for (int e = 0; e < ENGINES.length; e++) {
+					if (!results[e].equals("matches")) isMatching = false;
+					System.out.println(String.format(Locale.US, "%-10s %-12s %5d %8d %s", POLICY_NAMES[policy],
+							FluidSolverSelector.ENGINE_NAMES[ENGINES[e]], width, frames[e], results[e]));
+					FluidSolverSelector.dispose(solvers[e]);
+				}
+			}
+		}
+		return isMatching;
+	}
+
+	void time() {
+		System.out.println();
+		System.out.println(String.format(Locale.US, "# %s %s, %d warmup + %d x %d ms iterations",
+				System.getProperty("java.vm.name"), System.getProperty("java.version"), WARMUP, MEASURE, ITERATION_NANOS / 1000000));
+		System.out.println(String.format(Locale.US, "%-10s %5s %8s %10s %12s %12s %8s", "boundary", "NX", "fields", "field us", "boundary us", "update us", "share"));
+		for (final int width : TIME_WIDTHS) {
+			// every policy starts from the same state
+			final MSAFluidSolver2D primer = solver(FluidSolverSelector.ENGINE_FLOAT, width, MSAFluidSolver2D.BOUNDARY_FREE_SLIP);
+			for (int frame = 0; frame < PRIME_FRAMES; frame++) drive(primer);
+			final ByteBuffer primed = FluidSnapshot.save(primer, false);
+			final MSAFluidSolver2D[] solvers = new MSAFluidSolver2D[POLICIES.length];
+			final int[] fields = new int[POLICIES.length];
+			for (int p = 0; p < POLICIES.length; p++) {
+				solvers[p] = solver(FluidSolverSelector.ENGINE_FLOAT, width, POLICIES[p]);
+				final CountingSolver counter = new CountingSolver(width, width * 9 / 16);
+				counter.enableRGB(true).setFadeSpeed(0.01f).setDeltaT(0.5f).setVisc(0.0001f).setSolverIterations(3);
+				counter.setBoundaryType(POLICIES[p]);
+				primed.rewind();
+				FluidSnapshot.restore(primed, counter);
+				counter.update();
+				fields[p] = counter.fills;
+			}
+			final double[] passes = new double[POLICIES.length];
+			final double[] updates = new double[POLICIES.length];
+			// the policies take turns within each iteration, so the JIT and the machine treat them alike
+			for (int it = 0; it < WARMUP + MEASURE; it++) {
+				for (int p = 0; p < POLICIES.length; p++) {
+					final double pass = time(solvers[p], primed, false);
+					final double update = time(solvers[p], primed, true);
+					if (it < WARMUP) continue;
+					passes[p] += pass / MEASURE;
+					updates[p] += update / MEASURE;
+				}
+			}
+			for (int p = 0; p < POLICIES.length; p++) {
+				final double field = passes[p] / FIELDS.length;
+				System.out.println(String.format(Locale.US, "%-10s %5d %8d %10.3f %12.2f %12.2f %7.1f%%", POLICY_NAMES[POLICIES[p]], width,
+						fields[p], field, fields[p] * field, updates[p], 100 * fields[p] * field / updates[p]));
+				FluidSolverSelector.dispose(solvers[p]);
+			}
+		}
+		if (_sink == 12345.678f) System.out.println();
+	}
+
+	/**
+	 * mean time of a boundary pass or an update() over one ITERATION_NANOS iteration, in
+	 * microseconds. Like FluidBenchmark, every batch of BATCH_OPS updates starts from a fresh
+	 * restore of primed, which isn't timed. The boundary passes only copy cells into the ghost
+	 * cells, so they run from one restore.
+	 */
+	private double time(final MSAFluidSolver2D solver, final ByteBuffer primed, final boolean isUpdate) {
+		long time = 0;
+		long ops = 0;
+		while (time < ITERATION_NANOS) {
+			if (isUpdate || ops == 0) {
+				primed.rewind();
+				FluidSnapshot.restore(primed, solver);
+			}
+			final long start = System.nanoTime();
+			for (int op = 0; op < BATCH_OPS; op++) {
+				if (isUpdate) {
+					solver.update();
+				} else {
+					solver.setBoundaryUV();
+					solver.setBoundaryRGB(0);
+				}
+			}
+			time += System.nanoTime() - start;
+			ops += BATCH_OPS;
+			_sink += solver.u[0] + solver.getRed(solver.getNumCells() / 2);
+		}
+		return time / 1000.0 / ops;
+	}
+
+	private static MSAFluidSolver2D solver(final int engine, final int width, final int policy) {
+		final MSAFluidSolver2D solver = (MSAFluidSolver2D)FluidSolverSelector.create(engine, width, width * 9 / 16, THREADS);
+		solver.enableRGB(true).setFadeSpeed(0.01f).setDeltaT(0.5f).setVisc(0.0001f).setSolverIterations(3);
+		solver.setBoundaryType(policy);
+		return solver;
+	}
+
+	private void drive(final MSAFluidSolver2D solver) {
+		solver.addSplats(_splatX.length, _splatX, _splatY, _splatDX, _splatDY, _splatColor, _splatAmount, 2 * FluidSimulationThread.DEFAULT_SPLAT_RADIUS);
+		solver.update();
+	}
+
+	/**
+	 * first ghost cell that doesn't hold what the policy says, null if they all do
+	 */
+	private static String firstWrongGhost(final MSAFluidSolver2D solver, final int policy) {
+		final int NX = solver._NX;
+		final int NY = solver._NY;
+		final float[] x = new float[solver.getNumCells()];
+		final float[] expected = new float[x.length];
+		for (int f = 0; f < FIELDS.length; f++) {
+			field(solver, f, x);
+			// b as setBoundary takes it: 1 for u, 2 for v, 0 for the dye
+			expectedGhosts(policy, f < 2 ? f + 1 : 0, x, expected, NX, NY);
+			for (int j = 0; j <= NY + 1; j++) {
+				for (int i = 0; i <= NX + 1; i++) {
+					if (i > 0 && i <= NX && j > 0 && j <= NY) continue;
+					final int index = i + (NX + 2) * j;
+					if (x[index] != expected[index]) {
+						return FIELDS[f] + " at (" + i + "," + j + ") is " + x[index] + ", expected " + expected[index];
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * fill the ghost cells of expected from the cells inside x: the rows, then the columns, then the corners
+	 */
+	private static void expectedGhosts(final int policy, final int b, final float[] x, final float[] expected, final int NX, final int NY) {
+		final int w = NX + 2;
+		final boolean isWall = policy == MSAFluidSolver2D.BOUNDARY_FREE_SLIP || policy == MSAFluidSolver2D.BOUNDARY_NO_SLIP;
+		final float sideSign = isWall && (b == 1 || (b == 2 && policy == MSAFluidSolver2D.BOUNDARY_NO_SLIP)) ? -1 : 1;
+		final float rowSign = isWall && (b == 2 || (b == 1 && policy == MSAFluidSolver2D.BOUNDARY_NO_SLIP)) ? -1 : 1;
+		if (policy == MSAFluidSolver2D.BOUNDARY_NONE) {
+			java.util.Arrays.fill(expected, 0);
+			return;
+		}
+		if (policy == MSAFluidSolver2D.BOUNDARY_WRAP) {
+			for (int i = 1; i <= NX; i++) {
+				expected[i] = x[i + w * NY];
+				expected[i + w * (NY + 1)] = x[i + w];
+			}
+			for (int j = 1; j <= NY; j++) {
+				expected[w * j] = x[NX + w * j];
+				expected[NX + 1 + w * j] = x[1 + w * j];
+			}
+			expected[0] = x[NX + w * NY];
+			expected[NX + 1] = x[1 + w * NY];
+			expected[w * (NY + 1)] = x[NX + w];
+			expected[NX + 1 + w * (NY + 1)] = x[1 + w];
+			return;
+		}
+		for (int i = 1; i <= NX; i++) {
+			expected[i] = rowSign * x[i + w];
+			expected[i + w * (NY + 1)] = rowSign * x[i + w * NY];
+		}
+		for (int j = 1; j <= NY; j++) {
+			expected[w * j] = sideSign * x[1 + w * j];
+			expected[NX + 1 + w * j] = sideSign * x[NX + w * j];
+		}
+		expected[0] = 0.5f * (expected[1] + expected[w]);
+		expected[NX + 1] = 0.5f * (expected[NX] + expected[NX + 1 + w]);
+		expected[w * (NY + 1)] = 0.5f * (expected[1 + w * (NY + 1)] + expected[w * NY]);
+		expected[NX + 1 + w * (NY + 1)] = 0.5f * (expected[NX + w * (NY + 1)] + expected[NX + 1 + w * NY]);
+	}
+
+	/**
+	 * first ghost cell where other differs from reference, null if none does
+	 */
+	private static String firstDifferentGhost(final MSAFluidSolver2D reference, final MSAFluidSolver2D other) {
+		final int NX = reference._NX;
+		final int NY = reference._NY;
+		final float[] a = new float[reference.getNumCells()];
+		final float[] b = new float[a.length];
+		for (int f = 0; f < FIELDS.length; f++) {
+			field(reference, f, a);
+			field(other, f, b);
+			for (int j = 0; j <= NY + 1; j++) {
+				for (int i = 0; i <= NX + 1; i++) {
+					if (i > 0 && i <= NX && j > 0 && j <= NY) continue;
+					final int index = i + (NX + 2) * j;
+					if (Float.floatToRawIntBits(a[index]) != Float.floatToRawIntBits(b[index])) {
+						return FIELDS[f] + " at (" + i + "," + j + ") differs from the float engine";
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * copy one of FIELDS out of the solver, the interleaved engine keeps the dye in one array
+	 */
+	private static void field(final MSAFluidSolver2D solver, final int f, final float[] out) {
+		for (int i = 0; i < out.length; i++) {
+			switch (f) {
+				case 0: out[i] = solver.u[i]; break;
+				case 1: out[i] = solver.v[i]; break;
+				case 2: out[i] = solver.getRed(i); break;
+				case 3: out[i] = solver.getGreen(i); break;
+				default: out[i] = solver.getBlue(i); break;
+			}
+		}
+	}
+
+	/**
+	 * counts the fields update() fills the ghost cells of
+	 */
+	private static class CountingSolver extends MSAFluidSolver2D {
+		int fills;
+
+		CountingSolver(final int NX, final int NY) {
+			super(NX, NY);
+		}
+
+		@Override
+		protected void setBoundary(final int b, final float[] x, final int stride, final int offset) {
+			fills++;
+			super.setBoundary(b, x, stride, offset);
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package msafluid;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Measures how far the fixed point MSAFluidSolver2DINT drifts from the float MSAFluidSolver2D, and
+ * times update() of both. See bench/README.
+ *
+ * Both solvers get the app's settings and FRAMES frames of the same scripted touches (three
+ * touches circling and sliding over the grid, lifted every third stretch of 100 frames so the
+ * fade and the free flow are covered too). After every frame the dye and velocity of each cell are
+ * compared. Every REPORT_FRAMES frames it prints the mean and worst dye error per cell (clamped
+ * to 0...255 first, like FluidPixelPacker does, since the touched cells go far over 255) and the
+ * relative root mean square error of the velocity over those frames. Exits with status 1 if the
+ * mean dye error goes over MAX_MEAN_DYE_ERROR or the velocity error over MAX_VELOCITY_ERROR.
+ *
+ * The worst cell is printed but not checked: where the dye has a sharp edge, moving it by a
+ * fraction of a cell changes a cell by tens of color steps. On the 40 wide grid the float solver
+ * does that to itself when the forces are changed by one part in 10000.
+ *
+ * The timing runs update() on its own, from a state primed with PRIME_FRAMES scripted frames.
+ */
+public class FixedPointCheck {
+	final static int[]		WIDTHS			= {40, 90, 160};
+	final static int		FRAMES			= 1000;
+	final static int		REPORT_FRAMES	= 100;
+	final static int		TOUCHES			= 3;
+	/** mean dye error per cell allowed, in 0...255 color steps **/
+	final static float		MAX_MEAN_DYE_ERROR	= 0.25f;
+	/** relative root mean square velocity error allowed **/
+	final static float		MAX_VELOCITY_ERROR	= 0.02f;
+
+	final static int		PRIME_FRAMES	= 60;
+	final static int		BATCH_OPS		= 20;
+	final static int		WARMUP			= 3;
+	final static int		MEASURE			= 5;
+	final static long		ITERATION_NANOS	= 200 * 1000000L;
+
+	private float			_sink;
+
+	public static void main(final String[] args) {
+		final FixedPointCheck check = new FixedPointCheck();
+		final boolean isWithin = check.checkError();
+		check.time();
+		if (!isWithin) System.exit(1);
+	}
+
+	boolean checkError() {
+		System.out.println(String.format(Locale.US, "%7s %7s %12s %12s %12s", "NX", "frames", "mean dye", "worst dye", "velocity"));
+		boolean isWithin = true;
+		for (final int width : WIDTHS) {
+			final FluidSolver reference = configure(new MSAFluidSolver2D(width, width * 9 / 16).enableRowMajor(true));
+			final FluidSolver fixed = configure(new MSAFluidSolver2DINT(width, width * 9 / 16));
+			final int numCells = reference.getNumCells();
+			double dyeSum = 0, dyeWorst = 0, velocityError = 0, velocityNorm = 0;
+			for (int frame = 0; frame < FRAMES; frame++) {
+				drive(reference, frame);
+				drive(fixed, frame);
+				for (int i = 0; i < numCells; i++) {
+					final double dye = Math.max(Math.abs(shown(reference.getRed(i)) - shown(fixed.getRed(i))),
+							Math.max(Math.abs(shown(reference.getGreen(i)) - shown(fixed.getGreen(i))), Math.abs(shown(reference.getBlue(i)) - shown(fixed.getBlue(i)))));
+					dyeSum += dye;
+					dyeWorst = Math.max(dyeWorst, dye);
+					final double du = reference.getVelocityX(i) - fixed.getVelocityX(i);
+					final double dv = reference.getVelocityY(i) - fixed.getVelocityY(i);
+					velocityError += du * du + dv * dv;
+					velocityNorm += reference.getVelocityX(i) * reference.getVelocityX(i) + reference.getVelocityY(i) * reference.getVelocityY(i);
+				}
+				if ((frame + 1) % REPORT_FRAMES == 0) {
+					final double dyeMean = dyeSum / ((double)numCells * REPORT_FRAMES);
+					final double velocity = Math.sqrt(velocityError / Math.max(velocityNorm, 1e-30));
+					System.out.println(String.format(Locale.US, "%7d %7d %12.4f %12.3f %11.3f%%", width, frame + 1, dyeMean, dyeWorst, 100 * velocity));
+					if (dyeMean > MAX_MEAN_DYE_ERROR || velocity > MAX_VELOCITY_ERROR) isWithin = false;
+					dyeSum = dyeWorst = velocityError = velocityNorm = 0;
+				}
+			}
+		}
+		if (!isWithin) System.out.println("mean dye error over " + MAX_MEAN_DYE_ERROR + " or velocity error over " + (100 * MAX_VELOCITY_ERROR) + "%");
+		return isWithin;
+	}
+
+	void time() {
+		System.out.println();
+		System.out.println(String.format(Locale.US, "# %s %s, %d warmup + %d x %d ms iterations of update()",
+				System.getProperty("java.vm.name"), System.getProperty("java.version"), WARMUP, MEASURE, ITERATION_NANOS / 1000000));
+		System.out.println(String.format(Locale.US, "%5s %12s %12s %8s", "NX", "float us", "fixed us", "ratio"));
+		for (final int width : WIDTHS) {
+			final double floats = time(configure(new MSAFluidSolver2D(width, width * 9 / 16).enableRowMajor(true)));
+			final double fixed = time(configure(new MSAFluidSolver2DINT(width, width * 9 / 16)));
+			System.out.println(String.format(Locale.US, "%5d %12.2f %12.2f %7.2fx", width, floats, fixed, floats / fixed));
+		}
+		if (_sink == 12345.678f) System.out.println();
+	}
+
+	/**
+	 * mean time per update() over the measured iterations, in microseconds. Like FluidBenchmark,
+	 * every batch of BATCH_OPS updates starts from a fresh restore of the primed state, which isn't timed.
+	 */
+	private double time(final FluidSolver solver) {
+		for (int frame = 0; frame < PRIME_FRAMES; frame++) drive(solver, frame);
+		final ByteBuffer primed = FluidSnapshot.save(solver, false);
+		double total = 0;
+		for (int it = 0; it < WARMUP + MEASURE; it++) {
+			long time = 0;
+			long ops = 0;
+			while (time < ITERATION_NANOS) {
+				primed.rewind();
+				FluidSnapshot.restore(primed, solver);
+				final long start = System.nanoTime();
+				for (int op = 0; op < BATCH_OPS; op++) solver.update();
+				time += System.nanoTime() - start;
+				ops += BATCH_OPS;
+				_sink += solver.getRed(solver.getNumCells() / 2);
+			}
+			if (it >= WARMUP) total += time / 1000.0 / ops;
+		}
+		return total / MEASURE;
+	}
+
+	/**
+	 * dye as it ends up on screen, where everything over 255 looks the same
+	 */
+	private static float shown(final float dye) {
+		return Math.max(0, Math.min(255, dye));
+	}
+
+	/**
+	 * PlasmaFluid's settings, the ones both engines have
+	 */
+	private static FluidSolver configure(final FluidSolver solver) {
+		solver.enableRGB(true).setFadeSpeed(0.01f).setDeltaT(0.5f).setVisc(0.0001f).setSolverIterations(3);
+		return solver;
+	}
+
+	private static void drive(final FluidSolver solver, final int frame) {
+		if ((frame / 100) % 3 != 2) {
+			for (int t = 0; t < TOUCHES; t++) {
+				final float x = 0.3f + 0.1f * t + 0.002f * (frame % 50);
+				final float y = 0.5f + 0.2f * (float)Math.sin(frame * 0.05);
+				final int index = solver.getIndexForNormalizedPosition(x, y);
+				solver.addColorAtIndex(index, 200, 100, 50);
+				solver.addForceAtIndex(index, 0.3f * (float)Math.cos(frame * 0.03), -0.2f);
+			}
+		}
+		solver.update();
+	}
+}
@@ -0,0 +1,347 @@
+package msafluid;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Times the msafluid engines on a desktop JVM: a whole update() and the kernels it is made of,
+ * for every engine, grid size and solver iteration count asked for. See bench/README for how to
+ * build and run it.
+ *
+ * Each case gets a fresh solver primed with PRIME_FRAMES frames of scripted splats, and a
+ * snapshot of that state. A measurement iteration runs batches of BATCH_OPS operations, each on a
+ * fresh restore of the snapshot so the fade can't run the dye down to zero (and into denormals)
+ * and the solves don't converge to nothing. Only the operations are timed, not the restores.
+ * WARMUP iterations are run and thrown away before MEASURE iterations are kept, and the result is
+ * the mean time per operation with the standard deviation between iterations.
+ *
+ * The update benchmark also prints how sharp the dye stays and how much swirl is left with the
+ * advection, vorticity confinement and buoyancy used: a solver gets STROKE_FRAMES frames of a
+ * splat moving along a sine, then FREE_FRAMES steps without input. The sharpness is the mean
+ * length of the dye's gradient (per screen width) divided by the mean dye, the more the advection
+ * smears, the lower it comes out. The enstrophy is half the mean square of the velocity's curl
+ * (per screen width), what the confinement is there to keep up.
+ */
+public class FluidBenchmark {
+	final static String[]	BENCHMARKS			= {"update", "linearSolverRGB", "advectRGB", "project", "fadeRGB", "addForce", "addSplats"};
+	/** the benchmarks whose cost depends on the solver iterations **/
+	final static boolean[]	USES_ITERATIONS		= {true, true, false, true, false, false, false};
+	final static int		BENCH_UPDATE		= 0;
+	final static int		BENCH_LINEAR_SOLVER	= 1;
+	final static int		BENCH_ADVECT		= 2;
+	final static int		BENCH_PROJECT		= 3;
+	final static int		BENCH_FADE			= 4;
+	final static int		BENCH_ADD_FORCE		= 5;
+	final static int		BENCH_ADD_SPLATS	= 6;
+
+	final static int		PRIME_FRAMES		= 60;
+	final static int		BATCH_OPS			= 20;
+	/** forces (and colors) added per addForce operation, and splats per addSplats operation **/
+	final static int		TOUCHES				= 10;
+	final static float		VISC				= 0.0001f;
+	final static String[]	ADVECTION_NAMES		= {"semi-lagr", "maccormack"};
+	final static int		STROKE_FRAMES		= 60;
+	final static int		FREE_FRAMES			= 90;
+
+	private int[]	_engines	= {FluidSolverSelector.ENGINE_FLOAT, FluidSolverSelector.ENGINE_PARALLEL, FluidSolverSelector.ENGINE_STRIPPED,
+								   FluidSolverSelector.ENGINE_FIXED_POINT, FluidSolverSelector.ENGINE_INTERLEAVED};
+	private int[]	_sizes		= {40, 90, 160, 256};
+	private int[]	_iterations	= {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+	private int[]	_benchmarks	= {0, 1, 2, 3, 4, 5, 6};
+	/** MSAFluidSolver2D.ADVECTION_*, the other engines only have the semi-Lagrangian one **/
+	private int[]	_advections	= {MSAFluidSolver2D.ADVECTION_SEMI_LAGRANGIAN};
+	/** MSAFluidSolver2D.setVorticityConfinement and setBuoyancy, only the float engines have them **/
+	private float[]	_vorticities	= {0};
+	private float[]	_buoyancies	= {0};
+	private int		_warmup		= 3;
+	private int		_measure	= 5;
+	private long	_iterationNanos	= 100 * 1000000L;
+	private int		_threads	= Runtime.getRuntime().availableProcessors();
+
+	/* splats for addSplats and the touch positions for addForce, the same every run */
+	private final float[]	_splatX = new float[TOUCHES], _splatY = new float[TOUCHES];
+	private final float[]	_splatDX = new float[TOUCHES], _splatDY = new float[TOUCHES], _splatAmount = new float[TOUCHES];
+	private final int[]		_splatColor = new int[TOUCHES];
+	/** results go in here so the JIT can't drop the work **/
+	private float	_sink;
+
+	public static void main(final String[] args) {
+		final FluidBenchmark benchmark = new FluidBenchmark();
+		try {
+			benchmark.parseArgs(args);
+		} catch (final IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("usage: FluidBenchmark [-e engines] [-s sizes] [-i iterations] [-b benchmarks] [-a advections] [-c vorticities] [-g buoyancies] [-w warmup] [-m measure] [-t ms] [-threads n]");
+			System.err.println("  engines: " + Arrays.toString(FluidSolverSelector.ENGINE_NAMES) + " by index, benchmarks: " + Arrays.toString(BENCHMARKS) + " by name");
+			System.exit(1);
+		}
+		benchmark.run();
+	}
+
+	FluidBenchmark() {
+		for (int t = 0; t < TOUCHES; t++) {
+			_splatX[t] = 0.2f + 0.6f * t / TOUCHES;
+			_splatY[t] = 0.3f + 0.04f * t;
+			_splatDX[t] = 0.3f;
+			_splatDY[t] = -0.2f;
+			_splatColor[t] = 0xff8000;
+			_splatAmount[t] = 1;
+		}
+	}
+
+	void parseArgs(final String[] args) {
+		for (int a = 0; a < args.length; a++) {
+			final String option = args[a];
+			if (a + 1 >= args.length) throw new IllegalArgumentException("missing value for " + option);
+			final String value = args[++a];
+			if (option.equals("-e")) _engines = parseInts(value);
+			else if (option.equals("-s")) _sizes = parseInts(value);
+			else if (option.equals("-i")) _iterations = parseInts(value);
+			else if (option.equals("-b")) _benchmarks = parseBenchmarks(value);
+			else if (option.equals("-a")) _advections = parseInts(value);
+			else if (option.equals("-c")) _vorticities = parseFloats(value);
+			else if (option.equals("-g")) _buoyancies = parseFloats(value);
+			else if (option.equals("-w")) _warmup = Integer.parseInt(value);
+			else if (option.equals("-m")) _measure = Integer.parseInt(value);
+			else if (option.equals("-t")) _iterationNanos = Long.parseLong(value) * 1000000L;
+			else if (option.equals("-threads")) _threads = Integer.parseInt(value);
+			else throw new IllegalArgumentException("unknown option " + option);
+		}
+		for (final int engine : _engines) {
+			if (engine < 0 || engine >= FluidSolverSelector.ENGINE_NAMES.length) throw new IllegalArgumentException("no engine " + engine);
+		}
+		for (final int advection : _advections) {
+			if (advection < 0 || advection >= ADVECTION_NAMES.length) throw new IllegalArgumentException("no advection " + advection);
+		}
+	}
+
+	/**
+	 * a list like "1,2,5" or a range like "1-10"
+	 */
+	private static int[] parseInts(final String value) {
+		final ArrayList<Integer> list = new ArrayList<Integer>();
+		for (final String part : value.split(",")) {
+			final int dash = part.indexOf('-', 1);
+			if (dash < 0) {
+				list.add(Integer.parseInt(part.trim()));
+				continue;
+			}
+			final int to = Integer.parseInt(part.substring(dash + 1).trim());
+			for (int i = Integer.parseInt(part.substring(0, dash).trim()); i <= to; i++) list.add(i);
+		}
+		final int[] ints = new int[list.size()];
+		for (int i = 0; i < ints.length; i++) ints[i] = list.get(i);
+		return ints;
+	}
+
+	/**
+	 * a list like "0,0.3,1"
+	 */
+	private static float[] parseFloats(final String value) {
+		final String[] parts = value.split(",");
+		final float[] floats = new float[parts.length];
+		for (int i = 0; i < floats.length; i++) floats[i] = Float.parseFloat(parts[i].trim());
+		return floats;
+	}
+
+	private static int[] parseBenchmarks(final String value) {
+		final String[] names = value.split(",");
+		final int[] benchmarks = new int[names.length];
+		for (int n = 0; n < names.length; n++) {
+			benchmarks[n] = Arrays.asList(BENCHMARKS).indexOf(names[n].trim());
+			if (benchmarks[n] < 0) throw new IllegalArgumentException("no benchmark " + names[n]);
+		}
+		return benchmarks;
+	}
+
+	void run() {
+		System.out.println(String.format(Locale.US, "# %s %s, %d cores, %d warmup + %d x %d ms iterations",
+				System.getProperty("java.vm.name"), System.getProperty("java.version"),
+				Runtime.getRuntime().availableProcessors(), _warmup, _measure, _iterationNanos / 1000000));
+		System.out.println(String.format(Locale.US, "%-16s %-12s %-10s %5s %5s %5s %5s %12s %10s %10s %10s", "benchmark", "engine", "advection", "vort", "buoy", "NX", "iter",
+				"us/op", "+-", "sharpness", "enstrophy"));
+		for (final int benchmark : _benchmarks) {
+			for (final int engine : _engines) {
+				for (final int advection : _advections) {
+					for (final float vorticity : _vorticities) {
+						for (final float buoyancy : _buoyancies) {
+							final Settings settings = new Settings(engine, advection, vorticity, buoyancy);
+							for (final int size : _sizes) {
+								if (USES_ITERATIONS[benchmark]) {
+									for (final int iterations : _iterations) runCase(benchmark, settings, size, iterations);
+								} else {
+									runCase(benchmark, settings, size, _iterations[0]);
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+		// print the sink so nothing above counts as dead code
+		if (_sink == 12345.678f) System.out.println();
+	}
+
+	private void runCase(final int benchmark, final Settings settings, final int size, final int iterations) {
+		final FluidSolver solver = createSolver(settings, size, iterations);
+		if (solver == null) return;
+		for (int f = 0; f < PRIME_FRAMES; f++) {
+			solver.addSplats(TOUCHES, _splatX, _splatY, _splatDX, _splatDY, _splatColor, _splatAmount, FluidSimulationThread.DEFAULT_SPLAT_RADIUS);
+			solver.update();
+		}
+		final ByteBuffer primed = FluidSnapshot.save(solver, false);
+
+		final double[] results = new double[_measure];
+		for (int it = 0; it < _warmup + _measure; it++) {
+			long time = 0;
+			long ops = 0;
+			while (time < _iterationNanos) {
+				primed.rewind();
+				FluidSnapshot.restore(primed, solver);
+				final long start = System.nanoTime();
+				for (int op = 0; op < BATCH_OPS; op++) runOnce(benchmark, solver);
+				time += System.nanoTime() - start;
+				ops += BATCH_OPS;
+				_sink += solver.getRed(solver.getNumCells() / 2);
+			}
+			if (it >= _warmup) results[it - _warmup] = time / 1000.0 / ops;
+		}
+		FluidSolverSelector.dispose(solver);
+		String sharpness = "-", enstrophy = "-";
+		if (benchmark == BENCH_UPDATE) {
+			final float[] flow = freeFlow(settings, size, iterations);
+			sharpness = String.format(Locale.US, "%10.2f", flow[0]);
+			enstrophy = String.format(Locale.US, "%10.3e", flow[1]);
+		}
+
+		double mean = 0;
+		for (final double result : results) mean += result;
+		mean /= results.length;
+		double variance = 0;
+		for (final double result : results) variance += (result - mean) * (result - mean);
+		final double deviation = results.length > 1 ? Math.sqrt(variance / (results.length - 1)) : 0;
+		System.out.println(String.format(Locale.US, "%-16s %-12s %-10s %5s %5s %5d %5s %12.2f %10.2f %10s %10s", BENCHMARKS[benchmark], FluidSolverSelector.ENGINE_NAMES[settings.engine],
+				ADVECTION_NAMES[settings.advection], settings.vorticity, settings.buoyancy, size, USES_ITERATIONS[benchmark] ? String.valueOf(iterations) : "-",
+				mean, deviation, sharpness, enstrophy));
+	}
+
+	/**
+	 * solver for a case, null if the engine doesn't have the advection, confinement or buoyancy asked for
+	 */
+	private FluidSolver createSolver(final Settings settings, final int size, final int iterations) {
+		final FluidSolver solver = FluidSolverSelector.create(settings.engine, size, size * 9 / 16, _threads);
+		solver.enableRGB(true).setFadeSpeed(0.01f).setDeltaT(0.5f).setVisc(VISC).setSolverIterations(iterations);
+		if (solver instanceof MSAFluidSolver2D) {
+			((MSAFluidSolver2D)solver).setAdvectionType(settings.advection).setVorticityConfinement(settings.vorticity).setBuoyancy(settings.buoyancy);
+		} else if (settings.advection != MSAFluidSolver2D.ADVECTION_SEMI_LAGRANGIAN || settings.vorticity != 0 || settings.buoyancy != 0) {
+			FluidSolverSelector.dispose(solver);
+			return null;
+		}
+		return solver;
+	}
+
+	/**
+	 * after a stroke and some free flow: the mean length of the dye's gradient over the mean dye,
+	 * and half the mean square curl of the velocity
+	 */
+	private float[] freeFlow(final Settings settings, final int size, final int iterations) {
+		final FluidSolver solver = createSolver(settings, size, iterations);
+		final float[] x = new float[1], y = new float[1], dx = new float[1], dy = new float[1], amount = {1};
+		final int[] color = {0xff8000};
+		for (int f = 0; f < STROKE_FRAMES + FREE_FRAMES; f++) {
+			if (f < STROKE_FRAMES) {
+				final float t = (float)f / STROKE_FRAMES;
+				x[0] = 0.2f + 0.6f * t;
+				y[0] = 0.5f + 0.2f * (float)Math.sin(2 * Math.PI * t);
+				dx[0] = 0.6f / STROKE_FRAMES;
+				dy[0] = 0.2f * 2 * (float)Math.PI * (float)Math.cos(2 * Math.PI * t) / STROKE_FRAMES;
+				solver.addSplats(1, x, y, dx, dy, color, amount, FluidSimulationThread.DEFAULT_SPLAT_RADIUS);
+			}
+			solver.update();
+		}
+		final int NX = solver.getWidth() - 2;
+		final int NY = solver.getHeight() - 2;
+		double gradient = 0, dye = 0, enstrophy = 0;
+		for (int j = 2; j < NY; j++) {
+			for (int i = 2; i < NX; i++) {
+				final int left = solver.getIndexForCellPosition(i - 1, j), right = solver.getIndexForCellPosition(i + 1, j);
+				final int up = solver.getIndexForCellPosition(i, j - 1), down = solver.getIndexForCellPosition(i, j + 1);
+				final float gx = solver.getRed(right) - solver.getRed(left);
+				final float gy = solver.getRed(down) - solver.getRed(up);
+				gradient += 0.5f * NX * Math.sqrt(gx * gx + gy * gy);
+				dye += solver.getRed(solver.getIndexForCellPosition(i, j));
+				final float curl = 0.5f * NX * ((solver.getVelocityY(right) - solver.getVelocityY(left)) - (solver.getVelocityX(down) - solver.getVelocityX(up)));
+				enstrophy += 0.5f * curl * curl;
+			}
+		}
+		FluidSolverSelector.dispose(solver);
+		return new float[] {(float)(gradient / Math.max(dye, 1e-30)), (float)(enstrophy / ((NX - 2) * (NY - 2)))};
+	}
+
+	/**
+	 * what a case runs, apart from the grid size and iterations
+	 */
+	private static class Settings {
+		final int engine, advection;
+		final float vorticity, buoyancy;
+
+		Settings(final int engine, final int advection, final float vorticity, final float buoyancy) {
+			this.engine = engine;
+			this.advection = advection;
+			this.vorticity = vorticity;
+			this.buoyancy = buoyancy;
+		}
+	}
+
+	/**
+	 * one operation of a benchmark, the kernels with the arguments update() gives them
+	 */
+	private void runOnce(final int benchmark, final FluidSolver solver) {
+		switch (benchmark) {
+			case BENCH_UPDATE:
+				solver.update();
+				return;
+			case BENCH_ADD_FORCE:
+				for (int t = 0; t < TOUCHES; t++) {
+					final int index = solver.getIndexForNormalizedPosition(_splatX[t], _splatY[t]);
+					solver.addForceAtIndex(index, _splatDX[t], _splatDY[t]);
+					solver.addColorAtIndex(index, 255, 128, 0);
+				}
+				return;
+			case BENCH_ADD_SPLATS:
+				solver.addSplats(TOUCHES, _splatX, _splatY, _splatDX, _splatDY, _splatColor, _splatAmount, FluidSimulationThread.DEFAULT_SPLAT_RADIUS);
+				return;
+		}
+
+		if (solver instanceof MSAFluidSolver2D) {
+			final MSAFluidSolver2D s = (MSAFluidSolver2D)solver;
+			final float a = s._dt * VISC * s._NX * s._NY;
+			switch (benchmark) {
+				case BENCH_LINEAR_SOLVER: s.linearSolverRGB(0, a, 1 + 4 * a); break;
+				case BENCH_ADVECT: s.advectRGB(0, s.u, s.v); break;
+				case BENCH_PROJECT: s.project(s.u, s.v, s.uOld, s.vOld); break;
+				case BENCH_FADE: s.fadeRGB(); break;
+			}
+		} else if (solver instanceof MSAFluidSolver2DSTRIPPED) {
+			final MSAFluidSolver2DSTRIPPED s = (MSAFluidSolver2DSTRIPPED)solver;
+			final float a = s._dt * VISC * s._NX * s._NY;
+			switch (benchmark) {
+				case BENCH_LINEAR_SOLVER: s.linearSolverRGB(0, a, 1 + 4 * a); break;
+				case BENCH_ADVECT: s.advectRGB(0, s.u, s.v); break;
+				case BENCH_PROJECT: s.project(s.u, s.v, s.uOld, s.vOld); break;
+				case BENCH_FADE: s.fadeRGB(); break;
+			}
+		} else if (solver instanceof MSAFluidSolver2DINT) {
+			final MSAFluidSolver2DINT s = (MSAFluidSolver2DINT)solver;
+			final float a = s._dt * VISC * s._NX * s._NY;
+			switch (benchmark) {
+				case BENCH_LINEAR_SOLVER: s.linearSolverRGB(0, MSAFluidSolver2DINT.toFixed(a), MSAFluidSolver2DINT.toFixed(1 / (1 + 4 * a))); break;
+				case BENCH_ADVECT: s.advectRGB(0, s.u, s.v); break;
+				case BENCH_PROJECT: s.project(s.u, s.v, s.uOld, s.vOld); break;
+				case BENCH_FADE: s.fadeRGB(); break;
+			}
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package msafluid;
+
+import java.util.Locale;
+
+import processing.core.PConstants;
+import processing.core.PGraphics;
+
+/**
+ * Times turning the dye into ARGB pixels at each of PlasmaFluid's grid widths: the per pixel
+ * color() loop drawFluid used to run, the clamping loop FluidSimulationThread used to run, and
+ * FluidPixelPacker with and without a tone curve and with worker threads. See bench/README.
+ *
+ * The dye comes from a float solver primed like in FluidBenchmark, pushed over 255 in places so
+ * the clamping is exercised. Also prints how many pixels each way differs from the color() loop.
+ */
+public class PixelBenchmark {
+	final static int[]		WIDTHS			= {24, 32, 40, 64, 90, 160, 256};
+	final static String[]	METHODS			= {"p.color", "clamp loop", "packer", "packer gamma", "packer 2 threads", "packer 4 threads"};
+	final static int		METHOD_COLOR	= 0;
+	final static int		METHOD_CLAMP	= 1;
+	final static int		METHOD_PACKER	= 2;
+	final static int		METHOD_GAMMA	= 3;
+	final static int		METHOD_THREADS2	= 4;
+	final static int		METHOD_THREADS4	= 5;
+
+	final static int		PRIME_FRAMES	= 60;
+	final static int		WARMUP			= 3;
+	final static int		MEASURE			= 5;
+	final static long		ITERATION_NANOS	= 100 * 1000000L;
+
+	/* the color() loop, as drawFluid had it */
+	private final PGraphics	_g = new PGraphics();
+	private int				_sink;
+
+	public static void main(final String[] args) {
+		new PixelBenchmark().run();
+	}
+
+	PixelBenchmark() {
+		_g.colorMode(PConstants.RGB, 255);
+	}
+
+	void run() {
+		System.out.println(String.format(Locale.US, "# %s %s, %d cores, %d warmup + %d x %d ms iterations",
+				System.getProperty("java.vm.name"), System.getProperty("java.version"),
+				Runtime.getRuntime().availableProcessors(), WARMUP, MEASURE, ITERATION_NANOS / 1000000));
+		System.out.println(String.format(Locale.US, "%-18s %5s %12s %10s %10s", "method", "NX", "us/frame", "+-", "differ"));
+		final FluidPixelPacker packer = new FluidPixelPacker();
+		final FluidPixelPacker gammaPacker = new FluidPixelPacker().setGamma(2.2f);
+		final FluidPixelPacker packer2 = new FluidPixelPacker(2);
+		final FluidPixelPacker packer4 = new FluidPixelPacker(4);
+		for (final int width : WIDTHS) {
+			final MSAFluidSolver2D solver = primedSolver(width);
+			final int[] reference = new int[solver.getNumCells()];
+			final int[] frame = new int[solver.getNumCells()];
+			runOnce(METHOD_COLOR, solver, reference, null);
+			for (int method = 0; method < METHODS.length; method++) {
+				final FluidPixelPacker p = method == METHOD_GAMMA ? gammaPacker : method == METHOD_THREADS2 ? packer2 : method == METHOD_THREADS4 ? packer4 : packer;
+				final double[] results = new double[MEASURE];
+				for (int it = 0; it < WARMUP + MEASURE; it++) {
+					long frames = 0;
+					final long start = System.nanoTime();
+					long time;
+					do {
+						runOnce(method, solver, frame, p);
+						frames++;
+						time = System.nanoTime() - start;
+					} while (time < ITERATION_NANOS);
+					_sink += frame[frame.length / 2];
+					if (it >= WARMUP) results[it - WARMUP] = time / 1000.0 / frames;
+				}
+				int differ = 0;
+				for (int i = 0; i < frame.length; i++) {
+					if (frame[i] != reference[i]) differ++;
+				}
+				print(METHODS[method], width, results, differ);
+			}
+		}
+		packer2.shutdown();
+		packer4.shutdown();
+		if (_sink == 12345) System.out.println();
+	}
+
+	private MSAFluidSolver2D primedSolver(final int width) {
+		final MSAFluidSolver2D solver = new MSAFluidSolver2D(width, width * 9 / 16);
+		solver.enableRGB(true).setFadeSpeed(0.01f).setDeltaT(0.5f).setVisc(0.0001f).setSolverIterations(3);
+		final int touches = 10;
+		final float[] x = new float[touches], y = new float[touches], dx = new float[touches], dy = new float[touches], amount = new float[touches];
+		final int[] color = new int[touches];
+		for (int t = 0; t < touches; t++) {
+			x[t] = 0.2f + 0.6f * t / touches;
+			y[t] = 0.3f + 0.04f * t;
+			dx[t] = 0.3f;
+			dy[t] = -0.2f;
+			color[t] = 0xff8000 + 0x20 * t;
+			amount[t] = 3;
+		}
+		for (int f = 0; f < PRIME_FRAMES; f++) {
+			solver.addSplats(touches, x, y, dx, dy, color, amount, FluidSimulationThread.DEFAULT_SPLAT_RADIUS);
+			solver.update();
+		}
+		return solver;
+	}
+
+	private void runOnce(final int method, final MSAFluidSolver2D solver, final int[] frame, final FluidPixelPacker packer) {
+		final int numCells = frame.length;
+		switch (method) {
+			case METHOD_COLOR:
+				for (int i = 0; i < numCells; i++) {
+					frame[i] = _g.color(solver.r[i], solver.g[i], solver.b[i]);
+				}
+				break;
+			case METHOD_CLAMP:
+				for (int i = 0; i < numCells; i++) {
+					frame[i] = 0xff000000 | (clamp(solver.getRed(i)) << 16) | (clamp(solver.getGreen(i)) << 8) | clamp(solver.getBlue(i));
+				}
+				break;
+			default:
+				packer.pack(solver, frame);
+				break;
+		}
+	}
+
+	private static int clamp(final float value) {
+		if (value <= 0) return 0;
+		if (value >= 255) return 255;
+		return (int)value;
+	}
+
+	private static void print(final String method, final int width, final double[] results, final int differ) {
+		double mean = 0;
+		for (final double result : results) mean += result;
+		mean /= results.length;
+		double variance = 0;
+		for (final double result : results) variance += (result - mean) * (result - mean);
+		final double deviation = Math.sqrt(variance / (results.length - 1));
+		System.out.println(String.format(Locale.US, "%-18s %5d %12.2f %10.2f %10d", method, width, mean, deviation, differ));
+	}
+}
@@ -0,0 +1,150 @@
+package msafluid;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Error against time of the pressure projection: Gauss-Seidel sweeps (PROJECTION_LINEAR_SOLVER,
+ * what the solver has always done) against multigrid V-cycles (PROJECTION_MULTIGRID), at several
+ * grid widths, the latter with one and two smoothing sweeps each way. See bench/README.
+ *
+ * Each width gets a solver primed with PRIME_FRAMES frames of scripted splats and a snapshot of
+ * that state, so every setting projects the same velocity field. A setting is timed like
+ * FluidBenchmark times project(): batches of BATCH_OPS projections, each of a fresh restore of the
+ * snapshot, with only the projections timed. The error is measured once, untimed: the root mean
+ * square of the pressure equation's residual after the solve, and of the divergence of the
+ * velocity after the projection. Both are given relative to the divergence before it, so 1 means
+ * nothing was done and 0 a perfect projection.
+ */
+public class ProjectionBenchmark {
+	final static int[]		WIDTHS			= {90, 160, 256};
+	final static int[]		SWEEPS			= {1, 2, 3, 5, 10, 20, 40, 80};
+	final static int[]		CYCLES			= {1, 2, 3, 4};
+	/** smoothing sweeps before and after the coarse correction **/
+	final static int[]		MULTIGRID_SWEEPS	= {1, 2};
+
+	final static int		PRIME_FRAMES	= 60;
+	final static int		BATCH_OPS		= 20;
+	final static int		TOUCHES			= 10;
+	final static int		WARMUP			= 5;
+	final static int		MEASURE			= 5;
+	final static long		ITERATION_NANOS	= 100 * 1000000L;
+
+	private final float[]	_splatX = new float[TOUCHES], _splatY = new float[TOUCHES];
+	private final float[]	_splatDX = new float[TOUCHES], _splatDY = new float[TOUCHES], _splatAmount = new float[TOUCHES];
+	private final int[]		_splatColor = new int[TOUCHES];
+	private float			_sink;
+	/* last residual the solver reported */
+	private float			_residual;
+
+	public static void main(final String[] args) {
+		new ProjectionBenchmark().run();
+	}
+
+	ProjectionBenchmark() {
+		for (int t = 0; t < TOUCHES; t++) {
+			_splatX[t] = 0.2f + 0.6f * t / TOUCHES;
+			_splatY[t] = 0.3f + 0.04f * t;
+			_splatDX[t] = 0.3f;
+			_splatDY[t] = -0.2f;
+			_splatColor[t] = 0xff8000;
+			_splatAmount[t] = 1;
+		}
+	}
+
+	void run() {
+		System.out.println(String.format(Locale.US, "# %s %s, %d warmup + %d x %d ms iterations",
+				System.getProperty("java.vm.name"), System.getProperty("java.version"), WARMUP, MEASURE, ITERATION_NANOS / 1000000));
+		System.out.println(String.format(Locale.US, "%-16s %7s %6s %12s %10s %12s %12s", "projection", "NX x NY", "steps", "us/project", "+-", "residual", "divergence"));
+		for (final int width : WIDTHS) {
+			final MSAFluidSolver2D solver = new MSAFluidSolver2D(width, width * 9 / 16);
+			solver.enableRGB(true).setFadeSpeed(0.01f).setDeltaT(0.5f).setVisc(0.0001f).setSolverIterations(3).enableRowMajor(true);
+			for (int f = 0; f < PRIME_FRAMES; f++) {
+				solver.addSplats(TOUCHES, _splatX, _splatY, _splatDX, _splatDY, _splatColor, _splatAmount, FluidSimulationThread.DEFAULT_SPLAT_RADIUS);
+				solver.update();
+			}
+			// the velocity as update() hands it to the first projection
+			solver.addSplats(TOUCHES, _splatX, _splatY, _splatDX, _splatDY, _splatColor, _splatAmount, FluidSimulationThread.DEFAULT_SPLAT_RADIUS);
+			for (int i = 0; i < solver.getNumCells(); i++) {
+				solver.u[i] += solver._dt * solver.uOld[i];
+				solver.v[i] += solver._dt * solver.vOld[i];
+			}
+			final ByteBuffer primed = FluidSnapshot.save(solver, false);
+			solver.setResidualListener(new ResidualListener() {
+				public void onResidual(final int pass, final int iteration, final float residual) {
+					_residual = residual;
+				}
+			});
+
+			solver.setProjectionType(MSAFluidSolver2D.PROJECTION_LINEAR_SOLVER);
+			for (final int sweeps : SWEEPS) {
+				solver.setSolverIterations(sweeps);
+				runCase("gauss-seidel", solver, primed, sweeps);
+			}
+			solver.setProjectionType(MSAFluidSolver2D.PROJECTION_MULTIGRID);
+			for (final int sweeps : MULTIGRID_SWEEPS) {
+				solver._multigrid.setSweeps(sweeps, sweeps);
+				for (final int cycles : CYCLES) {
+					solver.setMultigridCycles(cycles);
+					runCase("multigrid V(" + sweeps + "," + sweeps + ")", solver, primed, cycles);
+				}
+			}
+		}
+		if (_sink == 12345.678f) System.out.println();
+	}
+
+	private void runCase(final String name, final MSAFluidSolver2D solver, final ByteBuffer primed, final int steps) {
+		// error, with the listener, untimed
+		primed.rewind();
+		FluidSnapshot.restore(primed, solver);
+		final float before = divergence(solver);
+		solver.project(solver.u, solver.v, solver.uOld, solver.vOld);
+		final float residual = _residual;
+		final float after = divergence(solver);
+
+		final ResidualListener listener = solver._residualListener;
+		solver.setResidualListener(null);
+		final double[] results = new double[MEASURE];
+		for (int it = 0; it < WARMUP + MEASURE; it++) {
+			long time = 0;
+			long ops = 0;
+			while (time < ITERATION_NANOS) {
+				primed.rewind();
+				FluidSnapshot.restore(primed, solver);
+				final long start = System.nanoTime();
+				for (int op = 0; op < BATCH_OPS; op++) solver.project(solver.u, solver.v, solver.uOld, solver.vOld);
+				time += System.nanoTime() - start;
+				ops += BATCH_OPS;
+				_sink += solver.u[solver.getNumCells() / 2];
+			}
+			if (it >= WARMUP) results[it - WARMUP] = time / 1000.0 / ops;
+		}
+		solver.setResidualListener(listener);
+
+		double mean = 0;
+		for (final double result : results) mean += result;
+		mean /= results.length;
+		double variance = 0;
+		for (final double result : results) variance += (result - mean) * (result - mean);
+		final double deviation = Math.sqrt(variance / (results.length - 1));
+		System.out.println(String.format(Locale.US, "%-16s %7s %6d %12.2f %10.2f %12.2e %12.2e", name, solver._NX + "x" + solver._NY, steps,
+				mean, deviation, residual / before, after / before));
+	}
+
+	/**
+	 * root mean square of the divergence of the velocity, in the units project() solves for
+	 */
+	private static float divergence(final MSAFluidSolver2D solver) {
+		final int NX = solver._NX;
+		final int NY = solver._NY;
+		final int rowStride = NX + 2;
+		double sum = 0;
+		for (int j = 1; j <= NY; j++) {
+			for (int i = 1, index = 1 + rowStride * j; i <= NX; i++, index++) {
+				final float div = -0.5f / NX * (solver.u[index + 1] - solver.u[index - 1] + solver.v[index + rowStride] - solver.v[index - rowStride]);
+				sum += div * div;
+			}
+		}
+		return (float)Math.sqrt(sum / (NX * NY));
+	}
+}
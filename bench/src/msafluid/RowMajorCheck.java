@@ -0,0 +1,160 @@
+package msafluid;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Checks that MSAFluidSolver2D.enableRowMajor(true) gives bit for bit the same fluid as the
+ * original column order, and times update() both ways. See bench/README.
+ *
+ * Two solvers, one in each order, get FRAMES frames of the same scripted touches (forces and dye
+ * at cell indexes, moving over the grid), for each grid width and iteration count. After every
+ * frame all of the velocity and dye arrays, including the old buffers, are compared bit for bit.
+ * Exits with status 1 if any of them differ.
+ *
+ * The timing runs update() on its own, from a state primed with PRIME_FRAMES scripted frames.
+ */
+public class RowMajorCheck {
+	final static int[]		WIDTHS			= {40, 90, 160};
+	final static int[]		TIME_WIDTHS		= {40, 90, 160, 256, 512};
+	final static int[]		ITERATIONS		= {1, 3, 10};
+	final static int[]		BOUNDARIES		= {MSAFluidSolver2D.BOUNDARY_NONE, MSAFluidSolver2D.BOUNDARY_FREE_SLIP};
+	final static int		FRAMES			= 300;
+	final static int		TOUCHES			= 3;
+	final static int		PRIME_FRAMES	= 60;
+	final static int		BATCH_OPS		= 20;
+
+	final static int		WARMUP			= 3;
+	final static int		MEASURE			= 5;
+	final static long		ITERATION_NANOS	= 200 * 1000000L;
+
+	private float			_sink;
+
+	public static void main(final String[] args) {
+		final RowMajorCheck check = new RowMajorCheck();
+		final boolean isIdentical = check.checkIdentical();
+		check.time();
+		if (!isIdentical) System.exit(1);
+	}
+
+	boolean checkIdentical() {
+		System.out.println(String.format(Locale.US, "%5s %5s %-10s %8s %s", "NX", "iter", "boundary", "frames", "result"));
+		boolean isIdentical = true;
+		for (final int width : WIDTHS) {
+			for (final int iterations : ITERATIONS) {
+				for (final int boundary : BOUNDARIES) {
+					final MSAFluidSolver2D columns = solver(width, iterations, boundary, false);
+					final MSAFluidSolver2D rows = solver(width, iterations, boundary, true);
+					String result = "identical";
+					int frame = 0;
+					for (; frame < FRAMES; frame++) {
+						drive(columns, frame);
+						drive(rows, frame);
+						final String differs = firstDifference(columns, rows);
+						if (differs != null) {
+							result = "DIFFERS in " + differs;
+							isIdentical = false;
+							frame++;
+							break;
+						}
+					}
+					System.out.println(String.format(Locale.US, "%5d %5d %-10s %8d %s", width, iterations,
+							boundary == MSAFluidSolver2D.BOUNDARY_NONE ? "none" : "free slip", frame, result));
+				}
+			}
+		}
+		return isIdentical;
+	}
+
+	void time() {
+		System.out.println();
+		System.out.println(String.format(Locale.US, "# %s %s, %d warmup + %d x %d ms iterations of update()",
+				System.getProperty("java.vm.name"), System.getProperty("java.version"), WARMUP, MEASURE, ITERATION_NANOS / 1000000));
+		System.out.println(String.format(Locale.US, "%5s %5s %14s %14s %8s", "NX", "iter", "columns us", "rows us", "speedup"));
+		for (final int width : TIME_WIDTHS) {
+			for (final int iterations : ITERATIONS) {
+				// both start every batch from the same primed state
+				final MSAFluidSolver2D primer = solver(width, iterations, MSAFluidSolver2D.BOUNDARY_NONE, true);
+				for (int frame = 0; frame < PRIME_FRAMES; frame++) drive(primer, frame);
+				final ByteBuffer primed = FluidSnapshot.save(primer, false);
+				final double columns = time(solver(width, iterations, MSAFluidSolver2D.BOUNDARY_NONE, false), primed);
+				final double rows = time(solver(width, iterations, MSAFluidSolver2D.BOUNDARY_NONE, true), primed);
+				System.out.println(String.format(Locale.US, "%5d %5d %14.2f %14.2f %7.2fx", width, iterations, columns, rows, columns / rows));
+			}
+		}
+		if (_sink == 12345.678f) System.out.println();
+	}
+
+	/**
+	 * mean time per update() over the measured iterations, in microseconds. Like FluidBenchmark,
+	 * every batch of BATCH_OPS updates starts from a fresh restore of primed, which isn't timed.
+	 */
+	private double time(final MSAFluidSolver2D solver, final ByteBuffer primed) {
+		double total = 0;
+		for (int it = 0; it < WARMUP + MEASURE; it++) {
+			long time = 0;
+			long ops = 0;
+			while (time < ITERATION_NANOS) {
+				primed.rewind();
+				FluidSnapshot.restore(primed, solver);
+				final long start = System.nanoTime();
+				for (int op = 0; op < BATCH_OPS; op++) solver.update();
+				time += System.nanoTime() - start;
+				ops += BATCH_OPS;
+				_sink += solver.r[solver.getNumCells() / 2];
+			}
+			if (it >= WARMUP) total += time / 1000.0 / ops;
+		}
+		return total / MEASURE;
+	}
+
+	/**
+	 * the kernels that have a row-major version, with nothing else turned on
+	 */
+	private static MSAFluidSolver2D solver(final int width, final int iterations, final int boundary, final boolean isRowMajor) {
+		final MSAFluidSolver2D solver = new MSAFluidSolver2D(width, width * 9 / 16);
+		solver.enableRGB(true).setFadeSpeed(0.01f).setDeltaT(0.5f).setVisc(0.0001f).setSolverIterations(iterations);
+		solver.setBoundaryType(boundary).enableRowMajor(isRowMajor);
+		return solver;
+	}
+
+	/**
+	 * touches sliding across the middle of the grid, lifted every third stretch of 100 frames
+	 */
+	private static void drive(final MSAFluidSolver2D solver, final int frame) {
+		if ((frame / 100) % 3 != 2) {
+			for (int t = 0; t < TOUCHES; t++) {
+				final float x = 0.3f + 0.1f * t + 0.002f * (frame % 50);
+				final float y = 0.5f + 0.2f * (float)Math.sin(frame * 0.05);
+				final int index = solver.getIndexForNormalizedPosition(x, y);
+				solver.addColorAtIndex(index, 200, 100, 50);
+				solver.addForceAtIndex(index, 0.3f * (float)Math.cos(frame * 0.03), -0.2f);
+			}
+		}
+		solver.update();
+	}
+
+	/**
+	 * name of the first array that differs, null if they are all the same
+	 */
+	private static String firstDifference(final MSAFluidSolver2D a, final MSAFluidSolver2D b) {
+		if (!isIdentical(a.u, b.u)) return "u";
+		if (!isIdentical(a.v, b.v)) return "v";
+		if (!isIdentical(a.r, b.r)) return "r";
+		if (!isIdentical(a.g, b.g)) return "g";
+		if (!isIdentical(a.b, b.b)) return "b";
+		if (!isIdentical(a.uOld, b.uOld)) return "uOld";
+		if (!isIdentical(a.vOld, b.vOld)) return "vOld";
+		if (!isIdentical(a.rOld, b.rOld)) return "rOld";
+		if (!isIdentical(a.gOld, b.gOld)) return "gOld";
+		if (!isIdentical(a.bOld, b.bOld)) return "bOld";
+		return null;
+	}
+
+	private static boolean isIdentical(final float[] a, final float[] b) {
+		for (int i = 0; i < a.length; i++) {
+			if (Float.floatToRawIntBits(a[i]) != Float.floatToRawIntBits(b[i])) return false;
+		}
+		return true;
+	}
+}
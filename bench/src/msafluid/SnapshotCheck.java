@@ -0,0 +1,217 @@
+package msafluid;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Checks FluidSnapshot. See bench/README.
+ *
+ * - Round trip: for every engine, a solver driven for FRAMES frames of scripted splats is saved as
+ *   floats and restored into a fresh solver of the same engine and size. Every velocity and dye
+ *   value has to come back bit for bit, and so does the fluid after each of the NEXT_FRAMES frames
+ *   both solvers get next, with the same splats.
+ * - Half precision: every one of the 65536 halfs has to come back the same from half to float to
+ *   half (NaNs only as some NaN).
+ * - Resize: a float snapshot restored into another grid size has to give what
+ *   FluidSolverSelector.resample gives from the solver itself.
+ * - Rejects: a snapshot cut short, one with the wrong magic or version and a buffer too short for a
+ *   header have to be turned down with an IllegalArgumentException, leaving the buffer's position
+ *   where it was and the solver untouched.
+ *
+ * Exits with status 1 if any of them fail.
+ */
+public class SnapshotCheck {
+	final static int[]		WIDTHS			= {40, 90};
+	final static int[]		RESIZE_WIDTHS	= {24, 64, 90};
+	final static int		FRAMES			= 120;
+	final static int		NEXT_FRAMES		= 30;
+	final static int		TOUCHES			= 3;
+	final static int		THREADS			= 4;
+
+	private boolean			_isOk = true;
+
+	public static void main(final String[] args) {
+		final SnapshotCheck check = new SnapshotCheck();
+		check.checkRoundTrips();
+		check.checkHalfs();
+		check.checkResize();
+		check.checkRejects();
+		if (!check._isOk) System.exit(1);
+	}
+
+	void checkRoundTrips() {
+		System.out.println(String.format(Locale.US, "%-12s %5s %-10s %-10s", "engine", "NX", "restore", "next frames"));
+		for (int engine = 0; engine < FluidSolverSelector.ENGINE_NAMES.length; engine++) {
+			for (final int width : WIDTHS) {
+				final FluidSolver original = solver(engine, width);
+				for (int frame = 0; frame < FRAMES; frame++) drive(original, frame);
+				final FluidSolver restored = solver(engine, width);
+				FluidSnapshot.restore(FluidSnapshot.save(original, false), restored);
+				final String restore = firstDifference(original, restored);
+				String next = "-";
+				if (restore == null) {
+					next = "identical";
+					for (int frame = FRAMES; frame < FRAMES + NEXT_FRAMES; frame++) {
+						drive(original, frame);
+						drive(restored, frame);
+						final String differs = firstDifference(original, restored);
+						if (differs != null) {
+							next = "DIFFERS in " + differs + " after " + (frame - FRAMES + 1);
+							_isOk = false;
+							break;
+						}
+					}
+				} else {
+					_isOk = false;
+				}
+				System.out.println(String.format(Locale.US, "%-12s %5d %-10s %s", FluidSolverSelector.ENGINE_NAMES[engine], width,
+						restore == null ? "identical" : "DIFFERS in " + restore, next));
+				FluidSolverSelector.dispose(original);
+				FluidSolverSelector.dispose(restored);
+			}
+		}
+	}
+
+	void checkHalfs() {
+		int wrong = 0;
+		int firstWrong = -1;
+		for (int bits = 0; bits < 0x10000; bits++) {
+			final short half = (short)bits;
+			final float value = FluidSnapshot.fromHalf(half);
+			final short back = FluidSnapshot.toHalf(value);
+			final boolean isNaN = (bits & 0x7c00) == 0x7c00 && (bits & 0x3ff) != 0;
+			final boolean isRight = isNaN ? Float.isNaN(value) && (back & 0x7c00) == 0x7c00 && (back & 0x3ff) != 0 : back == half;
+			if (!isRight) {
+				if (firstWrong < 0) firstWrong = bits;
+				wrong++;
+			}
+		}
+		System.out.println();
+		System.out.println("half -> float -> half: " + (wrong == 0 ? "all 65536 identical"
+				: String.format(Locale.US, "%d DIFFER, first 0x%04x", wrong, firstWrong)));
+		if (wrong > 0) _isOk = false;
+	}
+
+	void checkResize() {
+		System.out.println();
+		System.out.println(String.format(Locale.US, "%5s %5s %s", "from", "to", "restore against resample"));
+		for (final int from : RESIZE_WIDTHS) {
+			final FluidSolver original = solver(FluidSolverSelector.ENGINE_FLOAT, from);
+			for (int frame = 0; frame < FRAMES; frame++) drive(original, frame);
+			final ByteBuffer snapshot = FluidSnapshot.save(original, false);
+			for (final int to : RESIZE_WIDTHS) {
+				if (to == from) continue;
+				final FluidSolver restored = solver(FluidSolverSelector.ENGINE_FLOAT, to);
+				final FluidSolver resampled = solver(FluidSolverSelector.ENGINE_FLOAT, to);
+				snapshot.rewind();
+				FluidSnapshot.restore(snapshot, restored);
+				FluidSolverSelector.resample(original, resampled);
+				final String differs = firstDifference(resampled, restored);
+				if (differs != null) _isOk = false;
+				System.out.println(String.format(Locale.US, "%5d %5d %s", from, to, differs == null ? "identical" : "DIFFERS in " + differs));
+				FluidSolverSelector.dispose(restored);
+				FluidSolverSelector.dispose(resampled);
+			}
+			FluidSolverSelector.dispose(original);
+		}
+	}
+
+	void checkRejects() {
+		System.out.println();
+		final FluidSolver original = solver(FluidSolverSelector.ENGINE_FLOAT, 40);
+		for (int frame = 0; frame < FRAMES; frame++) drive(original, frame);
+		final byte[] snapshot = FluidSnapshot.save(original, true).array();
+
+		// each one sits after a few bytes of something else, as in a bigger file
+		final int offset = 7;
+		checkReject("cut short", buffer(snapshot, offset, snapshot.length - 1), offset);
+		final ByteBuffer magic = buffer(snapshot, offset, snapshot.length);
+		magic.put(offset, (byte)'X');
+		checkReject("wrong magic", magic, offset);
+		final ByteBuffer version = buffer(snapshot, offset, snapshot.length);
+		version.putInt(offset + 4, FluidSnapshot.VERSION + 1);
+		checkReject("wrong version", version, offset);
+		checkReject("no header", buffer(snapshot, offset, FluidSnapshot.HEADER_BYTES - 1), offset);
+		FluidSolverSelector.dispose(original);
+	}
+
+	private void checkReject(final String name, final ByteBuffer buffer, final int offset) {
+		final FluidSolver solver = solver(FluidSolverSelector.ENGINE_FLOAT, 40);
+		final FluidSolver untouched = solver(FluidSolverSelector.ENGINE_FLOAT, 40);
+		String result;
+		try {
+			FluidSnapshot.restore(buffer, solver);
+			result = "ACCEPTED";
+		} catch (final IllegalArgumentException e) {
+			if (buffer.position() != offset) result = "rejected, but MOVED the position to " + buffer.position();
+			else if (firstDifference(untouched, solver) != null) result = "rejected, but CHANGED the solver";
+			else result = "rejected";
+		}
+		if (!result.equals("rejected")) _isOk = false;
+		System.out.println(String.format(Locale.US, "%-14s %s", name, result));
+		FluidSolverSelector.dispose(solver);
+		FluidSolverSelector.dispose(untouched);
+	}
+
+	/**
+	 * the first length bytes of snapshot, after offset bytes of padding, positioned at the snapshot
+	 */
+	private static ByteBuffer buffer(final byte[] snapshot, final int offset, final int length) {
+		final ByteBuffer buffer = ByteBuffer.allocate(offset + length);
+		for (int i = 0; i < offset; i++) buffer.put((byte)0x55);
+		buffer.put(snapshot, 0, length);
+		buffer.position(offset);
+		return buffer;
+	}
+
+	/**
+	 * an engine as FluidSolverSelector makes it, with PlasmaFluid's settings where the engine has them
+	 */
+	private static FluidSolver solver(final int engine, final int width) {
+		final FluidSolver solver = FluidSolverSelector.create(engine, width, width * 9 / 16, THREADS);
+		solver.enableRGB(true).setFadeSpeed(0.01f).setDeltaT(0.5f).setVisc(0.0001f).setSolverIterations(3);
+		if (solver instanceof MSAFluidSolver2D) {
+			((MSAFluidSolver2D)solver).setBoundaryType(MSAFluidSolver2D.BOUNDARY_FREE_SLIP).setVorticityConfinement(0.3f)
+				.setAdvectionType(MSAFluidSolver2D.ADVECTION_MACCORMACK);
+		}
+		return solver;
+	}
+
+	/**
+	 * splats sliding across the grid, lifted every third stretch of 40 frames
+	 */
+	private static void drive(final FluidSolver solver, final int frame) {
+		if ((frame / 40) % 3 != 2) {
+			final float[] x = new float[TOUCHES], y = new float[TOUCHES], dx = new float[TOUCHES], dy = new float[TOUCHES], amount = new float[TOUCHES];
+			final int[] color = new int[TOUCHES];
+			for (int t = 0; t < TOUCHES; t++) {
+				x[t] = 0.3f + 0.1f * t + 0.005f * (frame % 40);
+				y[t] = 0.5f + 0.2f * (float)Math.sin(frame * 0.05);
+				dx[t] = 0.01f * (float)Math.cos(frame * 0.03);
+				dy[t] = -0.005f;
+				color[t] = 0xc86432;
+				amount[t] = 1;
+			}
+			solver.addSplats(TOUCHES, x, y, dx, dy, color, amount, FluidSimulationThread.DEFAULT_SPLAT_RADIUS);
+		}
+		solver.update();
+	}
+
+	/**
+	 * name of the first channel that differs between two solvers of the same size, null if none do
+	 */
+	private static String firstDifference(final FluidSolver a, final FluidSolver b) {
+		for (int i = 0; i < a.getNumCells(); i++) {
+			if (!isIdentical(a.getVelocityX(i), b.getVelocityX(i))) return "u at " + i;
+			if (!isIdentical(a.getVelocityY(i), b.getVelocityY(i))) return "v at " + i;
+			if (!isIdentical(a.getRed(i), b.getRed(i))) return "r at " + i;
+			if (!isIdentical(a.getGreen(i), b.getGreen(i))) return "g at " + i;
+			if (!isIdentical(a.getBlue(i), b.getBlue(i))) return "b at " + i;
+		}
+		return null;
+	}
+
+	private static boolean isIdentical(final float a, final float b) {
+		return Float.floatToRawIntBits(a) == Float.floatToRawIntBits(b);
+	}
+}
@@ -6,12 +6,15 @@ import org.json.JSONObject;
 
 import processing.core.PApplet;
 import processing.core.PFont;
+import processing.core.PImage;
 import android.graphics.Point;
 
 import com.rj.processing.mt.Cursor;
 import com.rj.processing.plasmasoundhd.sequencer.JSONSequencerPresets;
 import com.rj.processing.plasmasoundhd.sequencer.Sequencer;
 import com.rj.processing.plasmasoundhd.visuals.AudioStats;
+import com.rj.processing.plasmasoundhd.visuals.GeometryBatch;
+import com.rj.processing.plasmasoundhd.visuals.TextCache;
 
 public class SequencerActivity extends PlasmaSubFragment {
 	public static String TAG = "Sequencer";
@@ -34,6 +37,12 @@ public class SequencerActivity extends PlasmaSubFragment {
 	int getMenu() { return com.rj.processing.plasmasound.R.menu.sequencer_menu; }
 
 	PFont font;
+	/** note names, rendered once per note **/
+	TextCache labels;
+	PImage[] noteLabels;
+	int[] labelNotes;
+	/** the step grid, refilled every frame **/
+	final GeometryBatch cellShapes = new GeometryBatch(16 * 10 * 2);
 	
 	@Override
 	public void setup() {
@@ -46,6 +55,8 @@ public class SequencerActivity extends PlasmaSubFragment {
 		}
 		font = p.createFont("americantypewriter.ttf", 28);
 		p.textFont(font);
+		labels = new TextCache(p, font, 32);
+		noteLabels = null;
 		
 		p.textMode(PApplet.MODEL);
 		sequencer.start();
@@ -219,43 +230,48 @@ public class SequencerActivity extends PlasmaSubFragment {
 		
 		/** draw the names of the notes **/
 		float barheight = p.height/grid[0].length;
-		p.pushStyle();
-		p.textAlign(PApplet.CENTER, PApplet.CENTER);
+		if (noteLabels == null || noteLabels.length != grid[0].length) {
+			noteLabels = new PImage[grid[0].length];
+			labelNotes = new int[grid[0].length];
+		}
+		final int labelColor = p.color(100);
 		for (int i=0; i<grid[0].length; i++) {
-			p.fill(100);
-			p.noStroke();
-			p.textSize(barheight/3.5f);
-			p.text(Utils.midiNoteToName((int)(sequencer.getNote(i))), p.width-barwidth/2, p.height-(barheight/2 + barheight*i));
+			// the name is only looked up again when the row's note changes
+			final int note = (int)(sequencer.getNote(i));
+			if (noteLabels[i] == null || labelNotes[i] != note) {
+				noteLabels[i] = labels.get(Utils.midiNoteToName(note));
+				labelNotes[i] = note;
+			}
+			labels.draw(noteLabels[i], p.width-barwidth/2, p.height-(barheight/2 + barheight*i), barheight/3.5f, PApplet.CENTER, PApplet.CENTER, labelColor);
 		}
-		p.popStyle();
 
 		
+		// all the cells go into one batch, drawn in one go
+		final int rowColor = p.color(50);
+		final int offColor = p.color(100, 30);
+		final int barColor = p.color(200,60,60,80);
+		final int onColor = p.color(200,30,30, 50);
+		final int outlineColor = p.color(170);
+		cellShapes.clear();
 		for (int i=0; i<grid.length; i++) {
 			
 			if (sequencer.currentRow == i) {
-				p.fill(50);
-				p.noStroke();
-				p.rect(i*barwidth, 0, barwidth, p.height);
+				cellShapes.rect(i*barwidth, 0, barwidth, p.height, rowColor);
 			}
 			
 			for (int j=0; j<grid[i].length; j++) {
 				if (grid[i][j] == Sequencer.OFF) {
-					p.fill(100, 30);
-					p.stroke(170);
+					cellShapes.rect(i*barwidth, (grid[i].length - j - 1)*barheight, barwidth, barheight, offColor, outlineColor);
 				}  else {
-					p.fill(200,60,60,80);
-					p.noStroke();
-					p.rect(i*barwidth, (grid[i].length - j - 1)*barheight + (barheight-barheight*grid[i][j]), barwidth, barheight*grid[i][j]);
-					p.fill(200,30,30, 50);
-					p.stroke(170);
+					cellShapes.rect(i*barwidth, (grid[i].length - j - 1)*barheight + (barheight-barheight*grid[i][j]), barwidth, barheight*grid[i][j], barColor);
+					cellShapes.rect(i*barwidth, (grid[i].length - j - 1)*barheight, barwidth, barheight, onColor, outlineColor);
 				}
-				
-				p.rect(i*barwidth, (grid[i].length - j - 1)*barheight, barwidth, barheight);
 
 			}
 
 			
 		}
+		cellShapes.draw(p);
 		
 		
 		stats.drawVis();
@@ -4,6 +4,7 @@ import org.json.JSONException;
 
 import processing.core.PApplet;
 import processing.core.PFont;
+import processing.core.PImage;
 import android.view.MotionEvent;
 
 import com.rj.processing.plasmasoundhd.PlasmaActivity;
@@ -13,6 +14,10 @@ import com.rj.processing.plasmasoundhd.sequencer.JSONSequencerPresets;
 public class AudioStats extends Visual{	
 	PlasmaActivity pa;
 	PFont font;
+	/** "Preset: " label, rendered once per preset **/
+	final TextCache labels;
+	String presetName;
+	PImage presetLabel;
 	
 	public AudioStats(final PApplet c, PlasmaActivity p) {
 		super(c);
@@ -31,6 +36,7 @@ public class AudioStats extends Visual{
 		c.textFont(font);
 		
 		c.textMode(PApplet.MODEL);
+		labels = new TextCache(c, font, 8);
 
 	}
 
@@ -53,11 +59,15 @@ public class AudioStats extends Visual{
 		
 		p.fill(200, 140);
 		p.stroke(200, 140);
-		p.textAlign(PApplet.LEFT, PApplet.TOP);
 		if (JSONPresets.getPresets().getCurrent() != null) {
 			try {
 				String name = JSONPresets.getPresets().getCurrent().getString("name");
-				p.text("Preset: "+name, 10, 10);
+				// only render the label again when the preset changes
+				if (!name.equals(presetName)) {
+					presetName = name;
+					presetLabel = labels.get("Preset: "+name);
+				}
+				labels.draw(presetLabel, 10, 10, p.g.textSize, PApplet.LEFT, PApplet.TOP, p.color(200, 140));
 				//p.text
 				
 				
@@ -0,0 +1,138 @@
+package com.rj.processing.plasmasoundhd.visuals;
+
+import processing.core.PApplet;
+import processing.core.PGraphics;
+
+/**
+ * Collects flat colored rects and lines over a frame and draws them all with one QUADS and one
+ * LINES shape, instead of a rect() or line() call (each tessellated on its own) per item.
+ * The arrays grow as needed and are kept between frames, so a batch that is cleared and
+ * refilled every frame doesn't allocate once it has reached its size.
+ *
+ * Fills are drawn before all of the lines, so a translucent fill no longer covers the outline of
+ * a rect added before it.
+ */
+public class GeometryBatch {
+	/* x, y per corner, 4 corners per rect, 2 ends per line */
+	private float[] rectVertices;
+	private int[] rectColors;
+	private int numRects;
+	private float[] lineVertices;
+	private int[] lineColors;
+	private int numLines;
+	private float strokeWeight = 1;
+
+	/**
+	 * @param capacity number of rects and lines to make room for up front
+	 */
+	public GeometryBatch(int capacity) {
+		capacity = Math.max(1, capacity);
+		rectVertices = new float[8 * capacity];
+		rectColors = new int[capacity];
+		lineVertices = new float[4 * capacity];
+		lineColors = new int[capacity];
+	}
+
+	/**
+	 * width of the lines drawn by the next draw(), default 1
+	 */
+	public void setStrokeWeight(final float strokeWeight) {
+		this.strokeWeight = strokeWeight;
+	}
+
+	/**
+	 * forget everything added, keeping the arrays
+	 */
+	public void clear() {
+		numRects = 0;
+		numLines = 0;
+	}
+
+	/**
+	 * a filled rect (corner, width and height, like rectMode(CORNER))
+	 */
+	public void rect(final float x, final float y, final float w, final float h, final int fillColor) {
+		if (numRects == rectColors.length) {
+			rectVertices = grow(rectVertices, 2 * rectVertices.length);
+			rectColors = grow(rectColors, 2 * rectColors.length);
+		}
+		final int v = 8 * numRects;
+		rectVertices[v] = x;			rectVertices[v + 1] = y;
+		rectVertices[v + 2] = x + w;	rectVertices[v + 3] = y;
+		rectVertices[v + 4] = x + w;	rectVertices[v + 5] = y + h;
+		rectVertices[v + 6] = x;		rectVertices[v + 7] = y + h;
+		rectColors[numRects++] = fillColor;
+	}
+
+	/**
+	 * a filled rect with an outline
+	 */
+	public void rect(final float x, final float y, final float w, final float h, final int fillColor, final int strokeColor) {
+		rect(x, y, w, h, fillColor);
+		line(x, y, x + w, y, strokeColor);
+		line(x + w, y, x + w, y + h, strokeColor);
+		line(x + w, y + h, x, y + h, strokeColor);
+		line(x, y + h, x, y, strokeColor);
+	}
+
+	public void line(final float x1, final float y1, final float x2, final float y2, final int strokeColor) {
+		if (numLines == lineColors.length) {
+			lineVertices = grow(lineVertices, 2 * lineVertices.length);
+			lineColors = grow(lineColors, 2 * lineColors.length);
+		}
+		final int v = 4 * numLines;
+		lineVertices[v] = x1;
+		lineVertices[v + 1] = y1;
+		lineVertices[v + 2] = x2;
+		lineVertices[v + 3] = y2;
+		lineColors[numLines++] = strokeColor;
+	}
+
+	/**
+	 * draw everything added since the last clear(), leaves the style as it was
+	 */
+	public void draw(final PApplet p) {
+		draw(p.g);
+	}
+
+	public void draw(final PGraphics g) {
+		if (numRects == 0 && numLines == 0) return;
+		g.pushStyle();
+		if (numRects > 0) {
+			g.noStroke();
+			g.beginShape(PApplet.QUADS);
+			for (int r = 0, v = 0; r < numRects; r++, v += 8) {
+				g.fill(rectColors[r]);
+				g.vertex(rectVertices[v], rectVertices[v + 1]);
+				g.vertex(rectVertices[v + 2], rectVertices[v + 3]);
+				g.vertex(rectVertices[v + 4], rectVertices[v + 5]);
+				g.vertex(rectVertices[v + 6], rectVertices[v + 7]);
+			}
+			g.endShape();
+		}
+		if (numLines > 0) {
+			g.noFill();
+			g.strokeWeight(strokeWeight);
+			g.beginShape(PApplet.LINES);
+			for (int l = 0, v = 0; l < numLines; l++, v += 4) {
+				g.stroke(lineColors[l]);
+				g.vertex(lineVertices[v], lineVertices[v + 1]);
+				g.vertex(lineVertices[v + 2], lineVertices[v + 3]);
+			}
+			g.endShape();
+		}
+		g.popStyle();
+	}
+
+	private static float[] grow(final float[] array, final int length) {
+		final float[] grown = new float[length];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static int[] grow(final int[] array, final int length) {
+		final int[] grown = new int[length];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+}
@@ -1,7 +1,8 @@
 package com.rj.processing.plasmasoundhd.visuals;
 
+import java.util.Arrays;
+
 import processing.core.PApplet;
-import processing.core.PGraphics;
 import processing.core.PImage;
 import android.view.MotionEvent;
 
@@ -12,10 +13,17 @@ import com.rj.processing.plasmasoundhd.pd.instruments.Instrument;
 public class Grid extends Visual{
 	private final float crosshair_size = 100;
 	private final static int NUM_DASHES = 9;
+	/* gray and alpha of the grid lines */
+	private final static int OCTAVE_GRAY = 200;
+	private final static int BLACK_KEY_GRAY = 100;
+	private final static int WHITE_KEY_GRAY = 183;
+	private final static int LINE_ALPHA = 100;
 	PlasmaActivity pp;
 	//PImage dashed;
-//	PGraphics cache;
-//	PImage cacheImage;
+	/** the lines for the notes, drawn once per note range instead of every frame **/
+	PImage gridLayer;
+	/** cursor overlay, refilled every frame **/
+	final GeometryBatch cursorShapes = new GeometryBatch(20);
 	float midiMax;
 	float midiMin;
 	
@@ -28,28 +36,31 @@ public class Grid extends Visual{
 
 	@Override
 	public void drawVis() {
+		float layerMidiMax = 86;
+		float layerMidiMin = 70;
+		if (pp.getInst() != null && pp.getInst().ready) {
+			layerMidiMax = pp.getInst().midiMax;
+			layerMidiMin = pp.getInst().midiMin;
+		}
+		if (gridLayer == null || gridLayer.width != (int)width || gridLayer.height != (int)height
+				|| this.midiMin != layerMidiMin || this.midiMax != layerMidiMax) {
+			drawGridLayer(layerMidiMin, layerMidiMax);
+			this.midiMin = layerMidiMin;
+			this.midiMax = layerMidiMax;
+		}
+		p.image(gridLayer, 0, 0);
+		p.rectMode(PApplet.CORNER);
+		
 		float midiMax = pp.getInst().midiMax;
 		float midiMin = pp.getInst().midiMin;
-//		if (cacheImage == null || this.midiMin != midiMin || this.midiMax != midiMax) {
-//			cache = p.createGraphics((int)width, (int)height, PApplet.P2D);
-//			//p.println("NEW IMAGE NEW GIRD NEW GRID NEW GRID NEW GRID ");
-//			cache.beginDraw();
-//			//cache.background(0, 0, 0, 0);
-			drawVis(p);
-//			cache.endDraw();
-//			if (cacheImage != null) cacheImage.delete();
-//			cacheImage = cache.get();
-			this.midiMin = midiMin;
-			this.midiMax = midiMax;
-//		}
-//		p.image(cacheImage, 0, 0);
-		
-		
 		final float num_lines = midiMax-midiMin;
 		final float spacing = width/(num_lines);
 
+		// collect the crosshairs and note bars, and draw them after letting go of the cursors
+		final int cursorColor = p.color(255,0,0,180);
+		final int noteColor = p.color(255,0,0,50);
+		cursorShapes.clear();
 		synchronized (pp.getMTManager().cursors) {
-			p.stroke(255,0,0,180);
 			int quantize = Instrument.NCONTINUOUS;
 			if (pp.getInst() != null && pp.getInst().ready) {
 				quantize = pp.getInst().quantize;
@@ -57,65 +68,92 @@ public class Grid extends Visual{
 			if (quantize == Instrument.NCONTINUOUS) {
 				for (final Cursor c : pp.getMTManager().cursors) {
 					if (c != null && c.currentPoint != null) {
-						p.line(c.currentPoint.x-crosshair_size, c.currentPoint.y, c.currentPoint.x+crosshair_size, c.currentPoint.y);
-						p.line(c.currentPoint.x, c.currentPoint.y-crosshair_size, c.currentPoint.x, c.currentPoint.y+crosshair_size);
+						addCrosshair(c.currentPoint.x, c.currentPoint.y, cursorColor);
 					}
 				}
 			}
 			else {
-				p.fill(255,0,0,50);
 				for (final Cursor c : pp.getMTManager().cursors) {
 					if (c != null && c.currentPoint != null) {
 						if (quantize == Instrument.NQUANTIZE || pp.getInst().isCursorSnapped(c,width)) {
 							final float x = c.currentPoint.x+spacing/2;
 							final int s = (int) (x/spacing);
-							p.rect(spacing*s-spacing/2f, 0, spacing, p.height);
+							cursorShapes.rect(spacing*s-spacing/2f, 0, spacing, p.height, noteColor, cursorColor);
 						} else {
-							p.line(c.currentPoint.x-crosshair_size, c.currentPoint.y, c.currentPoint.x+crosshair_size, c.currentPoint.y);
-							p.line(c.currentPoint.x, c.currentPoint.y-crosshair_size, c.currentPoint.x, c.currentPoint.y+crosshair_size);
+							addCrosshair(c.currentPoint.x, c.currentPoint.y, cursorColor);
 						}
 					}
 				}
 			}
 		}
+		cursorShapes.draw(p);
 
 	}
-	
-	public void drawVis(PApplet p) {
-		p.rectMode(PApplet.CORNER);
 
-		float midiMax = 86;
-		float midiMin = 70;
-		if (pp.getInst() != null && pp.getInst().ready) {
-			midiMax = pp.getInst().midiMax;
-			midiMin = pp.getInst().midiMin;
+	private void addCrosshair(final float x, final float y, final int color) {
+		cursorShapes.line(x-crosshair_size, y, x+crosshair_size, y, color);
+		cursorShapes.line(x, y-crosshair_size, x, y+crosshair_size, color);
+	}
+	
+	/**
+	 * draw the note lines into gridLayer by hand, the same pixels drawing them as lines and rects
+	 * would cover. Overlapping shapes are blended the way drawing them one over the other would,
+	 * so the overlaps that make the black key lines look dashed come out the same.
+	 * (an offscreen PGraphics doesn't work for this: its blending squares the alpha of anything
+	 * translucent drawn into it, so the lines came out much too faint)
+	 */
+	private void drawGridLayer(final float midiMin, final float midiMax) {
+		final int w = (int)width;
+		final int h = (int)height;
+		if (gridLayer == null || gridLayer.width != w || gridLayer.height != h) {
+			gridLayer = p.createImage(w, h, PApplet.ARGB);
 		}
+		gridLayer.loadPixels();
+		Arrays.fill(gridLayer.pixels, 0);
+
 		final float num_lines = midiMax-midiMin;
 		final float spacing = width/(num_lines);
 		for (int i=0;i<num_lines;i++) {
 			final int space = (int) ((i+midiMin) % 12);
 			if (space == 0) {
-				p.fill(200,100);
-				p.noStroke();
-				//p.line(spacing*i, 0, spacing*i, height);
-				p.rect(spacing*i, 0, 3, height);
+				paintLayer(spacing*i, spacing*i + 3, 0, height, OCTAVE_GRAY);
 
 			} else if (space == 1 || space == 3 || space == 6 || space == 8 || space == 10) {//a black note! 
-				p.stroke(100, 100);
 				if (num_lines < 30) { //don't bother drawing if there's too much stuff on screen
 					for (int q = 0; q<NUM_DASHES; q++) {
-						p.line(spacing * i, q*(height/NUM_DASHES)-20, spacing * i, (q+1)*(height/NUM_DASHES));
-						//p.image(dashed, spacing * i, 0);
+						paintLayer(spacing * i - 0.5f, spacing * i + 0.5f, q*(height/NUM_DASHES)-20, (q+1)*(height/NUM_DASHES), BLACK_KEY_GRAY);
 					}
 				} else if (num_lines < 50) {
-					p.line(spacing * i, 0, spacing * i, height);
+					paintLayer(spacing * i - 0.5f, spacing * i + 0.5f, 0, height, BLACK_KEY_GRAY);
 				}
 			} else {
-				p.stroke(183, 100);
-				p.line(spacing * i, 0, spacing * i, height);
+				paintLayer(spacing * i - 0.5f, spacing * i + 0.5f, 0, height, WHITE_KEY_GRAY);
 			}
 
 		}
+		gridLayer.updatePixels();
+	}
+
+	/**
+	 * blend gray at LINE_ALPHA over the layer pixels whose centers are in x0...x1, y0...y1
+	 */
+	private void paintLayer(final float x0, final float x1, final float y0, final float y1, final int gray) {
+		final int w = gridLayer.width;
+		final int[] pixels = gridLayer.pixels;
+		final int iStart = Math.max(0, (int)Math.ceil(x0 - 0.5f));
+		final int iEnd = Math.min(w, (int)Math.ceil(x1 - 0.5f));
+		final int jStart = Math.max(0, (int)Math.ceil(y0 - 0.5f));
+		final int jEnd = Math.min(gridLayer.height, (int)Math.ceil(y1 - 0.5f));
+		for (int j = jStart; j < jEnd; j++) {
+			for (int i = iStart; i < iEnd; i++) {
+				final int dst = pixels[i + j * w];
+				final int dstAlpha = dst >>> 24;
+				// straight alpha "over", the layer is drawn with the usual alpha blending
+				final int alpha = LINE_ALPHA + dstAlpha * (255 - LINE_ALPHA) / 255;
+				final int level = (gray * LINE_ALPHA + (dst & 0xff) * dstAlpha * (255 - LINE_ALPHA) / 255) / alpha;
+				pixels[i + j * w] = (alpha << 24) | (level << 16) | (level << 8) | level;
+			}
+		}
 	}
 
 	@Override
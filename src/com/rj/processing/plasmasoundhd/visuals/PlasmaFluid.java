@@ -1,25 +1,96 @@
 package com.rj.processing.plasmasoundhd.visuals;
 
+import java.util.ArrayList;
+
+import msafluid.FluidQualityGovernor;
+import msafluid.FluidSolver;
+import msafluid.FluidSimulationThread;
+import msafluid.FluidSolverSelector;
 import msafluid.MSAFluidSolver2D;
 import processing.core.PApplet;
 import processing.core.PImage;
+import android.content.SharedPreferences.Editor;
+import android.os.Build;
 import android.util.Log;
 import android.view.MotionEvent;
 
 import com.rj.processing.plasmasoundhd.PDActivity;
 
 public class PlasmaFluid extends Visual {
+	/** widest grid each visualQuality allows **/
 	final float [] FLUID_QUALITIES = {0, 40, 90};
+	/** grid widths and solver iterations the governor moves between, cheapest first **/
+	final int [] FLUID_LEVEL_WIDTHS = {24, 32, 40, 40, 64, 90, 90};
+	final int [] FLUID_LEVEL_ITERATIONS = {2, 2, 2, 3, 3, 2, 3};
 	int currentQuality = 1;
+	int currentLevel = -1;
+	/** leave a core free for the audio thread and one for drawing **/
+	final int FLUID_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+	final float FLUID_STEPS_PER_SECOND = 60;
+	final float TARGET_FRAME_NANOS = 1000000000f / 60;
+	/** grids up to this wide lose their small swirls to numerical diffusion within a second or so **/
+	final int FLUID_COARSE_WIDTH = 40;
+	/** only on the coarse grids, the finer ones keep their swirls without it **/
+	final float FLUID_VORTICITY = 0.3f;
+	/** update() with MacCormack advection over update() without, on the coarse grids that use it
+	 * (FluidBenchmark -a 0,1: 2.1 to 2.5 times, for 1.3 to 1.5 times the dye sharpness) **/
+	final float FLUID_MACCORMACK_COST = 2.3f;
+	/** below one color step the dye draws as black anyway **/
+	final float FLUID_IDLE_DENSITY = 0.5f;
+	/** any speed: without dye the swirl left behind (kept going by the confinement for minutes) can't be seen **/
+	final float FLUID_IDLE_SPEED = Float.MAX_VALUE;
+	/** upload the whole texture once more than this fraction of its rows changed **/
+	final float FLUID_FULL_UPLOAD_ROWS = 0.75f;
 
-	public MSAFluidSolver2D fluidSolver;
+	public FluidSolver fluidSolver;
+	/** owns fluidSolver while it runs, touches and drawing go through it. It swaps in a resized
+	 * solver on its own, fluidSolver is brought up to date every frame and when it stops **/
+	volatile FluidSimulationThread fluidThread;
+	final FluidQualityGovernor fluidGovernor;
+	long lastFrameTime;
+	
+	final FluidSolverSelector.Configurator fluidSettings = new FluidSolverSelector.Configurator() {
+		public void configure(final FluidSolver solver) {
+			solver.enableRGB(true).setFadeSpeed(0.01f).setDeltaT(0.5f).setVisc(0.0001f).setSolverIterations(3);
+			// keep the dye on screen, and stop working once it has all faded (only the float engines have these)
+			if (solver instanceof MSAFluidSolver2D) {
+				final MSAFluidSolver2D fluid = (MSAFluidSolver2D)solver;
+				fluid.setBoundaryType(MSAFluidSolver2D.BOUNDARY_FREE_SLIP)
+					.enableIdleDetection(true).setIdleThresholds(FLUID_IDLE_DENSITY, FLUID_IDLE_SPEED);
+				// give the coarse grids back some of the swirl and sharpness they smear out (a resize configures a new solver)
+				if (isCoarse(fluid.getWidth() - 2)) {
+					fluid.setVorticityConfinement(FLUID_VORTICITY).setAdvectionType(MSAFluidSolver2D.ADVECTION_MACCORMACK);
+				}
+			}
+		}
+	};
 
 	PImage imgFluid;
+	final ArrayList<PImage> fluidImages = new ArrayList<PImage>();
 	PDActivity pp;
 
 	public PlasmaFluid(final PApplet p, PDActivity pp) {
 		super(p);
 		this.pp = pp;
+		// cost of a level is roughly cells * (iterations + the other passes), more with MacCormack
+		final float[] levelCosts = new float[FLUID_LEVEL_WIDTHS.length];
+		for (int level = 0; level < levelCosts.length; level++) {
+			final int w = FLUID_LEVEL_WIDTHS[level];
+			levelCosts[level] = w * w * (FLUID_LEVEL_ITERATIONS[level] + 2) * (isCoarse(w) ? FLUID_MACCORMACK_COST : 1);
+		}
+		fluidGovernor = new FluidQualityGovernor(levelCosts);
+		// keep the engine timings, they take a second or more on a phone. Preferences can be
+		// restored onto another device or after a system update, hence the fingerprint
+		FluidSolverSelector.setEngineStore(new FluidSolverSelector.EngineStore() {
+			public int load(final String key) {
+				return pp.getSharedPreferences(PDActivity.SHARED_PREFERENCES_APPSTUFF, 0).getInt("fluidengine " + Build.FINGERPRINT + " " + key, -1);
+			}
+			public void save(final String key, final int engine) {
+				final Editor e = pp.getSharedPreferences(PDActivity.SHARED_PREFERENCES_APPSTUFF, 0).edit();
+				e.putInt("fluidengine " + Build.FINGERPRINT + " " + key, engine);
+				e.commit();
+			}
+		});
 		initVis();
 	}
 	
@@ -29,15 +100,90 @@ public class PlasmaFluid extends Visual {
 			return;
 		}
 		currentQuality = pp.inst.visualQuality % FLUID_QUALITIES.length;
-		float FLUID_WIDTH = FLUID_QUALITIES[currentQuality];
-	    // create fluid and set options
-	    fluidSolver = new MSAFluidSolver2D((int)(FLUID_WIDTH), (int)(FLUID_WIDTH * height/width));
+
+		// the governor starts at the best level this quality allows and works down from there
+		int maxLevel = -1;
+		while (maxLevel + 1 < FLUID_LEVEL_WIDTHS.length && FLUID_LEVEL_WIDTHS[maxLevel + 1] <= FLUID_QUALITIES[currentQuality]) maxLevel++;
+		if (maxLevel < 0) {
+			stopFluid();
+			if (fluidSolver != null) FluidSolverSelector.dispose(fluidSolver);
+			fluidSolver = null;
+			return;
+		}
+		fluidGovernor.setMaxLevel(maxLevel).setLevel(maxLevel);
+
+		if (fluidSolver != null) {
+			// already running, switch over without losing what is on screen
+			changeFluidLevel(maxLevel);
+			return;
+		}
+
+	    // create fluid with whichever engine runs fastest here, and set options. Only the float
+	    // engines have all of fluidSettings, the others would win by skipping part of the work.
+	    // A grid size not timed yet starts on the float engine, the simulation thread times them
+		currentLevel = maxLevel;
+		final int fluidNX = FLUID_LEVEL_WIDTHS[currentLevel];
+		final int engine = FluidSolverSelector.getFastest(fluidNX, fluidNY(fluidNX), FLUID_THREADS, FluidSolverSelector.FLOAT_ENGINES);
+	    fluidSolver = FluidSolverSelector.create(engine >= 0 ? engine : FluidSolverSelector.ENGINE_FLOAT, fluidNX, fluidNY(fluidNX), FLUID_THREADS);
 	    
 	    //options
-		fluidSolver.enableRGB(true).setFadeSpeed(0.01f).setDeltaT(0.5f).setVisc(0.0001f).setSolverIterations(3);
-	    
-	    // create image to hold fluid picture
-	    imgFluid = p.createImage(fluidSolver.getWidth(), fluidSolver.getHeight(), p.ARGB);
+		fluidSettings.configure(fluidSolver);
+		imgFluid = fluidImage(fluidSolver.getWidth(), fluidSolver.getHeight());
+		startFluid();
+	}
+
+	/**
+	 * whether a grid this wide gets the vorticity confinement and MacCormack advection
+	 */
+	private boolean isCoarse(final int fluidNX) {
+		return fluidNX <= FLUID_COARSE_WIDTH;
+	}
+
+	private int fluidNY(final int fluidNX) {
+		return (int)((float)fluidNX * height/width);
+	}
+
+	/**
+	 * image to hold the fluid picture, reused when the grid goes back to a size it had before
+	 */
+	private PImage fluidImage(final int w, final int h) {
+		for (final PImage img : fluidImages) {
+			if (img.width == w && img.height == h) return img;
+		}
+		final PImage img = p.createImage(w, h, p.ARGB);
+		fluidImages.add(img);
+		return img;
+	}
+
+	private void startFluid() {
+	    fluidThread = new FluidSimulationThread(fluidSolver, FLUID_STEPS_PER_SECOND)
+	    	.setEngineCandidates(FluidSolverSelector.FLOAT_ENGINES, FLUID_THREADS, fluidSettings);
+	    fluidThread.setSolverIterations(FLUID_LEVEL_ITERATIONS[currentLevel]);
+	    fluidThread.start();
+	    lastFrameTime = 0;
+	}
+
+	private void stopFluid() {
+		if (fluidThread != null) {
+			// a thread still running (only if this one was interrupted waiting) keeps its solver,
+			// it is neither reused nor disposed here
+			fluidSolver = fluidThread.shutdown() ? fluidThread.getSolver() : null;
+			fluidThread = null;
+		}
+	}
+
+	/**
+	 * move to a governor level, keeping what is on screen. A new grid size is resampled by the
+	 * simulation thread between two steps, the old one stays on screen until then (see drawFluid)
+	 */
+	private void changeFluidLevel(final int level) {
+		final int fluidNX = FLUID_LEVEL_WIDTHS[level];
+		fluidThread.setSolverIterations(FLUID_LEVEL_ITERATIONS[level]);
+		if (fluidNX != FLUID_LEVEL_WIDTHS[currentLevel]) {
+			fluidThread.resize(fluidNX, fluidNY(fluidNX), FLUID_THREADS, fluidSettings);
+		}
+		Log.d("PlasmaFluid", "fluid level " + currentLevel + " -> " + level + " (solver load " + fluidGovernor.getSolverLoad() + ", frame load " + fluidGovernor.getFrameLoad() + ")");
+		currentLevel = level;
 	}
 
 	public void initVis() {
@@ -51,6 +197,15 @@ public class PlasmaFluid extends Visual {
 		if (pp.inst == null || pp.inst.visualQuality % FLUID_QUALITIES.length != currentQuality) {
 			setupFluid();
 		}
+		if (fluidThread != null) {
+			final long now = System.nanoTime();
+			// a quiet fluid is neither stepped nor uploaded, its cheap frames would make the governor climb
+			if (lastFrameTime != 0 && !fluidThread.isQuiet()) {
+				final int level = fluidGovernor.update(fluidThread.getStepLoad(), (now - lastFrameTime) / TARGET_FRAME_NANOS);
+				if (level != currentLevel) changeFluidLevel(level);
+			}
+			lastFrameTime = now;
+		}
 		p.pushStyle();
 		
 		p.textMode(p.MODEL);
@@ -65,18 +220,53 @@ public class PlasmaFluid extends Visual {
 	}
 
 	private void drawFluid() {
-		if (currentQuality <= 0 || fluidSolver == null) return;
-	    fluidSolver.update();
-	    
-	    imgFluid.loadPixels();
-	    final int cellcount = fluidSolver.getNumCells();
-	    for(int i=0; i<cellcount; i++) { //optimize here.
-	        imgFluid.pixels[i] = p.color(fluidSolver.r[i], fluidSolver.g[i], fluidSolver.b[i]);
-	    }  
-	    imgFluid.updatePixels();//  fastblur(imgFluid, 2);
+		if (currentQuality <= 0 || fluidThread == null) return;
+		// the simulation runs on its own thread, just show the newest frame it finished
+		final int[] frame = fluidThread.takeFrame();
+		fluidSolver = fluidThread.getSolver();
+		// the first frame after a resize
+		final int frameWidth = fluidThread.getFrameWidth();
+		if (frameWidth != imgFluid.width || frame.length != imgFluid.width * imgFluid.height) {
+			imgFluid = fluidImage(frameWidth, frame.length / frameWidth);
+		}
+		// when the fluid is still the texture already holds this frame
+		if (fluidThread.isFrameChanged()) uploadFluidFrame(frame);//  fastblur(imgFluid, 2);
 	    
 	    p.image(imgFluid, 0, 0, width, height);
 	}
+
+	/**
+	 * copy the rows of frame that differ from what imgFluid holds, and mark only those for upload.
+	 * The dye usually covers a band of the screen, outside it rows stay black from frame to frame.
+	 * imgFluid.pixels always holds what was last uploaded, so comparing against it is enough.
+	 */
+	private void uploadFluidFrame(final int[] frame) {
+		imgFluid.loadPixels();
+		final int[] pixels = imgFluid.pixels;
+		final int w = imgFluid.width;
+		final int h = imgFluid.height;
+		// find the first and last changed rows, everything in between gets copied anyway
+		int top = 0;
+		while (top < h && rowEquals(frame, pixels, top * w, w)) top++;
+		if (top == h) return;
+		int bottom = h - 1;
+		while (bottom > top && rowEquals(frame, pixels, bottom * w, w)) bottom--;
+
+		final int rows = bottom - top + 1;
+		System.arraycopy(frame, top * w, pixels, top * w, rows * w);
+		if (rows > FLUID_FULL_UPLOAD_ROWS * h) {
+			imgFluid.updatePixels();
+		} else {
+			imgFluid.updatePixels(0, top, w, rows);
+		}
+	}
+
+	private static boolean rowEquals(final int[] a, final int[] b, final int start, final int length) {
+		for (int i = start, end = start + length; i < end; i++) {
+			if (a[i] != b[i]) return false;
+		}
+		return true;
+	}
 	
 	
 	
@@ -99,7 +289,8 @@ public class PlasmaFluid extends Visual {
 	
 	// add force and dye to fluid, and create particles
 	public void addForce(final float x, final float y, float dx, float dy) {
-		if (fluidSolver == null) return;
+		final FluidSimulationThread fluid = fluidThread;
+		if (fluid == null) return;
 	        float colorMult = 5;
 	        colorMult=colorMult*y;
 	        final float velocityMult = 30.0f;
@@ -107,23 +298,36 @@ public class PlasmaFluid extends Visual {
 	        if (dx > 1) dx = 1;
 	        if (dy > 5) dy = 1;
 
-	        int drawColor;
-
-	        p.colorMode(p.HSB, 360, 1, 1);
-	        final float hue = ((x + y) * 180 + p.frameCount) % 360;
-	        drawColor = p.color(hue, 1, 1);
-	        p.colorMode(PApplet.RGB, 255);  
-	        for (int i=0; i<3; i++) {
-	        	for (int j=0; j<1; j++) {
-		        	final int index = fluidSolver.getIndexForNormalizedPosition(x+.01f*i, y+.01f*j);
-			        fluidSolver.rOld[index]  += p.red(drawColor) * colorMult;
-			        fluidSolver.gOld[index]  += p.green(drawColor) * colorMult;
-			        fluidSolver.bOld[index]  += p.blue(drawColor) * colorMult;
-			
-			        fluidSolver.uOld[index] += dx * velocityMult;
-			        fluidSolver.vOld[index] += dy * velocityMult;
-	        	}
-	        }
+	        int hue = (int)(((x + y) * 180 + p.frameCount) % 360);
+	        if (hue < 0) hue += 360;
+	        // one splat where there used to be a row of three cells, carrying what the three added
+	        fluid.addSplat(x + .01f, y, 3 * dx * velocityMult, 3 * dy * velocityMult, HUE_COLORS[hue], 3 * colorMult);
+	}
+
+	/**
+	 * fully saturated, full brightness colors for each degree of hue, as 0xRRGGBB
+	 * (what color(hue, 1, 1) gives in colorMode(HSB, 360, 1, 1))
+	 */
+	static final int[] HUE_COLORS = new int[360];
+	static {
+		for (int hue = 0; hue < 360; hue++) {
+			// same float steps as PGraphics.colorCalc, so the table matches it exactly
+			final float which = (hue / 360f) * 6;
+			final int sector = (int)which;
+			final float f = which - sector;
+			final float q = 1 - f;
+			final float t = 1 - (1 - f);
+			float r, g, b;
+			switch (sector) {
+				case 0: r = 1; g = t; b = 0; break;
+				case 1: r = q; g = 1; b = 0; break;
+				case 2: r = 0; g = 1; b = t; break;
+				case 3: r = 0; g = q; b = 1; break;
+				case 4: r = t; g = 0; b = 1; break;
+				default: r = 1; g = 0; b = q; break;
+			}
+			HUE_COLORS[hue] = ((int)(255 * r) << 16) | ((int)(255 * g) << 8) | (int)(255 * b);
+		}
 	}
 
 
@@ -0,0 +1,116 @@
+package com.rj.processing.plasmasoundhd.visuals;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import processing.core.PApplet;
+import processing.core.PFont;
+import processing.core.PImage;
+
+/**
+ * Labels rendered once from a font's glyphs into images, so text that rarely changes is drawn as
+ * one image instead of being laid out glyph by glyph every frame.
+ *
+ * A label is white on transparent at the font's own size and drawn tinted and scaled to the text
+ * size wanted, lined up the way text() with the same textAlign would put it. The most recently
+ * used labels are kept (up to the capacity given), keyed by their text. Keep the PImage get()
+ * returns and only call get() again when the text changes, that way nothing is allocated per frame.
+ */
+public class TextCache {
+	final PApplet p;
+	final PFont font;
+	/** font size and ascent, in pixels of the label images **/
+	final int size;
+	final int ascent;
+	final int descent;
+	private final LinkedHashMap<String, PImage> labels;
+
+	/**
+	 * @param capacity number of labels to keep
+	 */
+	public TextCache(final PApplet p, final PFont font, final int capacity) {
+		this.p = p;
+		this.font = font;
+		this.size = font.getSize();
+		this.ascent = Math.round(font.ascent() * size);
+		this.descent = Math.round(font.descent() * size);
+		this.labels = new LinkedHashMap<String, PImage>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, PImage> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * label for text, rendered the first time it is asked for
+	 */
+	public PImage get(final String text) {
+		PImage label = labels.get(text);
+		if (label == null) {
+			label = render(text);
+			labels.put(text, label);
+		}
+		return label;
+	}
+
+	private PImage render(final String text) {
+		float width = 0;
+		for (int c = 0; c < text.length(); c++) {
+			width += font.width(text.charAt(c)) * size;
+		}
+		final PImage label = p.createImage(Math.max(1, (int)Math.ceil(width)), Math.max(1, ascent + descent), PApplet.ARGB);
+		label.loadPixels();
+		float x = 0;
+		for (int c = 0; c < text.length(); c++) {
+			final char ch = text.charAt(c);
+			final PFont.Glyph glyph = font.getGlyph(ch);
+			if (glyph != null && glyph.image != null) {
+				copyGlyph(glyph, Math.round(x) + glyph.leftExtent, ascent - glyph.topExtent, label);
+			}
+			x += font.width(ch) * size;
+		}
+		label.updatePixels();
+		return label;
+	}
+
+	/**
+	 * glyph coverage (the low byte of its ALPHA image) into the alpha of white label pixels
+	 */
+	private static void copyGlyph(final PFont.Glyph glyph, final int left, final int top, final PImage label) {
+		final int[] from = glyph.image.pixels;
+		final int fromWidth = glyph.image.width;
+		for (int j = Math.max(0, -top); j < glyph.height && top + j < label.height; j++) {
+			for (int i = Math.max(0, -left); i < glyph.width && left + i < label.width; i++) {
+				final int coverage = from[i + j * fromWidth] & 0xff;
+				if (coverage == 0) continue;
+				final int index = (left + i) + (top + j) * label.width;
+				// glyphs can overlap a little, keep the stronger one
+				final int alpha = Math.max(coverage, label.pixels[index] >>> 24);
+				label.pixels[index] = (alpha << 24) | 0xffffff;
+			}
+		}
+	}
+
+	/**
+	 * draw a label where text(text, x, y) would put it
+	 * @param textSize size the text should come out at
+	 * @param alignX LEFT, CENTER or RIGHT, as in textAlign
+	 * @param alignY TOP, CENTER or BASELINE, as in textAlign
+	 * @param color text color, the label is tinted with it
+	 */
+	public void draw(final PImage label, float x, float y, final float textSize, final int alignX, final int alignY, final int color) {
+		final float scale = textSize / size;
+		final float w = label.width * scale;
+		if (alignX == PApplet.CENTER) x -= w / 2;
+		else if (alignX == PApplet.RIGHT) x -= w;
+		// y of the baseline, the label has it ascent pixels down
+		if (alignY == PApplet.TOP) y += ascent * scale;
+		else if (alignY == PApplet.CENTER) y += ascent * scale / 2;
+		p.pushStyle();
+		p.imageMode(PApplet.CORNER);
+		p.tint(color);
+		p.image(label, x, y - ascent * scale, w, label.height * scale);
+		p.popStyle();
+	}
+}
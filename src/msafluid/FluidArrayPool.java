@@ -0,0 +1,81 @@
+package msafluid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Keeps the cell arrays of released solvers around so the next solver of the same size (the
+ * quality governor going back and forth, the engine benchmark, a quality change) can reuse
+ * them instead of allocating a dozen new arrays and leaving the old ones to the garbage
+ * collector. Arrays are handed out zeroed, just like new ones.
+ *
+ * Holds at most MAX_POOLED_CELLS cells of each type, anything beyond that is left to the GC.
+ */
+final class FluidArrayPool {
+	final static int MAX_POOLED_CELLS	= 1 << 20;
+
+	private final static HashMap<Integer, ArrayList<float[]>> floats = new HashMap<Integer, ArrayList<float[]>>();
+	private final static HashMap<Integer, ArrayList<int[]>> ints = new HashMap<Integer, ArrayList<int[]>>();
+	private static int pooledFloats;
+	private static int pooledInts;
+
+	private FluidArrayPool() {
+	}
+
+	/**
+	 * a zeroed float array of the given length, reused if one was given back
+	 */
+	static synchronized float[] takeFloats(final int length) {
+		final ArrayList<float[]> free = floats.get(length);
+		if (free == null || free.isEmpty()) return new float[length];
+		final float[] array = free.remove(free.size() - 1);
+		pooledFloats -= length;
+		Arrays.fill(array, 0);
+		return array;
+	}
+
+	/**
+	 * a zeroed int array of the given length, reused if one was given back
+	 */
+	static synchronized int[] takeInts(final int length) {
+		final ArrayList<int[]> free = ints.get(length);
+		if (free == null || free.isEmpty()) return new int[length];
+		final int[] array = free.remove(free.size() - 1);
+		pooledInts -= length;
+		Arrays.fill(array, 0);
+		return array;
+	}
+
+	/**
+	 * give arrays back, nothing may use them afterwards
+	 */
+	static synchronized void giveFloats(final float[]... arrays) {
+		for (final float[] array : arrays) {
+			if (array == null || pooledFloats + array.length > MAX_POOLED_CELLS) continue;
+			ArrayList<float[]> free = floats.get(array.length);
+			if (free == null) {
+				free = new ArrayList<float[]>();
+				floats.put(array.length, free);
+			}
+			free.add(array);
+			pooledFloats += array.length;
+		}
+	}
+
+	/**
+	 * give arrays back, nothing may use them afterwards
+	 */
+	static synchronized void giveInts(final int[]... arrays) {
+		for (final int[] array : arrays) {
+			if (array == null || pooledInts + array.length > MAX_POOLED_CELLS) continue;
+			ArrayList<int[]> free = ints.get(array.length);
+			if (free == null) {
+				free = new ArrayList<int[]>();
+				ints.put(array.length, free);
+			}
+			free.add(array);
+			pooledInts += array.length;
+		}
+	}
+}
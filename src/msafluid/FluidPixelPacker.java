@@ -0,0 +1,263 @@
+package msafluid;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+import android.util.Log;
+
+/**
+ * Turns a solver's dye into opaque ARGB pixels, one int per cell in the solver's cell order.
+ *
+ * Each channel is clamped to 0...255 and, if a tone curve is set (see setGamma and setToneTable),
+ * looked up in a 256 entry table kept pre-shifted into place, so a cell costs three float to int
+ * conversions, three lookups and two ors. Without a tone curve the channels are shifted into place
+ * instead, which the JIT can vectorize. The dye arrays of the float engines are read directly,
+ * other solvers go through the FluidSolver getters.
+ *
+ * With more than one thread, frames of at least PARALLEL_MIN_CELLS cells are split into bands
+ * packed on worker threads at the same time. If a worker throws, the workers are stopped and the
+ * frame is packed again on the calling thread. Call shutdown() when done to stop them.
+ *
+ * pack() may only be called from one thread at a time, the tone table can be changed from any thread.
+ */
+public class FluidPixelPacker {
+	/** below this the hand-off to the workers costs more than the packing **/
+	public final static int PARALLEL_MIN_CELLS = 128 * 72;
+
+	private final int _numBands;
+	private final CyclicBarrier _start;
+	private final CyclicBarrier _done;
+	private final Thread[] _workers;
+	private volatile boolean _isShutdown;
+	/** thrown by a worker's band, handed to the calling thread at the done barrier **/
+	private volatile Throwable _bandFailure;
+
+	/** red, green and blue tables one after the other, already shifted into place, replaced as a whole. null for no tone curve **/
+	private volatile int[] _tables;
+	private volatile float _gamma = 1;
+
+	/* frame being packed, published to the workers by the start barrier */
+	private FluidSolver _kSolver;
+	private int[] _kFrame;
+	private int[] _kTables;
+
+	/**
+	 * packer that does all the work on the calling thread
+	 */
+	public FluidPixelPacker() {
+		this(1);
+	}
+
+	/**
+	 * @param threads number of threads (bands) to use for big frames, including the calling thread
+	 */
+	public FluidPixelPacker(final int threads) {
+		_numBands = Math.max(1, threads);
+		if (_numBands > 1) {
+			_start = new CyclicBarrier(_numBands);
+			_done = new CyclicBarrier(_numBands);
+			_workers = new Thread[_numBands - 1];
+			for (int t = 0; t < _workers.length; t++) {
+				final int band = t + 1;
+				_workers[t] = new Thread(new Runnable() {
+					public void run() {
+						workerLoop(band);
+					}
+				}, "FluidPixelPacker-" + band);
+				_workers[t].setDaemon(true);
+				_workers[t].start();
+			}
+		} else {
+			_start = null;
+			_done = null;
+			_workers = null;
+		}
+	}
+
+	/**
+	 * stop the worker threads, pack() does all the work on the calling thread afterwards
+	 */
+	public void shutdown() {
+		if (_workers == null || _isShutdown) return;
+		_isShutdown = true;
+		for (final Thread worker : _workers) {
+			worker.interrupt();
+		}
+	}
+
+	/**
+	 * (OPTIONAL SETUP) tone curve out = 255 * (in / 255) ^ (1 / gamma), above 1 lifts the faint dye, below 1 darkens it
+	 * default: 1 (dye shown as is)
+	 * @return instance of FluidPixelPacker for further configuration
+	 */
+	public FluidPixelPacker setGamma(final float gamma) {
+		final int[] table = new int[256];
+		for (int v = 0; v < 256; v++) {
+			table[v] = Math.round(255 * (float)Math.pow(v / 255.0, 1.0 / gamma));
+		}
+		_gamma = gamma;
+		_tables = gamma == 1 ? null : makeTables(table);
+		return this;
+	}
+
+	/**
+	 * (OPTIONAL SETUP) any tone curve, table[dye] is the brightness (0...255) shown for each dye value
+	 * @param table 256 entries, copied
+	 * @return instance of FluidPixelPacker for further configuration
+	 */
+	public FluidPixelPacker setToneTable(final int[] table) {
+		if (table.length != 256) throw new IllegalArgumentException("tone table needs 256 entries, not " + table.length);
+		_gamma = Float.NaN;
+		_tables = makeTables(table);
+		return this;
+	}
+
+	/**
+	 * (INFO) gamma set with setGamma, NaN if a tone table was set instead
+	 */
+	public float getGamma() {
+		return _gamma;
+	}
+
+	/**
+	 * (INFO) number of bands a big frame is split into
+	 */
+	public int getNumBands() {
+		return _numBands;
+	}
+
+	private static int[] makeTables(final int[] table) {
+		final int[] tables = new int[3 * 256];
+		for (int v = 0; v < 256; v++) {
+			final int level = Math.max(0, Math.min(255, table[v]));
+			tables[v] = 0xff000000 | (level << 16);
+			tables[256 + v] = level << 8;
+			tables[512 + v] = level;
+		}
+		return tables;
+	}
+
+
+	/**
+	 * pack the solver's dye into frame, which holds one int per cell
+	 */
+	public void pack(final FluidSolver solver, final int[] frame) {
+		final int[] tables = _tables;
+		if (_numBands == 1 || _isShutdown || frame.length < PARALLEL_MIN_CELLS) {
+			packCells(solver, frame, tables, 0, frame.length);
+			return;
+		}
+		_kSolver = solver;
+		_kFrame = frame;
+		_kTables = tables;
+		try {
+			_start.await();
+		} catch (final Exception e) {
+			// no worker got past the start barrier, so do the whole frame here
+			Log.w("FluidPixelPacker", "workers gone, packing on one thread: " + e);
+			_isShutdown = true;
+			packCells(solver, frame, tables, 0, frame.length);
+			return;
+		}
+		try {
+			runBand(0);
+		} finally {
+			// the workers wait here for band 0 even if it threw
+			try {
+				_done.await();
+			} catch (final Exception e) {
+				Log.w("FluidPixelPacker", "workers gone, packing on one thread: " + e);
+				_isShutdown = true;
+			}
+		}
+		if (_bandFailure != null) {
+			// packing writes every cell of its band from the dye alone, so just do it all again here
+			Log.w("FluidPixelPacker", "worker failed, packing on one thread: " + _bandFailure);
+			shutdown();
+			packCells(solver, frame, tables, 0, frame.length);
+		}
+	}
+
+	private void workerLoop(final int band) {
+		try {
+			while (!_isShutdown) {
+				_start.await();
+				try {
+					runBand(band);
+				} catch (final Throwable t) {
+					// stay for the done barrier so the calling thread isn't left waiting, it gives up on the workers
+					_bandFailure = t;
+				}
+				_done.await();
+			}
+		} catch (final InterruptedException e) {
+			// shutdown
+		} catch (final BrokenBarrierException e) {
+			// shutdown
+		}
+	}
+
+	private void runBand(final int band) {
+		final int numCells = _kFrame.length;
+		packCells(_kSolver, _kFrame, _kTables, (int)((long)numCells * band / _numBands), (int)((long)numCells * (band + 1) / _numBands));
+	}
+
+	/**
+	 * pack cells start...end-1, tables is null for no tone curve
+	 */
+	protected static void packCells(final FluidSolver solver, final int[] frame, final int[] tables, final int start, final int end) {
+		if (solver instanceof MSAFluidSolver2DInterleaved && ((MSAFluidSolver2DInterleaved)solver)._isRGB) {
+			packInterleaved(((MSAFluidSolver2DInterleaved)solver).rgb, frame, tables, start, end);
+		} else if (solver instanceof MSAFluidSolver2D) {
+			final MSAFluidSolver2D s = (MSAFluidSolver2D)solver;
+			// monochrome dye is only kept in r
+			packPlanar(s.r, s._isRGB ? s.g : s.r, s._isRGB ? s.b : s.r, frame, tables, start, end);
+		} else if (solver instanceof MSAFluidSolver2DSTRIPPED) {
+			final MSAFluidSolver2DSTRIPPED s = (MSAFluidSolver2DSTRIPPED)solver;
+			packPlanar(s.r, s._isRGB ? s.g : s.r, s._isRGB ? s.b : s.r, frame, tables, start, end);
+		} else {
+			if (tables == null) {
+				for (int i = start; i < end; i++) {
+					frame[i] = 0xff000000 | (clamp(solver.getRed(i)) << 16) | (clamp(solver.getGreen(i)) << 8) | clamp(solver.getBlue(i));
+				}
+			} else {
+				for (int i = start; i < end; i++) {
+					frame[i] = tables[clamp(solver.getRed(i))] | tables[256 + clamp(solver.getGreen(i))] | tables[512 + clamp(solver.getBlue(i))];
+				}
+			}
+		}
+	}
+
+	protected static void packPlanar(final float[] r, final float[] g, final float[] b, final int[] frame, final int[] tables, final int start, final int end) {
+		if (tables == null) {
+			for (int i = start; i < end; i++) {
+				frame[i] = 0xff000000 | (clamp(r[i]) << 16) | (clamp(g[i]) << 8) | clamp(b[i]);
+			}
+			return;
+		}
+		for (int i = start; i < end; i++) {
+			frame[i] = tables[clamp(r[i])] | tables[256 + clamp(g[i])] | tables[512 + clamp(b[i])];
+		}
+	}
+
+	protected static void packInterleaved(final float[] rgb, final int[] frame, final int[] tables, final int start, final int end) {
+		if (tables == null) {
+			for (int i = start, c = 3 * start; i < end; i++, c += 3) {
+				frame[i] = 0xff000000 | (clamp(rgb[c]) << 16) | (clamp(rgb[c + 1]) << 8) | clamp(rgb[c + 2]);
+			}
+			return;
+		}
+		for (int i = start, c = 3 * start; i < end; i++, c += 3) {
+			frame[i] = tables[clamp(rgb[c])] | tables[256 + clamp(rgb[c + 1])] | tables[512 + clamp(rgb[c + 2])];
+		}
+	}
+
+	/**
+	 * 0...255, truncated like (int) and NaN as 0
+	 */
+	protected static int clamp(final float value) {
+		if (value <= 0) return 0;
+		if (value >= 255) return 255;
+		return (int)value;
+	}
+}
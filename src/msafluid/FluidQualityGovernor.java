@@ -0,0 +1,155 @@
+package msafluid;
+
+/**
+ * Picks the fluid quality level from measured timings, so grid size and solver iterations follow
+ * what the device can actually afford instead of a guess made at startup.
+ *
+ * Levels go from cheapest (0) to most expensive, each with a relative cost. Once per frame the
+ * caller passes in the solver load (time per step / step period) and the frame load (time between
+ * frames / target frame time), which are smoothed here. The governor steps down a level when
+ * either has been over its budget for DOWN_FRAMES frames in a row. It steps up when the solver
+ * load, scaled by the cost of the next level, would still leave headroom and frames are on time
+ * for UP_FRAMES frames in a row. The gap between the two conditions is the hysteresis that keeps
+ * it from flipping between neighbouring levels. After every change it ignores SETTLE_FRAMES
+ * frames so the new level's timings can come in.
+ */
+public class FluidQualityGovernor {
+	public final static float	DEFAULT_SOLVER_BUDGET	= 0.75f;
+	public final static float	DEFAULT_FRAME_BUDGET	= 1.2f;
+
+	final static int	DOWN_FRAMES		= 30;
+	final static int	UP_FRAMES		= 180;
+	final static int	SETTLE_FRAMES	= 60;
+	/** weight of a new sample in the smoothed loads **/
+	final static float	SMOOTHING		= 0.05f;
+	/** step up only while the next level is predicted to use at most this part of the solver budget **/
+	final static float	UP_HEADROOM		= 0.8f;
+	/** and while frames take at most this much of the target frame time **/
+	final static float	UP_FRAME_LOAD	= 1.05f;
+	/** one stalled frame (a pause, a GC) is not allowed to count for more than this **/
+	final static float	MAX_FRAME_LOAD	= 4;
+
+	private final float[]	_levelCosts;
+	private int		_level;
+	private int		_maxLevel;
+	private float	_solverBudget = DEFAULT_SOLVER_BUDGET;
+	private float	_frameBudget = DEFAULT_FRAME_BUDGET;
+
+	private float	_solverLoad;
+	private float	_frameLoad;
+	private boolean	_hasSamples;
+	private int		_overFrames;
+	private int		_underFrames;
+	private int		_settleFrames;
+
+	/**
+	 * @param levelCosts relative cost of each level, cheapest first. Starts at the most expensive level.
+	 */
+	public FluidQualityGovernor(final float[] levelCosts) {
+		_levelCosts = levelCosts.clone();
+		_maxLevel = levelCosts.length - 1;
+		setLevel(_maxLevel);
+	}
+
+	/**
+	 * (OPTIONAL SETUP) highest fraction of the step period the solver may use
+	 * default: 0.75
+	 * @return instance of FluidQualityGovernor for further configuration
+	 */
+	public FluidQualityGovernor setSolverBudget(final float solverBudget) {
+		_solverBudget = solverBudget;
+		return this;
+	}
+
+	/**
+	 * (OPTIONAL SETUP) highest frame time, relative to the target frame time, before stepping down
+	 * default: 1.2
+	 * @return instance of FluidQualityGovernor for further configuration
+	 */
+	public FluidQualityGovernor setFrameBudget(final float frameBudget) {
+		_frameBudget = frameBudget;
+		return this;
+	}
+
+	/**
+	 * (OPTIONAL SETUP) highest level the governor may pick (lowers the current level if needed)
+	 * @return instance of FluidQualityGovernor for further configuration
+	 */
+	public FluidQualityGovernor setMaxLevel(final int maxLevel) {
+		_maxLevel = Math.max(0, Math.min(maxLevel, _levelCosts.length - 1));
+		if (_level > _maxLevel) setLevel(_maxLevel);
+		return this;
+	}
+
+	/**
+	 * jump to a level, and start measuring again
+	 * @return instance of FluidQualityGovernor for further configuration
+	 */
+	public FluidQualityGovernor setLevel(final int level) {
+		_level = Math.max(0, Math.min(level, _maxLevel));
+		_overFrames = 0;
+		_underFrames = 0;
+		_settleFrames = SETTLE_FRAMES;
+		_hasSamples = false;
+		return this;
+	}
+
+	/**
+	 * feed one frame's measurements
+	 * @param solverLoad time the last step took / step period
+	 * @param frameLoad time since the last frame / target frame time
+	 * @return the level to run at
+	 */
+	public int update(final float solverLoad, final float frameLoad) {
+		if (_settleFrames > 0) {
+			_settleFrames--;
+			return _level;
+		}
+
+		final float clampedFrameLoad = Math.min(frameLoad, MAX_FRAME_LOAD);
+		if (_hasSamples) {
+			_solverLoad += SMOOTHING * (solverLoad - _solverLoad);
+			_frameLoad += SMOOTHING * (clampedFrameLoad - _frameLoad);
+		} else {
+			_solverLoad = solverLoad;
+			_frameLoad = clampedFrameLoad;
+			_hasSamples = true;
+		}
+
+		final boolean isOver = _solverLoad > _solverBudget || _frameLoad > _frameBudget;
+		final boolean isUnder = !isOver && _level < _maxLevel
+			&& _frameLoad < UP_FRAME_LOAD
+			&& _solverLoad * _levelCosts[_level + 1] / _levelCosts[_level] < _solverBudget * UP_HEADROOM;
+
+		_overFrames = isOver ? _overFrames + 1 : 0;
+		_underFrames = isUnder ? _underFrames + 1 : 0;
+
+		if (_overFrames >= DOWN_FRAMES && _level > 0) {
+			setLevel(_level - 1);
+		} else if (_underFrames >= UP_FRAMES) {
+			setLevel(_level + 1);
+		}
+		return _level;
+	}
+
+	/**
+	 * (INFO) level picked by the last update
+	 */
+	public int getLevel() {
+		return _level;
+	}
+
+	/**
+	 * (INFO) smoothed solver load
+	 */
+	public float getSolverLoad() {
+		return _solverLoad;
+	}
+
+	/**
+	 * (INFO) smoothed frame load
+	 */
+	public float getFrameLoad() {
+		return _frameLoad;
+	}
+}
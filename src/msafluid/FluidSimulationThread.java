@@ -0,0 +1,580 @@
+package msafluid;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a FluidSolver on its own thread at a fixed number of steps per second, so a slow solver
+ * step can't hold up drawing or touch handling.
+ *
+ * Stepping uses a fixed timestep accumulator: wall clock time is added up and the solver is
+ * stepped once for every whole step period, at most MAX_STEPS_PER_TICK times in a row. If it
+ * falls further behind than that the rest is dropped, so the fluid slows down instead of
+ * spending ever more time catching up.
+ *
+ * After stepping the dye is packed into an ARGB frame (one int per cell, the same layout as
+ * the solver's cells, see FluidPixelPacker) and published through a lock-free buffer: the
+ * simulation always has a frame to write, the renderer always gets the newest complete one from
+ * takeFrame(), and neither ever waits for the other. With interpolation on, takeFrame() blends the last two
+ * published frames by how far the wall clock has moved between them, so the motion looks the
+ * same whatever rate the renderer draws at (at the cost of showing the fluid one step late).
+ *
+ * Forces, colors and splats are handed over through a bounded single producer / single consumer
+ * queue. Only one thread (the touch thread) may call addForce / addColor / addSplat, and once the
+ * thread is started nothing else may touch the solver. All splats queued between two steps go to
+ * the solver in one addSplats call.
+ *
+ * If nobody takes a frame for IDLE_STEPS steps (the activity is paused, the visual is hidden)
+ * the thread parks until the next takeFrame(). Once a solver with idle detection has died down
+ * (see MSAFluidSolver2D.enableIdleDetection) the last, empty, frame is published and the thread
+ * parks until the next force, color or splat comes in, and takeFrame() reports the frame as unchanged.
+ *
+ * resize() swaps in a solver of another grid size between two steps, resampled from the running
+ * one (see FluidSolverSelector.resize), and publishes a frame of it right away. The renderer keeps
+ * getting frames of the old size until then, getFrameWidth() tells which size a frame is. Frames
+ * of a size no longer in use go back to FluidArrayPool, so going back and forth between a few
+ * sizes doesn't allocate once each has been used.
+ */
+public class FluidSimulationThread {
+	public final static int	DEFAULT_QUEUE_SIZE	= 256;
+	public final static float	DEFAULT_SPLAT_RADIUS	= 0.01f;
+	final static int		IDLE_STEPS			= 30;
+	public final static int	MAX_STEPS_PER_TICK	= 3;
+
+	private final static int EVENT_FORCE	= 0;
+	private final static int EVENT_COLOR	= 1;
+	private final static int EVENT_SPLAT	= 2;
+	private final static int FRESH			= 4;	// set on _middle when it holds a frame the renderer hasn't taken
+
+	private volatile FluidSolver	_solver;
+	private final long			_stepNanos;
+	private final Thread		_thread;
+	private volatile boolean	_isRunning;
+	private volatile boolean	_isIdle;
+	private volatile boolean	_isWaitingForEvents;
+	private volatile boolean	_isQuietPublished;	// written by the simulation thread only
+	private volatile int		_untakenSteps;
+	private volatile int		_droppedSteps;
+	private volatile boolean	_isInterpolating = true;
+	private volatile float		_stepLoad;
+	private final AtomicInteger	_pendingIterations = new AtomicInteger(-1);
+	private int					_iterations = -1;	// last set through setSolverIterations, simulation thread only
+	private final AtomicReference<Resize>	_pendingResize = new AtomicReference<Resize>();
+	private Resize				_enginePick;		// set before start(), read once by the simulation thread
+	private volatile boolean	_isPickingEngine;
+
+	/* _back is only touched by the simulation, _front / _previous / _blended only by the renderer */
+	private final int[][]		_frames = new int[4][];
+	private final long[]		_frameTimes = new long[4];
+	private final int[]			_frameWidths = new int[4];
+	private final AtomicInteger	_middle = new AtomicInteger(1);
+	private int					_back = 0;
+	private int					_front = 2;
+	private int					_previous = 3;
+	private int[]				_blended;
+	private int[]				_lastFrame;
+	private int					_frameWidth;
+	private boolean				_isFrameChanged;
+
+	/* event queue, _head is only written by the producer, _tail only by the simulation */
+	private final int		_queueMask;
+	private final int[]		_eventType;
+	private final int[]		_eventIndex;
+	private final float[]	_eventA, _eventB, _eventC, _eventD, _eventE;
+	private volatile long	_head;
+	private volatile long	_tail;
+	private volatile int	_droppedEvents;
+
+	/* splats collected from the queue for the next addSplats, simulation thread only */
+	private final float[]	_splatX, _splatY, _splatDX, _splatDY, _splatAmount;
+	private final int[]		_splatColor;
+	private volatile float	_splatRadius = DEFAULT_SPLAT_RADIUS;
+	private volatile FluidPixelPacker	_packer = new FluidPixelPacker();
+
+	/**
+	 * @param solver solver to run, owned by this thread once start() is called
+	 * @param stepsPerSecond how many times a second solver.update() is called
+	 */
+	public FluidSimulationThread(final FluidSolver solver, final float stepsPerSecond) {
+		this(solver, stepsPerSecond, DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * @param solver solver to run, owned by this thread once start() is called
+	 * @param stepsPerSecond how many times a second solver.update() is called
+	 * @param queueSize how many forces and colors can be waiting for the next step (rounded up to a power of 2)
+	 */
+	public FluidSimulationThread(final FluidSolver solver, final float stepsPerSecond, final int queueSize) {
+		_solver = solver;
+		_stepNanos = (long)(1000000000L / stepsPerSecond);
+
+		final int numCells = solver.getNumCells();
+		for (int f = 0; f < _frames.length; f++) {
+			_frames[f] = new int[numCells];
+			java.util.Arrays.fill(_frames[f], 0xff000000);
+			_frameWidths[f] = solver.getWidth();
+		}
+		_blended = new int[numCells];
+		_frameWidth = solver.getWidth();
+
+		int capacity = 1;
+		while (capacity < queueSize) capacity <<= 1;
+		_queueMask = capacity - 1;
+		_eventType = new int[capacity];
+		_eventIndex = new int[capacity];
+		_eventA = new float[capacity];
+		_eventB = new float[capacity];
+		_eventC = new float[capacity];
+		_eventD = new float[capacity];
+		_eventE = new float[capacity];
+		_splatX = new float[capacity];
+		_splatY = new float[capacity];
+		_splatDX = new float[capacity];
+		_splatDY = new float[capacity];
+		_splatAmount = new float[capacity];
+		_splatColor = new int[capacity];
+
+		_thread = new Thread(new Runnable() {
+			public void run() {
+				simulationLoop();
+			}
+		}, "FluidSimulation");
+		_thread.setDaemon(true);
+	}
+
+	public void start() {
+		_isRunning = true;
+		_thread.start();
+	}
+
+	/**
+	 * stop the thread and wait for it, the solver can be used (or disposed) by the caller afterwards.
+	 * Waits for the step (or resize) in progress, a few milliseconds, and cuts an engine timing short.
+	 * If the calling thread is interrupted while waiting the simulation may still be running, so
+	 * then the solver must be left alone.
+	 * @return whether the thread has stopped
+	 */
+	public boolean shutdown() {
+		_isRunning = false;
+		LockSupport.unpark(_thread);
+		// cut the engine timing short, the loop then ends before it steps or waits on anything
+		if (_isPickingEngine) _thread.interrupt();
+		try {
+			_thread.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return !_thread.isAlive();
+	}
+
+	/**
+	 * solver being run, a different one after a resize
+	 */
+	public FluidSolver getSolver() {
+		return _solver;
+	}
+
+	/**
+	 * replace the solver with one of another grid size between two steps, carrying the velocities
+	 * and dye over, and publish a frame of it straight away. Returns at once, the resampling is
+	 * done on the simulation thread. Only the latest size asked for is used if several come in
+	 * before the next step. The iterations last given to setSolverIterations are kept. Forces and
+	 * colors still queued by cell index go to the new grid, those outside of it are dropped, so
+	 * use addSplat while resizing. Safe to call from any thread.
+	 * @param threads number of threads for FluidSolverSelector.ENGINE_PARALLEL
+	 * @param configurator applies the app's settings to the new solver, can be null
+	 */
+	public void resize(final int NX, final int NY, final int threads, final FluidSolverSelector.Configurator configurator) {
+		_pendingResize.set(new Resize(NX, NY, threads, configurator));
+		LockSupport.unpark(_thread);
+	}
+
+	/**
+	 * (OPTIONAL SETUP) before its first step, time these engines at the solver's grid size on the
+	 * simulation thread (see FluidSolverSelector.pickFastest) and carry the fluid over to the
+	 * fastest if it isn't the one already running. Frames of the solver given to the constructor
+	 * are shown until then, and touches wait in the queue. Once a grid size has been timed the
+	 * pick is known at once, so create the solver with FluidSolverSelector.getFastest to skip the
+	 * switch. Set the iterations with setSolverIterations, not on the solver, to have them kept.
+	 * Call before start().
+	 * default: null (the solver given to the constructor is kept)
+	 * @param engines ENGINE_ constants to choose from
+	 * @param threads number of threads for FluidSolverSelector.ENGINE_PARALLEL
+	 * @param configurator applies the app's settings to the solvers, can be null
+	 * @return instance of FluidSimulationThread for further configuration
+	 */
+	public FluidSimulationThread setEngineCandidates(final int[] engines, final int threads, final FluidSolverSelector.Configurator configurator) {
+		_enginePick = engines == null ? null : new Resize(engines, _solver.getWidth() - 2, _solver.getHeight() - 2, threads, configurator);
+		return this;
+	}
+
+	/**
+	 * (OPTIONAL SETUP) blend the last two frames in takeFrame() instead of showing the newest one as is
+	 * default: true
+	 * @return instance of FluidSimulationThread for further configuration
+	 */
+	public FluidSimulationThread enableInterpolation(final boolean isInterpolating) {
+		_isInterpolating = isInterpolating;
+		return this;
+	}
+
+	/**
+	 * (OPTIONAL SETUP) size of the footprint of splats, as a fraction of the grid width (see FluidSolver.addSplats)
+	 * default: 0.01
+	 * @return instance of FluidSimulationThread for further configuration
+	 */
+	public FluidSimulationThread setSplatRadius(final float splatRadius) {
+		_splatRadius = splatRadius;
+		return this;
+	}
+
+	/**
+	 * (OPTIONAL SETUP) packer that turns the dye into frames, e.g. one with a tone curve or worker threads.
+	 * Not shut down by this thread.
+	 * default: a single threaded packer that shows the dye as is
+	 * @return instance of FluidSimulationThread for further configuration
+	 */
+	public FluidSimulationThread setPixelPacker(final FluidPixelPacker packer) {
+		_packer = packer;
+		return this;
+	}
+
+	/**
+	 * change the solver iterations before the next step, safe to call from any thread
+	 */
+	public void setSolverIterations(final int solverIterations) {
+		_pendingIterations.set(solverIterations);
+	}
+
+	/**
+	 * (INFO) time the last step that did any work took, as a fraction of the step period. Steps of
+	 * an idle solver are left out, they cost next to nothing whatever the grid size
+	 */
+	public float getStepLoad() {
+		return _stepLoad;
+	}
+
+	/**
+	 * (INFO) whether the solver has died down (see MSAFluidSolver2D.enableIdleDetection) and its
+	 * last, empty, frame is published. Until the next force, color or splat nothing is stepped and
+	 * the frames don't change, so neither step nor frame times say what the grid costs
+	 */
+	public boolean isQuiet() {
+		return _isQuietPublished;
+	}
+
+	/**
+	 * (INFO) number of steps skipped because the simulation fell more than MAX_STEPS_PER_TICK steps behind
+	 */
+	public int getDroppedSteps() {
+		return _droppedSteps;
+	}
+
+	/**
+	 * (INFO) grid width (including the border cells) of the frame the last takeFrame() returned,
+	 * its height is the frame's length / this (renderer thread only)
+	 */
+	public int getFrameWidth() {
+		return _frameWidth;
+	}
+
+	/**
+	 * (INFO) whether the frame the last takeFrame() returned can differ from the one before,
+	 * if not it doesn't have to be drawn into a texture again (renderer thread only)
+	 */
+	public boolean isFrameChanged() {
+		return _isFrameChanged;
+	}
+
+	/**
+	 * (INFO) number of forces and colors dropped because the queue was full
+	 */
+	public int getDroppedEvents() {
+		return _droppedEvents;
+	}
+
+
+	/**
+	 * queue a force for the next step (producer thread only)
+	 * @return false if the queue is full and the force was dropped
+	 */
+	public boolean addForce(final int index, final float vx, final float vy) {
+		return offer(EVENT_FORCE, index, vx, vy, 0);
+	}
+
+	/**
+	 * queue dye for the next step (producer thread only)
+	 * @return false if the queue is full and the color was dropped
+	 */
+	public boolean addColor(final int index, final float r, final float g, final float b) {
+		return offer(EVENT_COLOR, index, r, g, b);
+	}
+
+	/**
+	 * queue a gaussian splat of force and dye for the next step (producer thread only)
+	 * @param x normalized x position (0...1)
+	 * @param y normalized y position (0...1)
+	 * @param dx total x force
+	 * @param dy total y force
+	 * @param color dye color as 0xRRGGBB
+	 * @param amount dye multiplier
+	 * @return false if the queue is full and the splat was dropped
+	 */
+	public boolean addSplat(final float x, final float y, final float dx, final float dy, final int color, final float amount) {
+		final long head = _head;
+		if (head - _tail > _queueMask) {
+			_droppedEvents++;
+			return false;
+		}
+		final int slot = (int)head & _queueMask;
+		_eventType[slot] = EVENT_SPLAT;
+		_eventIndex[slot] = color;
+		_eventA[slot] = x;
+		_eventB[slot] = y;
+		_eventC[slot] = dx;
+		_eventD[slot] = dy;
+		_eventE[slot] = amount;
+		_head = head + 1;		// volatile write publishes the slot
+		if (_isWaitingForEvents) LockSupport.unpark(_thread);
+		return true;
+	}
+
+	private boolean offer(final int type, final int index, final float a, final float b, final float c) {
+		final long head = _head;
+		if (head - _tail > _queueMask) {
+			_droppedEvents++;
+			return false;
+		}
+		final int slot = (int)head & _queueMask;
+		_eventType[slot] = type;
+		_eventIndex[slot] = index;
+		_eventA[slot] = a;
+		_eventB[slot] = b;
+		_eventC[slot] = c;
+		_head = head + 1;		// volatile write publishes the slot
+		if (_isWaitingForEvents) LockSupport.unpark(_thread);
+		return true;
+	}
+
+	private void drainEvents() {
+		long tail = _tail;
+		final long head = _head;
+		final int numCells = _solver.getNumCells();
+		int splats = 0;
+		for (; tail < head; tail++) {
+			final int slot = (int)tail & _queueMask;
+			final int type = _eventType[slot];
+			if (type == EVENT_SPLAT) {
+				_splatX[splats] = _eventA[slot];
+				_splatY[splats] = _eventB[slot];
+				_splatDX[splats] = _eventC[slot];
+				_splatDY[splats] = _eventD[slot];
+				_splatColor[splats] = _eventIndex[slot];
+				_splatAmount[splats] = _eventE[slot];
+				splats++;
+			} else if (_eventIndex[slot] < 0 || _eventIndex[slot] >= numCells) {
+				// queued for a grid size before the last resize
+				continue;
+			} else if (type == EVENT_FORCE) {
+				_solver.addForceAtIndex(_eventIndex[slot], _eventA[slot], _eventB[slot]);
+			} else {
+				_solver.addColorAtIndex(_eventIndex[slot], _eventA[slot], _eventB[slot], _eventC[slot]);
+			}
+		}
+		_tail = tail;			// volatile write hands the slots back to the producer
+		// sources only add up, so the splats don't have to keep their place between the other events
+		if (splats > 0) _solver.addSplats(splats, _splatX, _splatY, _splatDX, _splatDY, _splatColor, _splatAmount, _splatRadius);
+	}
+
+
+	/**
+	 * newest frame, ARGB per cell in the solver's cell order (renderer thread only).
+	 * With interpolation on it is blended with the one before.
+	 * The array stays valid until the next call.
+	 */
+	public int[] takeFrame() {
+		_untakenSteps = 0;
+		if (_isIdle) LockSupport.unpark(_thread);
+		boolean isFresh = false;
+		if ((_middle.get() & FRESH) != 0) {
+			// keep the newest two, hand the older one back to the simulation
+			final int fresh = _middle.getAndSet(_previous) & ~FRESH;
+			_previous = _front;
+			_front = fresh;
+			isFresh = true;
+		}
+		_frameWidth = _frameWidths[_front];
+		final int[] frame = interpolatedFrame();
+		_isFrameChanged = isFresh || frame != _lastFrame || frame == _blended;
+		_lastFrame = frame;
+		return frame;
+	}
+
+	private int[] interpolatedFrame() {
+		if (!_isInterpolating) return _frames[_front];
+
+		final long frameTime = _frameTimes[_front];
+		final long interval = frameTime - _frameTimes[_previous];
+		// after a pause (parked, or the fluid was still) the previous frame is too old to blend with
+		if (interval <= 0 || interval > MAX_STEPS_PER_TICK * _stepNanos) return _frames[_front];
+		// the first frame after a resize can't be blended with one of the old size
+		if (_frames[_previous].length != _frames[_front].length) return _frames[_front];
+		final long since = System.nanoTime() - frameTime;
+		if (since >= interval) return _frames[_front];
+		if (_blended.length != _frames[_front].length) {
+			FluidArrayPool.giveInts(_blended);
+			_blended = FluidArrayPool.takeInts(_frames[_front].length);
+		}
+		blendFrames(_frames[_previous], _frames[_front], (int)(256 * Math.max(0, since) / interval), _blended);
+		return _blended;
+	}
+
+	/**
+	 * pack the solver's dye into the back frame, first swapping that for one of the right size if
+	 * the solver was resized since it was last used
+	 */
+	private void packFrame() {
+		final int numCells = _solver.getNumCells();
+		if (_frames[_back].length != numCells) {
+			FluidArrayPool.giveInts(_frames[_back]);
+			_frames[_back] = FluidArrayPool.takeInts(numCells);
+		}
+		_packer.pack(_solver, _frames[_back]);
+		_frameWidths[_back] = _solver.getWidth();
+	}
+
+	private void publishFrame() {
+		_frameTimes[_back] = System.nanoTime();
+		_back = _middle.getAndSet(_back | FRESH) & ~FRESH;
+	}
+
+	/**
+	 * per channel from + (to - from) * alpha / 256, alpha is 0...255
+	 */
+	private static void blendFrames(final int[] from, final int[] to, final int alpha, final int[] out) {
+		for (int i = out.length - 1; i >= 0; i--) {
+			final int a = from[i];
+			final int b = to[i];
+			if (a == b) {
+				out[i] = a;
+				continue;
+			}
+			final int rb = a & 0xff00ff;
+			final int g = a & 0x00ff00;
+			out[i] = 0xff000000
+				| ((rb + ((((b & 0xff00ff) - rb) * alpha) >> 8)) & 0xff00ff)
+				| ((g + ((((b & 0x00ff00) - g) * alpha) >> 8)) & 0x00ff00);
+		}
+	}
+
+
+	private void simulationLoop() {
+		if (_enginePick != null) pickEngine(_enginePick);
+		long last = System.nanoTime();
+		long accumulator = 0;
+		while (_isRunning) {
+			final Resize resize = _pendingResize.getAndSet(null);
+			if (resize != null) {
+				_solver = FluidSolverSelector.resize(_solver, resize.NX, resize.NY, resize.threads, resize.configurator);
+				if (_iterations >= 0) _solver.setSolverIterations(_iterations);
+				// show the resampled fluid at once instead of waiting for the next step
+				packFrame();
+				publishFrame();
+				_isQuietPublished = false;
+			}
+			if (_untakenSteps >= IDLE_STEPS) {
+				_isIdle = true;
+				LockSupport.park(this);
+				_isIdle = false;
+				last = System.nanoTime();
+				accumulator = 0;
+				continue;
+			}
+			if (_isQuietPublished && _head == _tail) {
+				// nothing moves until something is added, the producer unparks us
+				_isWaitingForEvents = true;
+				if (_head == _tail && _isRunning && _pendingResize.get() == null) LockSupport.park(this);
+				_isWaitingForEvents = false;
+				last = System.nanoTime();
+				accumulator = 0;
+				continue;
+			}
+
+			final long now = System.nanoTime();
+			accumulator += now - last;
+			last = now;
+			if (accumulator > MAX_STEPS_PER_TICK * _stepNanos) {
+				// too far behind to catch up, drop the missed steps
+				_droppedSteps += (int)(accumulator / _stepNanos) - MAX_STEPS_PER_TICK;
+				accumulator = MAX_STEPS_PER_TICK * _stepNanos;
+			}
+
+			if (accumulator >= _stepNanos) {
+				final int iterations = _pendingIterations.getAndSet(-1);
+				if (iterations >= 0) {
+					_iterations = iterations;
+					_solver.setSolverIterations(iterations);
+				}
+				do {
+					drainEvents();
+					final boolean isSkipped = isSolverIdle();
+					final long start = System.nanoTime();
+					_solver.update();
+					if (!isSkipped) _stepLoad = (float)(System.nanoTime() - start) / _stepNanos;
+					accumulator -= _stepNanos;
+					_untakenSteps++;
+				} while (accumulator >= _stepNanos);
+				final boolean isQuiet = isSolverIdle();
+				if (!isQuiet || !_isQuietPublished) {
+					packFrame();
+					publishFrame();
+				}
+				_isQuietPublished = isQuiet;
+			}
+
+			final long wait = _stepNanos - accumulator - (System.nanoTime() - last);
+			if (wait > 0) LockSupport.parkNanos(this, wait);
+		}
+	}
+
+	private void pickEngine(final Resize pick) {
+		_isPickingEngine = true;
+		final int engine;
+		try {
+			engine = FluidSolverSelector.pickFastest(pick.NX, pick.NY, pick.threads, pick.configurator, pick.engines);
+		} finally {
+			_isPickingEngine = false;
+		}
+		if (!_isRunning || engine == FluidSolverSelector.engineOf(_solver)) return;
+		_solver = FluidSolverSelector.resize(_solver, engine, pick.NX, pick.NY, pick.threads, pick.configurator);
+		packFrame();
+		publishFrame();
+	}
+
+	private boolean isSolverIdle() {
+		return _solver instanceof MSAFluidSolver2D && ((MSAFluidSolver2D)_solver).isIdle();
+	}
+
+	/**
+	 * a resize asked for, picked up by the simulation thread before its next step. With engines
+	 * set, the engine timing done before the first step
+	 */
+	private final static class Resize {
+		final int[] engines;
+		final int NX, NY, threads;
+		final FluidSolverSelector.Configurator configurator;
+
+		Resize(final int NX, final int NY, final int threads, final FluidSolverSelector.Configurator configurator) {
+			this(null, NX, NY, threads, configurator);
+		}
+
+		Resize(final int[] engines, final int NX, final int NY, final int threads, final FluidSolverSelector.Configurator configurator) {
+			this.engines = engines;
+			this.NX = NX;
+			this.NY = NY;
+			this.threads = threads;
+			this.configurator = configurator;
+		}
+	}
+}
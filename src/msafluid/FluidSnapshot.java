@@ -0,0 +1,176 @@
+package msafluid;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Saves the velocities and dye of a solver to a compact binary snapshot and restores them, so a
+ * nice looking state can be baked once and shown straight away at startup, or a solver's output
+ * can be compared against a stored one.
+ *
+ * Layout (big endian, the ByteBuffer default):
+ * MAGIC, VERSION, width, height and flags as ints, followed by width * height values of each of
+ * u, v, r, g, b in cell index order, border cells included. The values are floats, or half
+ * precision floats when FLAG_HALF is set, which halves the size and is still well below a color
+ * step for the dye. A snapshot of a monochrome solver repeats its dye in all three channels.
+ *
+ * Taken between updates, so forces and dye added since the last update are not in it.
+ * Works with every engine through FluidSolver, and restores into a solver of any size
+ * (see FluidSolverSelector.resample).
+ */
+public class FluidSnapshot {
+	/** "MSAF" **/
+	public final static int MAGIC			= 0x4d534146;
+	public final static int VERSION			= 1;
+	public final static int FLAG_HALF		= 1;
+	public final static int HEADER_BYTES	= 5 * 4;
+	final static int CHANNELS				= 5;
+
+	private FluidSnapshot() {
+	}
+
+	/**
+	 * number of bytes a snapshot of this solver takes
+	 */
+	public static int getSize(final FluidSolver solver, final boolean isHalf) {
+		return HEADER_BYTES + CHANNELS * solver.getNumCells() * (isHalf ? 2 : 4);
+	}
+
+	/**
+	 * snapshot a solver into a new buffer, use buffer.array() to write it out
+	 * @param isHalf store half precision floats
+	 */
+	public static ByteBuffer save(final FluidSolver solver, final boolean isHalf) {
+		final ByteBuffer buffer = ByteBuffer.allocate(getSize(solver, isHalf));
+		save(solver, buffer, isHalf);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * snapshot a solver into buffer at its position, which is moved past the snapshot
+	 * @param isHalf store half precision floats
+	 */
+	public static void save(final FluidSolver solver, final ByteBuffer buffer, final boolean isHalf) {
+		final int numCells = solver.getNumCells();
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(solver.getWidth()).putInt(solver.getHeight()).putInt(isHalf ? FLAG_HALF : 0);
+		if (isHalf) {
+			final ShortBuffer halfs = buffer.asShortBuffer();
+			for (int i = 0; i < numCells; i++) halfs.put(toHalf(solver.getVelocityX(i)));
+			for (int i = 0; i < numCells; i++) halfs.put(toHalf(solver.getVelocityY(i)));
+			for (int i = 0; i < numCells; i++) halfs.put(toHalf(solver.getRed(i)));
+			for (int i = 0; i < numCells; i++) halfs.put(toHalf(solver.getGreen(i)));
+			for (int i = 0; i < numCells; i++) halfs.put(toHalf(solver.getBlue(i)));
+			buffer.position(buffer.position() + CHANNELS * numCells * 2);
+		} else {
+			final FloatBuffer floats = buffer.asFloatBuffer();
+			for (int i = 0; i < numCells; i++) floats.put(solver.getVelocityX(i));
+			for (int i = 0; i < numCells; i++) floats.put(solver.getVelocityY(i));
+			for (int i = 0; i < numCells; i++) floats.put(solver.getRed(i));
+			for (int i = 0; i < numCells; i++) floats.put(solver.getGreen(i));
+			for (int i = 0; i < numCells; i++) floats.put(solver.getBlue(i));
+			buffer.position(buffer.position() + CHANNELS * numCells * 4);
+		}
+	}
+
+	/**
+	 * overwrite the velocities and dye of a solver with a snapshot read from buffer at its position,
+	 * which is moved past the snapshot. A snapshot of a different grid size is resampled to fit.
+	 * @throws IllegalArgumentException if the buffer doesn't hold a snapshot this version can read
+	 */
+	public static void restore(final ByteBuffer buffer, final FluidSolver solver) {
+		if (buffer.remaining() < HEADER_BYTES) throw new IllegalArgumentException("not a fluid snapshot, only " + buffer.remaining() + " bytes");
+		final int start = buffer.position();
+		final int magic = buffer.getInt();
+		final int version = buffer.getInt();
+		final int width = buffer.getInt();
+		final int height = buffer.getInt();
+		final boolean isHalf = (buffer.getInt() & FLAG_HALF) != 0;
+		if (magic != MAGIC || version != VERSION || width < 3 || height < 3) {
+			buffer.position(start);
+			throw new IllegalArgumentException("not a fluid snapshot of version " + VERSION);
+		}
+		final int numCells = width * height;
+		if (buffer.remaining() < CHANNELS * numCells * (isHalf ? 2 : 4)) {
+			buffer.position(start);
+			throw new IllegalArgumentException("fluid snapshot of " + width + "x" + height + " is cut short");
+		}
+
+		if (width == solver.getWidth() && height == solver.getHeight()) {
+			read(buffer, solver, numCells, isHalf);
+		} else {
+			// read it at its own size and resample from there
+			final MSAFluidSolver2D snapshot = new MSAFluidSolver2D(width - 2, height - 2).enableRGB(true);
+			read(buffer, snapshot, numCells, isHalf);
+			FluidSolverSelector.resample(snapshot, solver);
+			snapshot.release();
+		}
+		// the setters mark every cell as a source, which would keep every tile alive for a step.
+		// Having the next step look at all tiles instead finds the ones the saved solver had alive
+		if (solver instanceof MSAFluidSolver2D) ((MSAFluidSolver2D)solver).activateAllTiles();
+	}
+
+	private static void read(final ByteBuffer buffer, final FluidSolver solver, final int numCells, final boolean isHalf) {
+		if (isHalf) {
+			final ShortBuffer halfs = buffer.asShortBuffer();
+			for (int i = 0; i < numCells; i++) {
+				solver.setVelocityAtIndex(i, fromHalf(halfs.get(i)), fromHalf(halfs.get(numCells + i)));
+				solver.setColorAtIndex(i, fromHalf(halfs.get(2 * numCells + i)), fromHalf(halfs.get(3 * numCells + i)), fromHalf(halfs.get(4 * numCells + i)));
+			}
+			buffer.position(buffer.position() + CHANNELS * numCells * 2);
+		} else {
+			final FloatBuffer floats = buffer.asFloatBuffer();
+			for (int i = 0; i < numCells; i++) {
+				solver.setVelocityAtIndex(i, floats.get(i), floats.get(numCells + i));
+				solver.setColorAtIndex(i, floats.get(2 * numCells + i), floats.get(3 * numCells + i), floats.get(4 * numCells + i));
+			}
+			buffer.position(buffer.position() + CHANNELS * numCells * 4);
+		}
+	}
+
+	/**
+	 * nearest IEEE 754 half precision float (ties to even), out of range values become infinity
+	 */
+	static short toHalf(final float value) {
+		final int bits = Float.floatToRawIntBits(value);
+		final int sign = (bits >>> 16) & 0x8000;
+		final int floatExponent = (bits >>> 23) & 0xff;
+		int mantissa = bits & 0x7fffff;
+		if (floatExponent == 0xff) return (short)(sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));	// infinity, NaN
+
+		final int exponent = floatExponent - 127 + 15;
+		if (exponent >= 0x1f) return (short)(sign | 0x7c00);
+		if (exponent <= 0) {
+			// subnormal, or too small and rounds to zero
+			if (exponent < -10) return (short)sign;
+			mantissa |= 0x800000;
+			final int shift = 14 - exponent;
+			int half = mantissa >> shift;
+			final int rest = mantissa & ((1 << shift) - 1);
+			final int halfway = 1 << (shift - 1);
+			if (rest > halfway || (rest == halfway && (half & 1) != 0)) half++;
+			return (short)(sign | half);
+		}
+		// rounding up may carry into the exponent, which is still the right result
+		int half = (exponent << 10) | (mantissa >> 13);
+		final int rest = mantissa & 0x1fff;
+		if (rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0)) half++;
+		return (short)(sign | half);
+	}
+
+	/**
+	 * the float a half precision float stands for
+	 */
+	static float fromHalf(final short half) {
+		final int sign = (half & 0x8000) << 16;
+		final int exponent = (half >>> 10) & 0x1f;
+		final int mantissa = half & 0x3ff;
+		if (exponent == 0) {
+			final float value = mantissa * (1f / (1 << 24));
+			return sign != 0 ? -value : value;
+		}
+		if (exponent == 0x1f) return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+		return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+	}
+}
@@ -0,0 +1,78 @@
+package msafluid;
+
+/**
+ * What the visuals need from a fluid engine, so the float, fixed point and stripped solvers
+ * can be swapped at runtime (see FluidSolverSelector).
+ *
+ * Cells are addressed by index, i + (getWidth()) * j, including the one cell border.
+ * Colors are in the 0...255 range the app draws with, velocities are in grid widths per step.
+ */
+public interface FluidSolver {
+
+	/**
+	 * move the solver one step forward
+	 */
+	public void update();
+
+	/**
+	 * remove all velocities and dye
+	 */
+	public void reset();
+
+	/**
+	 * give the cell arrays back for reuse by the next solver of the same size, the solver can't be used afterwards
+	 */
+	public void release();
+
+	public FluidSolver setDeltaT(float dt);
+	public FluidSolver setFadeSpeed(float fadeSpeed);
+	public FluidSolver setSolverIterations(int solverIterations);
+	public FluidSolver enableRGB(boolean isRGB);
+	public FluidSolver setVisc(float newVisc);
+
+	public void addForceAtPos(float x, float y, float vx, float vy);
+	public void addForceAtCell(int i, int j, float vx, float vy);
+	public void addForceAtIndex(int index, float vx, float vy);
+
+	public void addColorAtPos(float x, float y, float r, float g, float b);
+	public void addColorAtCell(int i, int j, float r, float g, float b);
+	public void addColorAtIndex(int index, float r, float g, float b);
+
+	/**
+	 * overwrite the velocity at cell index, unlike addForceAtIndex it is not a source for the next step
+	 */
+	public void setVelocityAtIndex(int index, float vx, float vy);
+	/**
+	 * overwrite the dye at cell index, unlike addColorAtIndex it is not a source for the next step
+	 */
+	public void setColorAtIndex(int index, float r, float g, float b);
+
+	/**
+	 * add force and dye around a batch of normalized positions in one call, each spread over a
+	 * gaussian footprint whose weights add up to 1
+	 * @param count number of splats to take from the arrays
+	 * @param xs x positions (0...1)
+	 * @param ys y positions (0...1)
+	 * @param dxs total x force of each splat
+	 * @param dys total y force of each splat
+	 * @param colors dye color of each splat as 0xRRGGBB
+	 * @param amounts multiplier for the color, the total dye of a splat is color * amount
+	 * @param radius standard deviation of the footprint as a fraction of the grid width
+	 */
+	public void addSplats(int count, float[] xs, float[] ys, float[] dxs, float[] dys, int[] colors, float[] amounts, float radius);
+
+	public int getIndexForCellPosition(int i, int j);
+	public int getIndexForNormalizedPosition(float x, float y);
+	/** (_NX+2) * (_NY+2) */
+	public int getNumCells();
+	/** _NX+2 */
+	public int getWidth();
+	/** _NY+2 */
+	public int getHeight();
+
+	public float getRed(int index);
+	public float getGreen(int index);
+	public float getBlue(int index);
+	public float getVelocityX(int index);
+	public float getVelocityY(int index);
+}
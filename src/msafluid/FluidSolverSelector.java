@@ -0,0 +1,280 @@
+package msafluid;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import android.util.Log;
+
+/**
+ * Creates fluid solvers and picks the fastest engine for the device it is running on by
+ * timing frames of each with a scripted splat. The engines take turns over several windows of
+ * frames and each gets the median of its windows, so a hiccup (garbage collection, the governor
+ * of the CPU clock, another app) in one window doesn't decide the pick. The winner is remembered
+ * per grid size, and with an EngineStore across runs, so the measurement only happens once.
+ * It takes a second or more on a phone, so run it off the UI thread (see
+ * FluidSimulationThread.setEngineCandidates).
+ */
+public class FluidSolverSelector {
+	public final static int ENGINE_FLOAT		= 0;
+	public final static int ENGINE_PARALLEL		= 1;
+	public final static int ENGINE_STRIPPED		= 2;
+	public final static int ENGINE_FIXED_POINT	= 3;
+	public final static int ENGINE_INTERLEAVED	= 4;
+	public final static String[] ENGINE_NAMES	= {"float", "parallel", "stripped", "fixed point", "interleaved"};
+
+	/** engines that take part in pickFastest **/
+	final static int[]	CANDIDATES			= {ENGINE_FLOAT, ENGINE_PARALLEL, ENGINE_STRIPPED, ENGINE_FIXED_POINT, ENGINE_INTERLEAVED};
+	/** engines built on MSAFluidSolver2D, with its boundary policies, vorticity confinement, buoyancy,
+	 * MacCormack advection and idle detection **/
+	public final static int[]	FLOAT_ENGINES		= {ENGINE_FLOAT, ENGINE_PARALLEL, ENGINE_INTERLEAVED};
+	/** enough for the JIT to compile the kernels before the timing starts **/
+	final static int	WARMUP_FRAMES		= 20;
+	/** frames per window, and windows per engine **/
+	final static int	TIMED_FRAMES		= 20;
+	final static int	TIMING_WINDOWS		= 7;
+	/** half a color step on the 0...255 dye scale, below that a tile can be dropped **/
+	final static float	TILE_DYE_EPSILON	= 0.5f;
+
+	/**
+	 * applies the app's settings to a freshly created solver, so the benchmark runs the real workload
+	 */
+	public interface Configurator {
+		public void configure(FluidSolver solver);
+	}
+
+	/**
+	 * keeps what pickFastest found across runs, e.g. in the app's preferences. The results only
+	 * hold for the device they were measured on, so don't let them travel with a backup.
+	 */
+	public interface EngineStore {
+		/** the engine saved under key, or -1 **/
+		public int load(String key);
+		public void save(String key, int engine);
+	}
+
+	private final static HashMap<String, Integer> fastest = new HashMap<String, Integer>();
+	private static EngineStore store;
+
+	/**
+	 * (OPTIONAL SETUP) where pickFastest keeps its results across runs
+	 * default: null (measured again in every process)
+	 */
+	public static synchronized void setEngineStore(final EngineStore engineStore) {
+		store = engineStore;
+	}
+
+	/**
+	 * create a solver
+	 * @param engine one of the ENGINE_ constants
+	 * @param NX number of cells in X direction
+	 * @param NY number of cells in Y direction
+	 * @param threads number of threads for ENGINE_PARALLEL
+	 */
+	public static FluidSolver create(final int engine, final int NX, final int NY, final int threads) {
+		switch (engine) {
+			case ENGINE_PARALLEL:
+				return new MSAFluidSolver2DParallel(NX, NY, threads).enableRowMajor(true).enableActiveTiles(true).setTileDyeEpsilon(TILE_DYE_EPSILON);
+			case ENGINE_STRIPPED:
+				return new MSAFluidSolver2DSTRIPPED(NX, NY);
+			case ENGINE_FIXED_POINT:
+				return new MSAFluidSolver2DINT(NX, NY);
+			case ENGINE_INTERLEAVED:
+				return new MSAFluidSolver2DInterleaved(NX, NY).enableRowMajor(true).enableFusedPasses(true).enableActiveTiles(true).setTileDyeEpsilon(TILE_DYE_EPSILON);
+			default:
+				return new MSAFluidSolver2D(NX, NY).enableRowMajor(true).enableFusedPasses(true).enableActiveTiles(true).setTileDyeEpsilon(TILE_DYE_EPSILON);
+		}
+	}
+
+	/**
+	 * the ENGINE_ constant create() would use to make a solver like this one
+	 */
+	public static int engineOf(final FluidSolver solver) {
+		if (solver instanceof MSAFluidSolver2DParallel) return ENGINE_PARALLEL;
+		if (solver instanceof MSAFluidSolver2DInterleaved) return ENGINE_INTERLEAVED;
+		if (solver instanceof MSAFluidSolver2DSTRIPPED) return ENGINE_STRIPPED;
+		if (solver instanceof MSAFluidSolver2DINT) return ENGINE_FIXED_POINT;
+		return ENGINE_FLOAT;
+	}
+
+	/**
+	 * stop anything the solver runs (worker threads) and give its arrays back to the pool
+	 */
+	public static void dispose(final FluidSolver solver) {
+		if (solver instanceof MSAFluidSolver2DParallel) ((MSAFluidSolver2DParallel)solver).shutdown();
+		solver.release();
+	}
+
+	/**
+	 * replace a solver with one of the same engine and a different grid size, carrying the
+	 * velocities and dye over (see resample). The new solver takes its arrays from those
+	 * released earlier where the sizes match, and the old one is disposed.
+	 * @param configurator applies the app's settings to the new solver, can be null
+	 * @return the new solver
+	 */
+	public static FluidSolver resize(final FluidSolver solver, final int NX, final int NY, final int threads, final Configurator configurator) {
+		return resize(solver, engineOf(solver), NX, NY, threads, configurator);
+	}
+
+	/**
+	 * replace a solver with one of the given engine and grid size (which can be the same as
+	 * before), carrying the velocities and dye over, see resize above
+	 * @param engine one of the ENGINE_ constants
+	 * @return the new solver
+	 */
+	public static FluidSolver resize(final FluidSolver solver, final int engine, final int NX, final int NY, final int threads, final Configurator configurator) {
+		final FluidSolver resized = create(engine, NX, NY, threads);
+		if (configurator != null) configurator.configure(resized);
+		resample(solver, resized);
+		dispose(solver);
+		return resized;
+	}
+
+	/**
+	 * copy the velocities and dye of one solver into another of a different size, bilinearly
+	 * sampling the source at the center of each destination cell. Both are in grid independent
+	 * units, so the values are copied as they are. The destination's border cells are left alone.
+	 */
+	public static void resample(final FluidSolver from, final FluidSolver to) {
+		final int fromNX = from.getWidth() - 2;
+		final int fromNY = from.getHeight() - 2;
+		final int toNX = to.getWidth() - 2;
+		final int toNY = to.getHeight() - 2;
+		final float scaleX = (float)fromNX / toNX;
+		final float scaleY = (float)fromNY / toNY;
+		for (int j = 1; j <= toNY; j++) {
+			float y = (j - 0.5f) * scaleY + 0.5f;
+			if (y < 1) y = 1;
+			if (y > fromNY) y = fromNY;
+			final int j0 = Math.min((int)y, fromNY - 1);
+			final float t1 = y - j0;
+			final float t0 = 1 - t1;
+			for (int i = 1; i <= toNX; i++) {
+				float x = (i - 0.5f) * scaleX + 0.5f;
+				if (x < 1) x = 1;
+				if (x > fromNX) x = fromNX;
+				final int i0 = Math.min((int)x, fromNX - 1);
+				final float s1 = x - i0;
+				final float s0 = 1 - s1;
+
+				final int c00 = from.getIndexForCellPosition(i0, j0);
+				final int c10 = from.getIndexForCellPosition(i0 + 1, j0);
+				final int c01 = from.getIndexForCellPosition(i0, j0 + 1);
+				final int c11 = from.getIndexForCellPosition(i0 + 1, j0 + 1);
+				final float w00 = s0 * t0, w10 = s1 * t0, w01 = s0 * t1, w11 = s1 * t1;
+
+				final int index = to.getIndexForCellPosition(i, j);
+				to.setVelocityAtIndex(index,
+						w00 * from.getVelocityX(c00) + w10 * from.getVelocityX(c10) + w01 * from.getVelocityX(c01) + w11 * from.getVelocityX(c11),
+						w00 * from.getVelocityY(c00) + w10 * from.getVelocityY(c10) + w01 * from.getVelocityY(c01) + w11 * from.getVelocityY(c11));
+				to.setColorAtIndex(index,
+						w00 * from.getRed(c00) + w10 * from.getRed(c10) + w01 * from.getRed(c01) + w11 * from.getRed(c11),
+						w00 * from.getGreen(c00) + w10 * from.getGreen(c10) + w01 * from.getGreen(c01) + w11 * from.getGreen(c11),
+						w00 * from.getBlue(c00) + w10 * from.getBlue(c10) + w01 * from.getBlue(c01) + w11 * from.getBlue(c11));
+			}
+		}
+	}
+
+	/**
+	 * time each candidate engine on this grid size and return the fastest one (cached)
+	 */
+	public static int pickFastest(final int NX, final int NY, final int threads, final Configurator configurator) {
+		return pickFastest(NX, NY, threads, configurator, CANDIDATES);
+	}
+
+	/**
+	 * time the given engines on this grid size and return the fastest one (cached). Only pass
+	 * engines the configurator can set up fully: one that lacks an option the configurator turns
+	 * on (see FLOAT_ENGINES) does less work per frame and would win for the wrong reason.
+	 * If the calling thread is interrupted the timing stops and engines[0] is returned, not cached.
+	 * @param engines ENGINE_ constants to choose from
+	 */
+	public static synchronized int pickFastest(final int NX, final int NY, final int threads, final Configurator configurator, final int[] engines) {
+		final int known = getFastest(NX, NY, threads, engines);
+		if (known >= 0) return known;
+		final String key = key(NX, NY, threads, engines);
+
+		// the engines take turns, so a slow spell of the device hits all of them alike
+		final FluidSolver[] solvers = new FluidSolver[engines.length];
+		final long[][] windows = new long[engines.length][TIMING_WINDOWS];
+		try {
+			for (int e = 0; e < engines.length; e++) {
+				solvers[e] = create(engines[e], NX, NY, threads);
+				if (configurator != null) configurator.configure(solvers[e]);
+				timeFrames(solvers[e], 0, WARMUP_FRAMES);
+			}
+			for (int w = 0; w < TIMING_WINDOWS; w++) {
+				for (int e = 0; e < engines.length; e++) {
+					windows[e][w] = timeFrames(solvers[e], WARMUP_FRAMES + w * TIMED_FRAMES, TIMED_FRAMES);
+				}
+			}
+			if (Thread.currentThread().isInterrupted()) {
+				Log.d("FluidSolverSelector", "timing " + key + " interrupted");
+				return engines[0];
+			}
+		} finally {
+			for (final FluidSolver solver : solvers) {
+				if (solver != null) dispose(solver);
+			}
+		}
+
+		int best = engines[0];
+		long bestTime = Long.MAX_VALUE;
+		for (int e = 0; e < engines.length; e++) {
+			Arrays.sort(windows[e]);
+			final long time = windows[e][TIMING_WINDOWS / 2];
+			Log.d("FluidSolverSelector", ENGINE_NAMES[engines[e]] + " " + key + ": median " + (time / 1000) + "us for " + TIMED_FRAMES + " frames"
+				+ " (" + (windows[e][0] / 1000) + " to " + (windows[e][TIMING_WINDOWS - 1] / 1000) + "us)");
+			if (time < bestTime) {
+				bestTime = time;
+				best = engines[e];
+			}
+		}
+		Log.d("FluidSolverSelector", "using " + ENGINE_NAMES[best] + " for " + key);
+		fastest.put(key, best);
+		if (store != null) store.save(key, best);
+		return best;
+	}
+
+	/**
+	 * (INFO) engine pickFastest picked for this grid size and these engines, in this process or
+	 * (see setEngineStore) an earlier one, or -1 if it hasn't been timed yet
+	 */
+	public static synchronized int getFastest(final int NX, final int NY, final int threads, final int[] engines) {
+		final String key = key(NX, NY, threads, engines);
+		final Integer cached = fastest.get(key);
+		if (cached != null) return cached;
+		if (store == null) return -1;
+		final int stored = store.load(key);
+		// a store from another version may name engines this one doesn't offer
+		for (final int engine : engines) {
+			if (engine == stored) {
+				fastest.put(key, stored);
+				return stored;
+			}
+		}
+		return -1;
+	}
+
+	private static String key(final int NX, final int NY, final int threads, final int[] engines) {
+		String key = NX + "x" + NY + "x" + threads + " of";
+		for (final int engine : engines) key += " " + engine;
+		return key;
+	}
+
+	/**
+	 * run frames first...first+count-1 of the scripted stroke, or none once the thread is interrupted
+	 * @return the time they took
+	 */
+	private static long timeFrames(final FluidSolver solver, final int first, final int count) {
+		final int totalFrames = WARMUP_FRAMES + TIMING_WINDOWS * TIMED_FRAMES;
+		final long start = System.nanoTime();
+		for (int f = first; f < first + count && !Thread.currentThread().isInterrupted(); f++) {
+			final float x = 0.2f + 0.6f * f / totalFrames;
+			final int index = solver.getIndexForNormalizedPosition(x, 0.5f);
+			solver.addColorAtIndex(index, 255, 128, 0);
+			solver.addForceAtIndex(index, 0.3f, -0.2f);
+			solver.update();
+		}
+		return System.nanoTime() - start;
+	}
+}
@@ -0,0 +1,75 @@
+package msafluid;
+
+/**
+ * Stamps gaussian splats of force and dye into a solver, behind the engines' addSplats.
+ *
+ * The footprint weights (normalized to add up to 1, so a splat adds exactly the force and dye
+ * it was given however many cells it covers) are worked out once per radius and reused, so
+ * stamping allocates nothing.
+ */
+final class FluidSplats {
+	private float	_sigma = -1;
+	private int		_reach;
+	private float[]	_weights = new float[1];
+
+	/**
+	 * see FluidSolver.addSplats
+	 */
+	void add(final FluidSolver solver, final int NX, final int NY, final int count,
+			final float[] xs, final float[] ys, final float[] dxs, final float[] dys,
+			final int[] colors, final float[] amounts, final float radius) {
+		final float sigma = radius * NX;
+		if (sigma != _sigma) setFootprint(sigma);
+		final int reach = _reach;
+		final int rowStride = NX + 2;
+
+		for (int s = 0; s < count; s++) {
+			// center cell, the same as getIndexForNormalizedPosition
+			int ci = (int)Math.floor(xs[s] * (NX + 2));
+			int cj = (int)Math.floor(ys[s] * (NY + 2));
+			if (ci < 1) ci = 1; else if (ci > NX) ci = NX;
+			if (cj < 1) cj = 1; else if (cj > NY) cj = NY;
+
+			final float dx = dxs[s];
+			final float dy = dys[s];
+			final int color = colors[s];
+			final float amount = amounts[s];
+			final float r = ((color >> 16) & 0xff) * amount;
+			final float g = ((color >> 8) & 0xff) * amount;
+			final float b = (color & 0xff) * amount;
+
+			final int jStart = Math.max(1, cj - reach), jEnd = Math.min(NY, cj + reach);
+			final int iStart = Math.max(1, ci - reach), iEnd = Math.min(NX, ci + reach);
+			for (int j = jStart; j <= jEnd; j++) {
+				int k = (j - cj + reach) * (2 * reach + 1) + (iStart - ci + reach);
+				for (int i = iStart, index = iStart + rowStride * j; i <= iEnd; i++, index++, k++) {
+					final float w = _weights[k];
+					solver.addForceAtIndex(index, w * dx, w * dy);
+					solver.addColorAtIndex(index, w * r, w * g, w * b);
+				}
+			}
+		}
+	}
+
+	private void setFootprint(final float sigma) {
+		_sigma = sigma;
+		_reach = sigma > 0 ? (int)Math.ceil(2 * sigma) : 0;
+		final int side = 2 * _reach + 1;
+		if (_weights.length < side * side) _weights = new float[side * side];
+		if (_reach == 0) {
+			_weights[0] = 1;
+			return;
+		}
+
+		float total = 0;
+		for (int j = -_reach, k = 0; j <= _reach; j++) {
+			for (int i = -_reach; i <= _reach; i++, k++) {
+				_weights[k] = (float)Math.exp(-(i * i + j * j) / (2 * sigma * sigma));
+				total += _weights[k];
+			}
+		}
+		for (int k = 0; k < side * side; k++) {
+			_weights[k] /= total;
+		}
+	}
+}
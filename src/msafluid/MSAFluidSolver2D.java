@@ -85,7 +85,7 @@ import android.util.Log;
 - *
 - * ***********************************************************************/ 
 
-public class MSAFluidSolver2D {
+public class MSAFluidSolver2D implements FluidSolver {
 	public final float[]	r;
 	public final float[]	g;
 	public final float[]	b;
@@ -117,6 +117,54 @@ public class MSAFluidSolver2D {
 	final static float    FLUID_DEFAULT_VISC                  = 0.0001f;
 	final static float    FLUID_DEFAULT_FADESPEED             = 0;
 	final static int      FLUID_DEFAULT_SOLVER_ITERATIONS	  = 10;
+	final static int      FLUID_DEFAULT_MULTIGRID_CYCLES	  = 1;
+	final static float    FLUID_DEFAULT_TILE_DYE_EPSILON      = 0.002f;
+	final static float    FLUID_DEFAULT_TILE_VELOCITY_EPSILON = 0.0001f;
+	final static float    FLUID_DEFAULT_IDLE_DENSITY          = 0.002f;
+	final static float    FLUID_DEFAULT_IDLE_SPEED            = 0.0001f;
+	
+	/** active tiles are TILE_SIZE x TILE_SIZE cells **/
+	public final static int TILE_SHIFT			= 3;
+	public final static int TILE_SIZE			= 1 << TILE_SHIFT;
+	
+	/** in place Gauss-Seidel, the original solver **/
+	public final static int SOLVER_GAUSS_SEIDEL	= 0;
+	/** red-black ordered Gauss-Seidel with successive over-relaxation (see setSOR) **/
+	public final static int SOLVER_RED_BLACK		= 1;
+	
+	/** pressure is solved with the same linear solver as diffusion **/
+	public final static int PROJECTION_LINEAR_SOLVER	= 0;
+	/** pressure is solved with multigrid V-cycles (see setMultigridCycles) **/
+	public final static int PROJECTION_MULTIGRID		= 1;
+	
+	/** first order semi-Lagrangian advection, the original **/
+	public final static int ADVECTION_SEMI_LAGRANGIAN	= 0;
+	/** MacCormack advection with a min/max limiter (see setAdvectionType) **/
+	public final static int ADVECTION_MACCORMACK		= 1;
+	
+	/** ghost cells are left alone (default, what this solver always did) **/
+	public final static int BOUNDARY_NONE			= 0;
+	/** solid walls the flow slides along: the velocity into a wall is turned around, the rest copied **/
+	public final static int BOUNDARY_FREE_SLIP		= 1;
+	/** solid walls the flow sticks to: both velocity components are turned around **/
+	public final static int BOUNDARY_NO_SLIP		= 2;
+	/** what leaves one edge comes back in at the opposite one **/
+	public final static int BOUNDARY_WRAP			= 3;
+	/** everything is copied outwards, so flow and dye leave the grid without bouncing back **/
+	public final static int BOUNDARY_OPEN			= 4;
+	
+	/** steps of update() timed by enableStepTiming (see getStepTime) **/
+	public final static int STEP_SOURCE_UV		= 0;	// velocity source and swap
+	public final static int STEP_DIFFUSE_UV		= 1;
+	public final static int STEP_PROJECT		= 2;	// both projections
+	public final static int STEP_ADVECT_UV		= 3;	// swap and velocity advection
+	public final static int STEP_SOURCE_RGB		= 4;	// dye source, diffusion and swaps
+	public final static int STEP_ADVECT_RGB		= 5;
+	public final static int STEP_FADE			= 6;	// fade, clearing the old buffers and statistics
+	public final static int STEP_CONFINEMENT	= 7;	// vorticity confinement force (see setVorticityConfinement)
+	public final static int STEP_BUOYANCY		= 8;	// buoyancy force (see setBuoyancy)
+	public final static int NUM_STEPS			= 9;
+	public final static String[] STEP_NAMES		= {"source uv", "diffuse uv", "project", "advect uv", "source rgb", "advect rgb", "fade", "confinement", "buoyancy"};
 
 	
 	/**
@@ -143,6 +191,9 @@ public class MSAFluidSolver2D {
 		setDeltaT(FLUID_DEFAULT_DT);
 		setFadeSpeed(FLUID_DEFAULT_FADESPEED  );
 		setSolverIterations(FLUID_DEFAULT_SOLVER_ITERATIONS);
+		setSolverType(SOLVER_GAUSS_SEIDEL);
+		setSOR(1);
+		setMultigridCycles(FLUID_DEFAULT_MULTIGRID_CYCLES);
 		
 		_NX = NX;
 		_NY = NY;
@@ -160,22 +211,34 @@ public class MSAFluidSolver2D {
 		
 		
 		
-		r    = new float[_numCells];
-		rOld = new float[_numCells];
+		r    = FluidArrayPool.takeFloats(_numCells);
+		rOld = FluidArrayPool.takeFloats(_numCells);
 
 		
-		g    = new float[_numCells];
-		gOld = new float[_numCells];
+		g    = FluidArrayPool.takeFloats(_numCells);
+		gOld = FluidArrayPool.takeFloats(_numCells);
 		
-		b    = new float[_numCells];
-		bOld = new float[_numCells];
+		b    = FluidArrayPool.takeFloats(_numCells);
+		bOld = FluidArrayPool.takeFloats(_numCells);
 		
-		u    = new float[_numCells];
-		uOld = new float[_numCells];
-		v    = new float[_numCells];
-		vOld = new float[_numCells];
+		u    = FluidArrayPool.takeFloats(_numCells);
+		uOld = FluidArrayPool.takeFloats(_numCells);
+		v    = FluidArrayPool.takeFloats(_numCells);
+		vOld = FluidArrayPool.takeFloats(_numCells);
 
-		_tmp = new float[_numCells];
+		_tmp = FluidArrayPool.takeFloats(_numCells);
+		
+		_tilesX = (_NX + TILE_SIZE - 1) >> TILE_SHIFT;
+		_tilesY = (_NY + TILE_SIZE - 1) >> TILE_SHIFT;
+		_tileActive = new boolean[_tilesX * _tilesY];
+		_tileAlive = new boolean[_tilesX * _tilesY];
+		_tileSource = new boolean[_tilesX * _tilesY];
+		_tileDilated = new boolean[_tilesX * _tilesY];
+		_tileRuns = new int[_tilesY][_tilesX + 1];
+		_tileRunCount = new int[_tilesY];
+		setTileDyeEpsilon(FLUID_DEFAULT_TILE_DYE_EPSILON);
+		setTileVelocityEpsilon(FLUID_DEFAULT_TILE_VELOCITY_EPSILON);
+		setIdleThresholds(FLUID_DEFAULT_IDLE_DENSITY, FLUID_DEFAULT_IDLE_SPEED);
 
 		
 		
@@ -239,6 +302,90 @@ public class MSAFluidSolver2D {
 		return this;	
 	}
 	
+	/**
+	 * (OPTIONAL SETUP) set the linear solver used for diffusion and projection 
+	 * @param solverType SOLVER_GAUSS_SEIDEL (default) or SOLVER_RED_BLACK
+	 * @return instance of MSAFluidSolver2D for further configuration
+	 */	
+	public MSAFluidSolver2D setSolverType(final int solverType) {
+		_solverType = solverType;
+		return this;	
+	}
+	
+	/**
+	 * (OPTIONAL SETUP) set the over-relaxation factor of the red-black solver.
+	 * 1 is plain Gauss-Seidel, 1.2-1.9 converges faster, 2 and above diverges.
+	 * @param omega relaxation factor (0...2)
+	 * @return instance of MSAFluidSolver2D for further configuration
+	 */	
+	public MSAFluidSolver2D setSOR(final float omega) {
+		_omega = omega;
+		return this;	
+	}
+	
+	/**
+	 * (OPTIONAL SETUP) set how the pressure equation of the projection step is solved.
+	 * Multigrid keeps the fluid incompressible on big grids where the linear solver would need many more iterations. 
+	 * @param projectionType PROJECTION_LINEAR_SOLVER (default) or PROJECTION_MULTIGRID
+	 * @return instance of MSAFluidSolver2D for further configuration
+	 */	
+	public MSAFluidSolver2D setProjectionType(final int projectionType) {
+		_projectionType = projectionType;
+		if(_projectionType == PROJECTION_MULTIGRID && _multigrid == null) {
+			_multigrid = new MultigridPoissonSolver(_NX, _NY);
+		}
+		return this;	
+	}
+	
+	/**
+	 * (OPTIONAL SETUP) set how velocity and dye are carried along by the flow.
+	 * MacCormack follows the semi-Lagrangian step with a step backwards and corrects by half of the
+	 * round trip error, which is second order and keeps edges about as sharp as a grid twice as fine.
+	 * The result is clamped to the cells the semi-Lagrangian step sampled so it can't overshoot.
+	 * It costs about two more advections per field, and only runs with enableRowMajor
+	 * (the column order kernels stay semi-Lagrangian).
+	 * @param advectionType ADVECTION_SEMI_LAGRANGIAN (default) or ADVECTION_MACCORMACK
+	 * @return instance of MSAFluidSolver2D for further configuration
+	 */	
+	public MSAFluidSolver2D setAdvectionType(final int advectionType) {
+		_advectionType = advectionType;
+		return this;	
+	}
+	
+	/**
+	 * (OPTIONAL SETUP) set what happens at the edges of the grid. Without a boundary the ghost cells
+	 * keep whatever was last written to them and dye bleeds in and out at the edges.
+	 * Wrap-around only fills the ghost cells, advection still stops at the edges.
+	 * @param boundaryType BOUNDARY_NONE (default), BOUNDARY_FREE_SLIP, BOUNDARY_NO_SLIP, BOUNDARY_WRAP or BOUNDARY_OPEN
+	 * @return instance of MSAFluidSolver2D for further configuration
+	 */	
+	public MSAFluidSolver2D setBoundaryType(final int boundaryType) {
+		_boundaryType = boundaryType;
+		return this;	
+	}
+	
+	/**
+	 * (OPTIONAL SETUP) set number of V-cycles per projection when using PROJECTION_MULTIGRID.
+	 * One cycle costs about as much as 3 Gauss-Seidel iterations and cuts the residual about 15 times.
+	 * default: 1
+	 * @param cycles
+	 * @return instance of MSAFluidSolver2D for further configuration
+	 */	
+	public MSAFluidSolver2D setMultigridCycles(final int cycles) {
+		_multigridCycles = cycles;
+		return this;	
+	}
+	
+	/**
+	 * (OPTIONAL SETUP) get told the residual after every solver iteration (slow, for tuning only) 
+	 * @param listener listener, or null to stop measuring
+	 * @return instance of MSAFluidSolver2D for further configuration
+	 */	
+	public MSAFluidSolver2D setResidualListener(final ResidualListener listener) {
+		_residualListener = listener;
+		return this;	
+	}
+	
 	/**
 	 * (OPTIONAL SETUP) set whether solver should work with monochrome dye (default) or RGB
 	 * @param isRGB true or false
@@ -249,6 +396,136 @@ public class MSAFluidSolver2D {
 		return this;
 	}
 	
+	/**
+	 * (OPTIONAL SETUP) set whether the kernels walk the grid in memory order (j outer, i inner)
+	 * instead of the original column order. Results are identical, row order is just cache friendly.
+	 * @param isRowMajor true or false
+	 * @return instance of MSAFluidSolver2D for further configuration
+	 */		
+	public MSAFluidSolver2D enableRowMajor(final boolean isRowMajor) {
+		_isRowMajor = isRowMajor;
+		return this;
+	}
+	
+	/**
+	 * (OPTIONAL SETUP) set whether update() runs the fused full-grid passes: the velocity source
+	 * together with the swap, the dye source, dye diffusion and both swaps in one sweep, and the fade,
+	 * clearing of the old buffers and the statistics in one sweep. The fluid comes out the same, it just
+	 * goes through memory about half as many times.
+	 * Dye is never diffused by update() (diffusion 0), so the fused dye pass only copies instead of solving.
+	 * That copy is what any Gauss-Seidel sweep gives, so it is only used with SOLVER_GAUSS_SEIDEL and at
+	 * least one iteration. The red-black sweep only gets close to the source, by omega each time, and no
+	 * iterations leave the dye as it was, so both still solve.
+	 * @param isFused true or false
+	 * @return instance of MSAFluidSolver2D for further configuration
+	 */		
+	public MSAFluidSolver2D enableFusedPasses(final boolean isFused) {
+		_isFused = isFused;
+		return this;
+	}
+	
+	/**
+	 * (OPTIONAL SETUP) set whether update() only works on the parts of the grid that have something in them.
+	 * The grid is split into TILE_SIZE x TILE_SIZE tiles. A tile stays active while any of its cells has dye
+	 * above the dye epsilon or speed above the velocity epsilon, or a force or color was added to it, and the
+	 * active set is grown by a margin of tiles covering the furthest a cell can be advected in one step.
+	 * Advection, diffusion and projection skip everything else, and tiles are zeroed when they drop out.
+	 * 
+	 * The difference to the full solve is dye and velocity below the epsilons being dropped, and the pressure
+	 * being cut off at the edge of the active region (the few pressure iterations only reach a couple of cells
+	 * in any case). Forces and colors have to go through the addForce / addColor methods so their tile is woken up.
+	 * Only the row order kernels skip tiles, so this needs enableRowMajor. Multigrid projection always
+	 * solves the whole grid, so it keeps every tile active.
+	 * @param isTracking true or false
+	 * @return instance of MSAFluidSolver2D for further configuration
+	 */		
+	public MSAFluidSolver2D enableActiveTiles(final boolean isTracking) {
+		_isTrackingTiles = isTracking;
+		activateAllTiles();
+		return this;
+	}
+	
+	/**
+	 * (OPTIONAL SETUP) set the dye level below which a cell counts as empty for enableActiveTiles
+	 * @param epsilon in the units of the dye (0...1 for monochrome, the app's 0...255 for RGB)
+	 * @return instance of MSAFluidSolver2D for further configuration
+	 */		
+	public MSAFluidSolver2D setTileDyeEpsilon(final float epsilon) {
+		_tileDyeEpsilon = epsilon;
+		return this;
+	}
+	
+	/**
+	 * (OPTIONAL SETUP) set the speed below which a cell counts as still for enableActiveTiles
+	 * @param epsilon in the units of u and v
+	 * @return instance of MSAFluidSolver2D for further configuration
+	 */		
+	public MSAFluidSolver2D setTileVelocityEpsilon(final float epsilon) {
+		_tileVelocityEpsilon = epsilon;
+		return this;
+	}
+	
+	/**
+	 * (OPTIONAL SETUP) set whether update() stops working once the fluid has died down. When no cell has
+	 * dye above the idle density or speed above the idle speed after an update, the fluid is zeroed and
+	 * update() returns straight away until a force or color is added (see isIdle).
+	 * @param isDetecting true or false
+	 * @return instance of MSAFluidSolver2D for further configuration
+	 */		
+	public MSAFluidSolver2D enableIdleDetection(final boolean isDetecting) {
+		_isDetectingIdle = isDetecting;
+		if(!isDetecting) _isIdle = false;
+		return this;
+	}
+	
+	/**
+	 * (OPTIONAL SETUP) set the levels below which enableIdleDetection counts the fluid as idle
+	 * @param density dye level, in the units of the dye (0...1 for monochrome, the app's 0...255 for RGB)
+	 * @param speed in the units of u and v, Float.MAX_VALUE to go idle as soon as the dye has faded
+	 * @return instance of MSAFluidSolver2D for further configuration
+	 */		
+	public MSAFluidSolver2D setIdleThresholds(final float density, final float speed) {
+		_idleDensity = density;
+		_idleSpeed = speed;
+		return this;
+	}
+	
+	/**
+	 * (OPTIONAL SETUP) set the strength of vorticity confinement. Every step each cell is pushed
+	 * around the nearest swirl in the direction it already turns, putting back the small scale
+	 * rotation that the coarse grid and the diffusion smear out, so a coarse grid keeps its detail.
+	 * 0 turns the pass off, useful values are around 0.1...1, too much makes the fluid boil.
+	 * @param epsilon strength (0 = off)
+	 * @return instance of MSAFluidSolver2D for further configuration
+	 */		
+	public MSAFluidSolver2D setVorticityConfinement(final float epsilon) {
+		_vorticityConfinement = epsilon;
+		return this;
+	}
+	
+	/**
+	 * (OPTIONAL SETUP) set buoyancy. Every step dye pushes upwards (towards j = 0) in proportion to
+	 * how much of it there is, full intensity (255 in RGB, 1 in monochrome) pushing by the given amount.
+	 * Negative values make dye sink. 0 turns the pass off.
+	 * @param buoyancy force per full intensity dye (0 = off)
+	 * @return instance of MSAFluidSolver2D for further configuration
+	 */		
+	public MSAFluidSolver2D setBuoyancy(final float buoyancy) {
+		_buoyancy = buoyancy;
+		return this;
+	}
+	
+	/**
+	 * (OPTIONAL SETUP) set whether update() measures how long each of its steps takes (see getStepTime)
+	 * @param isTiming true or false
+	 * @return instance of MSAFluidSolver2D for further configuration
+	 */		
+	public MSAFluidSolver2D enableStepTiming(final boolean isTiming) {
+		_isTimingSteps = isTiming;
+		Arrays.fill(_stepTimes, 0);
+		return this;
+	}
+	
 	/**
 	 * (OPTIONAL SETUP) set viscosity
 	 * @param newVisc
@@ -264,6 +541,7 @@ public class MSAFluidSolver2D {
 	 * (OPTIONAL SETUP) randomize dye (useful for debugging)
 	 */	
 	public void randomizeColor() {
+		_isIdle = false;
 		for(int i=0; i< getWidth(); i++) {
 			for(int j=0; j< getHeight(); j++) {
 				final int index = ((i) + (_NX + 2)  *(j));
@@ -298,6 +576,18 @@ public class MSAFluidSolver2D {
 	}
 	
 	
+	/**
+	 * hand the cell arrays back to the pool for the next solver of the same size,
+	 * the solver can't be used afterwards
+	 */
+	public void release() {
+		if(_isReleased) return;
+		_isReleased = true;
+		destroy();
+		FluidArrayPool.giveFloats(r, rOld, g, gOld, b, bOld, u, uOld, v, vOld, _tmp);
+	}
+	
+	
 	/**
 	 * initialize solver (remove all velocities and dye)
 	*/	
@@ -329,6 +619,8 @@ public class MSAFluidSolver2D {
 		Arrays.fill(v, 0);
 //		vOld = new float[_numCells];
 		Arrays.fill(vOld, 0);
+		
+		activateAllTiles();
 //		for (int i = 0; i < _numCells; i++) {
 //			u[i] = uOld[i] = v[i] = vOld[i] = 0.0f;
 //			r[i] = rOld[i] = g[i] = gOld[i] = b[i] = bOld[i] = 0;
@@ -414,6 +706,28 @@ public class MSAFluidSolver2D {
 	public float getAvgSpeed() {
 		return _avgSpeed;
 	}
+	
+	/**
+	 * (INFO) whether the fluid died down and update() is skipped until the next force or color (see enableIdleDetection)
+	 */
+	public boolean isIdle() {
+		return _isIdle;
+	}
+	
+	/**
+	 * (INFO) nanoseconds the given step took in the last update(), 0 unless enableStepTiming is on
+	 * @param step one of the STEP_ constants
+	*/	
+	public long getStepTime(final int step) {
+		return _stepTimes[step];
+	}
+	
+	/**
+	 * (INFO) fraction of the tiles update() worked on in the last step (1 unless enableActiveTiles is on)
+	*/	
+	public float getActiveTileFraction() {
+		return _activeTileFraction;
+	}
 
 	
 	
@@ -474,6 +788,7 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 		final int index = ((i) + (_NX + 2)  *(j));
 		uOld[index] += vx;
 		vOld[index] += vy;
+		markSource(index);
 		//		unlock();
 		//	}
 	}
@@ -494,9 +809,84 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 			gOld[index] += g;
 			bOld[index] += b;
 		}
+		markSource(index);
 		//		unlock();
 		//	}
 	}
+	
+	public void addForceAtIndex(final int index, final float vx, final float vy) {
+		uOld[index] += vx;
+		vOld[index] += vy;
+		markSource(index);
+	}
+	
+	public void addColorAtIndex(final int index, final float r, final float g, final float b) {
+		rOld[index] += r;
+		if(_isRGB) {
+			gOld[index] += g;
+			bOld[index] += b;
+		}
+		markSource(index);
+	}
+	
+	/**
+	 * add force and dye around several normalized positions at once, each spread over a
+	 * gaussian footprint (see FluidSolver.addSplats)
+	 */
+	public void addSplats(final int count, final float[] xs, final float[] ys, final float[] dxs, final float[] dys,
+			final int[] colors, final float[] amounts, final float radius) {
+		_splats.add(this, _NX, _NY, count, xs, ys, dxs, dys, colors, amounts, radius);
+	}
+	
+	public void setVelocityAtIndex(final int index, final float vx, final float vy) {
+		u[index] = vx;
+		v[index] = vy;
+		markSource(index);
+	}
+	
+	public void setColorAtIndex(final int index, final float r, final float g, final float b) {
+		this.r[index] = r;
+		if(_isRGB) {
+			this.g[index] = g;
+			this.b[index] = b;
+		}
+		markSource(index);
+	}
+	
+	/**
+	 * (INFO) return red dye (or the monochrome dye) at cell index
+	 */
+	public float getRed(final int index) {
+		return r[index];
+	}
+	
+	/**
+	 * (INFO) return green dye at cell index
+	 */
+	public float getGreen(final int index) {
+		return _isRGB ? g[index] : r[index];
+	}
+	
+	/**
+	 * (INFO) return blue dye at cell index
+	 */
+	public float getBlue(final int index) {
+		return _isRGB ? b[index] : r[index];
+	}
+	
+	/**
+	 * (INFO) return x velocity at cell index
+	 */
+	public float getVelocityX(final int index) {
+		return u[index];
+	}
+	
+	/**
+	 * (INFO) return y velocity at cell index
+	 */
+	public float getVelocityY(final int index) {
+		return v[index];
+	}
 
 	
 	/*	
@@ -581,49 +971,472 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 	 * i.e. in your sketch draw() method
 	*/
 	public void update() {
-//		ADD_SOURCE_UV();
-		addSourceUV();
+		long time = _isTimingSteps ? System.nanoTime() : 0;
+		if(_isTimingSteps) Arrays.fill(_stepTimes, 0);
+		if(_isIdle) return;
+		
+		if(_isTrackingTiles) updateActiveTiles();
+		
+		if(_vorticityConfinement != 0) {
+			vorticityConfinement(_vorticityConfinement);
+			time = markStep(STEP_CONFINEMENT, time);
+		}
+		if(_buoyancy != 0) {
+			buoyancy(_buoyancy);
+			time = markStep(STEP_BUOYANCY, time);
+		}
 		
-		swapU();
-		swapV();
+//		ADD_SOURCE_UV();
+		if(_isFused) {
+			addSourceSwapUV();
+		} else {
+			addSourceUV();
+			
+			swapU();
+			swapV();
+		}
+		time = markStep(STEP_SOURCE_UV, time);
 		
 //		DIFFUSE_UV();
 		diffuseUV(0, visc);
+		time = markStep(STEP_DIFFUSE_UV, time);
 		
 		project(u, v, uOld, vOld);
+		time = markStep(STEP_PROJECT, time);
 		
-		swapU(); 
-		swapV();
+		if(_isFused) {
+			swapUV();
+		} else {
+			swapU(); 
+			swapV();
+		}
 		
 		advect(1, u, uOld, uOld, vOld);
 		advect(2, v, vOld, uOld, vOld);
+		time = markStep(STEP_ADVECT_UV, time);
 		
 		project(u, v, uOld, vOld);
+		time = markStep(STEP_PROJECT, time);
 		
 		if(_isRGB) {
-			//ADD_SOURCE_RGB();
-			addSourceRGB();
-			swapRGB();
-			
-			//DIFFUSE_RGB();
-			diffuseRGB(0, 0);
-			swapRGB();
+			if(_isFused && isDyeCopyExact()) {
+				addSourceCopyRGB();
+			} else {
+				//ADD_SOURCE_RGB();
+				addSourceRGB();
+				swapRGB();
+				
+				//DIFFUSE_RGB();
+				diffuseRGB(0, 0);
+				swapRGB();
+			}
+			time = markStep(STEP_SOURCE_RGB, time);
 			
 			//ADVECT_RGB();
 			advectRGB(0, u, v);
+			time = markStep(STEP_ADVECT_RGB, time);
 			
-			fadeRGB();
+			if(_isFused) fadeClearRGB();
+			else fadeRGB();
+			time = markStep(STEP_FADE, time);
 		} else {
-			addSource(r, rOld);
-			swapR();
-			
-			diffuse(0, r, rOld, 0);
-			swapRGB();
+			if(_isFused && isDyeCopyExact()) {
+				addSourceCopy(r, rOld);
+			} else {
+				addSource(r, rOld);
+				swapR();
+				
+				diffuse(0, r, rOld, 0);
+				swapRGB();
+			}
+			time = markStep(STEP_SOURCE_RGB, time);
 			
 			advect(0, r, rOld, u, v);	
-			fadeR();
+			time = markStep(STEP_ADVECT_RGB, time);
+			
+			if(_isFused) fadeClearR();
+			else fadeR();
+			time = markStep(STEP_FADE, time);
+		}
+		
+		if(_isDetectingIdle && isQuiescent()) {
+			clearCells(0, _numCells);
+			_avgDensity = 0;
+			_avgSpeed = 0;
+			_isIdle = true;
 		}
 	}
+	
+	/**
+	 * whether no cell has dye above the idle density or speed above the idle speed
+	 */
+	protected boolean isQuiescent() {
+		// the fused fade keeps the averages, which rule out most busy frames without a scan
+		// (one bright cell hardly moves them though, so they can't say it is quiet)
+		if(_isFused && (_avgDensity > _idleDensity || _avgSpeed > 2 * _idleSpeed * _idleSpeed)) return false;
+		if(!isWithin(u, -_idleSpeed, _idleSpeed) || !isWithin(v, -_idleSpeed, _idleSpeed)) return false;
+		return isDyeQuiescent();
+	}
+	
+	/**
+	 * whether no cell has dye above the idle density
+	 */
+	protected boolean isDyeQuiescent() {
+		if(!isWithin(r, -Float.MAX_VALUE, _idleDensity)) return false;
+		return !_isRGB || (isWithin(g, -Float.MAX_VALUE, _idleDensity) && isWithin(b, -Float.MAX_VALUE, _idleDensity));
+	}
+	
+	/**
+	 * whether every value of x lies within min...max
+	 */
+	protected static boolean isWithin(final float[] x, final float min, final float max) {
+		for (int i = x.length - 1; i >= 0; i--) {
+			if(x[i] > max || x[i] < min) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * a force or color was added at index, wake up the solver and the tile
+	 */
+	protected void markSource(final int index) {
+		_isIdle = false;
+		if(_isTrackingTiles) markTileSource(index);
+	}
+	
+	/**
+	 * wake up the tile a force or color was added to
+	 */
+	protected void markTileSource(final int index) {
+		final int rowStride = _NX + 2;
+		final int i = Math.max(1, Math.min(_NX, index % rowStride));
+		final int j = Math.max(1, Math.min(_NY, index / rowStride));
+		_tileSource[((i - 1) >> TILE_SHIFT) + _tilesX * ((j - 1) >> TILE_SHIFT)] = true;
+	}
+	
+	/**
+	 * mark every tile active and let the row kernels walk whole rows
+	 */
+	protected void activateAllTiles() {
+		if(_tileActive == null) return;
+		Arrays.fill(_tileActive, true);
+		Arrays.fill(_tileSource, false);
+		for (int ty = 0; ty < _tilesY; ty++) {
+			_tileRuns[ty][0] = 1;
+			_tileRuns[ty][1] = _NX + 1;
+			_tileRunCount[ty] = 2;
+		}
+		_activeTileFraction = 1;
+	}
+	
+	/**
+	 * work out which tiles the kernels have to visit this step (see enableActiveTiles).
+	 * Dead tiles hold only zeros, so only the tiles that were active last step and the tiles that
+	 * got a source need to be looked at.
+	 */
+	protected void updateActiveTiles() {
+		if(!_isRowMajor || _projectionType == PROJECTION_MULTIGRID) {
+			if(_activeTileFraction < 1) activateAllTiles();
+			return;
+		}
+		
+		final int rowStride = _NX + 2;
+		float maxSpeed = 0;
+		for (int ty = 0; ty < _tilesY; ty++) {
+			final int jStart = 1 + (ty << TILE_SHIFT);
+			final int jEnd = Math.min(_NY + 1, jStart + TILE_SIZE);
+			for (int tx = 0; tx < _tilesX; tx++) {
+				final int tile = tx + _tilesX * ty;
+				boolean isAlive = _tileSource[tile];
+				if(_tileActive[tile] || isAlive) {
+					final int iStart = 1 + (tx << TILE_SHIFT);
+					final int iEnd = Math.min(_NX + 1, iStart + TILE_SIZE);
+					for (int j = jStart; j < jEnd; j++) {
+						for (int index = iStart + rowStride * j, last = iEnd + rowStride * j; index < last; index++) {
+							// speed after this step's forces are added
+							final float speed = Math.max(Math.abs(u[index]) + _dt * Math.abs(uOld[index]), Math.abs(v[index]) + _dt * Math.abs(vOld[index]));
+							if(speed > maxSpeed) maxSpeed = speed;
+							if(speed > _tileVelocityEpsilon || Math.max(getRed(index), Math.max(getGreen(index), getBlue(index))) > _tileDyeEpsilon) {
+								isAlive = true;
+							}
+						}
+					}
+				}
+				_tileAlive[tile] = isAlive;
+			}
+		}
+		Arrays.fill(_tileSource, false);
+		
+		// grow by as many tiles as the fastest cell can travel back in one step, plus one for the stencils
+		final int margin = 1 + (int)(maxSpeed * _dt * _NX) / TILE_SIZE;
+		for (int ty = 0; ty < _tilesY; ty++) {
+			for (int tx = 0; tx < _tilesX; tx++) {
+				boolean isNear = false;
+				for (int x = Math.max(0, tx - margin), xEnd = Math.min(_tilesX - 1, tx + margin); x <= xEnd && !isNear; x++) {
+					isNear = _tileAlive[x + _tilesX * ty];
+				}
+				_tileDilated[tx + _tilesX * ty] = isNear;
+			}
+		}
+		
+		int activeTiles = 0;
+		for (int ty = 0; ty < _tilesY; ty++) {
+			final int[] runs = _tileRuns[ty];
+			int runCount = 0;
+			for (int tx = 0; tx < _tilesX; tx++) {
+				final int tile = tx + _tilesX * ty;
+				boolean isActive = false;
+				for (int y = Math.max(0, ty - margin), yEnd = Math.min(_tilesY - 1, ty + margin); y <= yEnd && !isActive; y++) {
+					isActive = _tileDilated[tx + _tilesX * y];
+				}
+				
+				if(!isActive && _tileActive[tile]) clearTile(tx, ty);
+				_tileActive[tile] = isActive;
+				if(!isActive) continue;
+				
+				activeTiles++;
+				final int iStart = 1 + (tx << TILE_SHIFT);
+				final int iEnd = Math.min(_NX + 1, iStart + TILE_SIZE);
+				if(runCount > 0 && runs[runCount - 1] == iStart) {
+					runs[runCount - 1] = iEnd;
+				} else {
+					runs[runCount++] = iStart;
+					runs[runCount++] = iEnd;
+				}
+			}
+			_tileRunCount[ty] = runCount;
+		}
+		_activeTileFraction = activeTiles / (float)(_tilesX * _tilesY);
+	}
+	
+	private void clearTile(final int tx, final int ty) {
+		final int rowStride = _NX + 2;
+		final int iStart = 1 + (tx << TILE_SHIFT);
+		final int iEnd = Math.min(_NX + 1, iStart + TILE_SIZE);
+		final int jStart = 1 + (ty << TILE_SHIFT);
+		final int jEnd = Math.min(_NY + 1, jStart + TILE_SIZE);
+		for (int j = jStart; j < jEnd; j++) {
+			clearCells(iStart + rowStride * j, iEnd + rowStride * j);
+		}
+	}
+	
+	/**
+	 * zero the cells from (inclusive) to (exclusive) of all buffers, for tiles dropping out of the active set
+	 */
+	protected void clearCells(final int from, final int to) {
+		Arrays.fill(u, from, to, 0);
+		Arrays.fill(v, from, to, 0);
+		Arrays.fill(uOld, from, to, 0);
+		Arrays.fill(vOld, from, to, 0);
+		Arrays.fill(r, from, to, 0);
+		Arrays.fill(g, from, to, 0);
+		Arrays.fill(b, from, to, 0);
+		Arrays.fill(rOld, from, to, 0);
+		Arrays.fill(gOld, from, to, 0);
+		Arrays.fill(bOld, from, to, 0);
+	}
+	
+	/**
+	 * add the vorticity confinement force to uOld, vOld: epsilon * (N x w) where w is the curl of
+	 * the velocity and N points towards increasing |w|. The curl goes into _tmp, which is free
+	 * until the swaps.
+	 */
+	protected void vorticityConfinement(final float epsilon) {
+		final int rowStride = _NX + 2;
+		final float[] curl = _tmp;
+		Arrays.fill(curl, 0);
+		for (int j = 1; j <= _NY; j++) {
+			final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+			for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+				for (int index = runs[run] + rowStride * j, last = runs[run + 1] + rowStride * j; index < last; index++) {
+					curl[index] = 0.5f * ((v[index + 1] - v[index - 1]) - (u[index + rowStride] - u[index - rowStride]));
+				}
+			}
+		}
+		for (int j = 1; j <= _NY; j++) {
+			final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+			for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+				for (int index = runs[run] + rowStride * j, last = runs[run + 1] + rowStride * j; index < last; index++) {
+					final float nx = 0.5f * (Math.abs(curl[index + 1]) - Math.abs(curl[index - 1]));
+					final float ny = 0.5f * (Math.abs(curl[index + rowStride]) - Math.abs(curl[index - rowStride]));
+					final float length = (float)Math.sqrt(nx * nx + ny * ny) + 1e-10f;
+					final float w = epsilon * curl[index] / length;
+					uOld[index] += ny * w;
+					vOld[index] -= nx * w;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * add the buoyancy force to vOld, dye pushes towards j = 0
+	 */
+	protected void buoyancy(final float buoyancy) {
+		final int rowStride = _NX + 2;
+		final float lift = _isRGB ? buoyancy / (3 * 255) : buoyancy;
+		for (int j = 1; j <= _NY; j++) {
+			final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+			for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+				for (int index = runs[run] + rowStride * j, last = runs[run + 1] + rowStride * j; index < last; index++) {
+					final float density = _isRGB ? getRed(index) + getGreen(index) + getBlue(index) : r[index];
+					vOld[index] -= lift * density;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * add the time since start to the given step
+	 * @return the time now, the start of the next step
+	 */
+	private long markStep(final int step, final long start) {
+		if(!_isTimingSteps) return 0;
+		final long now = System.nanoTime();
+		_stepTimes[step] += now - start;
+		return now;
+	}
+	
+	
+	/**
+	 * addSourceUV followed by swapU and swapV in a single sweep:
+	 * u ends up holding the forces, uOld the updated velocity
+	 */
+	protected void addSourceSwapUV() {
+		for (int i = _numCells-1; i >= 0 ; i--) {
+			final float uSource = uOld[i];
+			final float vSource = vOld[i];
+			uOld[i] = u[i] + _dt * uSource;
+			vOld[i] = v[i] + _dt * vSource;
+			u[i] = uSource;
+			v[i] = vSource;
+		}
+	}
+	
+	/**
+	 * swapU and swapV in a single sweep without going through _tmp
+	 */
+	protected void swapUV() {
+		for (int i = _numCells-1; i >= 0 ; i--) {
+			final float uTmp = u[i];
+			final float vTmp = v[i];
+			u[i] = uOld[i];
+			v[i] = vOld[i];
+			uOld[i] = uTmp;
+			vOld[i] = vTmp;
+		}
+	}
+	
+	/**
+	 * whether diffuseRGB(0, 0) leaves exactly the dye source in the dye, so addSourceCopyRGB can stand in for it
+	 */
+	protected boolean isDyeCopyExact() {
+		return _solverIterations > 0 && _solverType != SOLVER_RED_BLACK;
+	}
+	
+	/**
+	 * addSourceRGB, swapRGB, diffuseRGB(0, 0) and swapRGB in a single sweep.
+	 * With no diffusion the solver just copies the source into the inner cells of the old buffers.
+	 * The border cells of the old buffers keep the dye that was added to them, or are filled
+	 * from the inner cells when a boundary is set, as diffuseRGB would.
+	 */
+	protected void addSourceCopyRGB() {
+		final int rowStride = _NX + 2;
+		for (int j = 0; j < _NY + 2; j++) {
+			final boolean isBorderRow = (j == 0 || j == _NY + 1);
+			int index = rowStride * j;
+			for (int i = 0; i < rowStride; i++, index++) {
+				final float rSum = r[index] + _dt * rOld[index];
+				final float gSum = g[index] + _dt * gOld[index];
+				final float bSum = b[index] + _dt * bOld[index];
+				r[index] = rSum;
+				g[index] = gSum;
+				b[index] = bSum;
+				if(isBorderRow || i == 0 || i == _NX + 1) continue;
+				rOld[index] = rSum;
+				gOld[index] = gSum;
+				bOld[index] = bSum;
+			}
+		}
+		if(_boundaryType != BOUNDARY_NONE) {
+			setBoundary(0, rOld, 1, 0);
+			setBoundary(0, gOld, 1, 0);
+			setBoundary(0, bOld, 1, 0);
+		}
+	}
+	
+	/**
+	 * addSource, swapR, diffuse(0, x, x0, 0) and swapR in a single sweep (see addSourceCopyRGB)
+	 */
+	protected void addSourceCopy(final float[] x, final float[] x0) {
+		final int rowStride = _NX + 2;
+		for (int j = 0; j < _NY + 2; j++) {
+			final boolean isBorderRow = (j == 0 || j == _NY + 1);
+			int index = rowStride * j;
+			for (int i = 0; i < rowStride; i++, index++) {
+				final float sum = x[index] + _dt * x0[index];
+				x[index] = sum;
+				if(isBorderRow || i == 0 || i == _NX + 1) continue;
+				x0[index] = sum;
+			}
+		}
+		setBoundary(0, x0);
+	}
+	
+	/**
+	 * fadeRGB, clearing of the old buffers and the statistics in a single sweep.
+	 * Density is the brightest channel, uniformity is 1 / (1 + variance of the density).
+	 */
+	protected void fadeClearRGB() {
+		final float holdAmount = 1 - _fadeSpeed;
+		float totalDensity = 0;
+		float totalDensitySq = 0;
+		float totalSpeed = 0;
+		for (int i = _numCells-1; i >= 0 ; i--) {
+			uOld[i] = vOld[i] = 0;
+			rOld[i] = gOld[i] = bOld[i] = 0;
+			
+			totalSpeed += u[i] * u[i] + v[i] * v[i];
+			
+			final float density = Math.max(r[i], Math.max(g[i], b[i]));
+			totalDensity += density;
+			totalDensitySq += density * density;
+			
+			r[i] *= holdAmount;
+			g[i] *= holdAmount;
+			b[i] *= holdAmount;
+		}
+		setStatistics(totalDensity, totalDensitySq, totalSpeed);
+	}
+	
+	/**
+	 * fadeR, clearing of the old buffers and the statistics in a single sweep
+	 */
+	protected void fadeClearR() {
+		final float holdAmount = 1 - _fadeSpeed;
+		float totalDensity = 0;
+		float totalDensitySq = 0;
+		float totalSpeed = 0;
+		for (int i = _numCells-1; i >= 0 ; i--) {
+			uOld[i] = vOld[i] = 0;
+			rOld[i] = 0;
+			
+			totalSpeed += u[i] * u[i] + v[i] * v[i];
+			
+			final float density = Math.min(1.0f, r[i]);
+			totalDensity += density;
+			totalDensitySq += density * density;
+			
+			r[i] = density * holdAmount;
+		}
+		setStatistics(totalDensity, totalDensitySq, totalSpeed);
+	}
+	
+	protected void setStatistics(final float totalDensity, final float totalDensitySq, final float totalSpeed) {
+		_avgDensity = totalDensity * _invNumCells;
+		_avgSpeed = totalSpeed * _invNumCells;
+		final float variance = Math.max(0, totalDensitySq * _invNumCells - _avgDensity * _avgDensity);
+		uniformity = 1.0f / (1 + variance);		// 0: very wide distribution, 1: very uniform
+	}
 
 	
 	protected void fadeR() {
@@ -734,6 +1547,13 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 		
 		dt0 = _dt * _NX;
 		
+		if(_isRowMajor) {
+			advectRows(_d, d0, du, dv, 1, _NY + 1);
+			if(_advectionType == ADVECTION_MACCORMACK) correctAdvection(_d, d0, du, dv, _tmp, 1, 0);
+			setBoundary(b, _d);
+			return;
+		}
+		
 		for (int i = 1; i <= _NX; i++) {
 			for (int j = 1; j <= _NY; j++) {
 				x = i - dt0 * du[((i) + (_NX + 2)  *(j))];//
@@ -770,6 +1590,17 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 		
 		dt0 = _dt * _NX;
 		
+		if(_isRowMajor) {
+			advectRGBRows(du, dv, 1, _NY + 1);
+			if(_advectionType == ADVECTION_MACCORMACK) {
+				correctAdvection(r, rOld, du, dv, _tmp, 1, 0);
+				correctAdvection(g, gOld, du, dv, _tmp, 1, 0);
+				correctAdvection(b, bOld, du, dv, _tmp, 1, 0);
+			}
+			setBoundaryRGB(bound);
+			return;
+		}
+		
 		for (int i = 1; i <= _NX; i++) {
 			for (int j = 1; j <= _NY; j++) {
 				x = i - dt0 * du[((i) + (_NX + 2)  *(j))];
@@ -804,21 +1635,29 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 	
 	protected void diffuse(final int b, final float[] c, final float[] c0, final float _diff) {
 		final float a = _dt * _diff * _NX * _NY;
+		_solverPass = ResidualListener.PASS_DIFFUSE;
 		linearSolver(b, c, c0, a, 1.0f + 4 * a);
 	}
 	
 	protected void diffuseRGB(final int b, final float _diff) {
 		final float a = _dt * _diff * _NX * _NY;
+		_solverPass = ResidualListener.PASS_DIFFUSE_RGB;
 		linearSolverRGB(b, a, 1.0f + 4 * a);
 	}
 	
 	protected void diffuseUV(final int b, final float _diff) {
 		final float a = _dt * _diff * _NX * _NY;
+		_solverPass = ResidualListener.PASS_DIFFUSE_UV;
 		linearSolverUV(b, a, 1.0f + 4 * a);
 	}
 	
 	
 	protected void project(final float[] x, final float[] y, final float[] p, final float[] div)  {
+		if(_isRowMajor) {
+			projectRowMajor(x, y, p, div);
+			return;
+		}
+		
 		for (int i = 1; i <= _NX; i++) {
 			for (int j = 1; j <= _NY; j++) {
 				div[((i) + (_NX + 2)  *(j))] = (x[((i+1) + (_NX + 2)  *(j))] - x[((i-1) + (_NX + 2)  *(j))] + y[((i) + (_NX + 2)  *(j+1))] - y[((i) + (_NX + 2)  *(j-1))])
@@ -830,7 +1669,7 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 		setBoundary(0, div);
 		setBoundary(0, p);
 		
-		linearSolver(0, p, div, 1, 4);
+		solvePressure(p, div);
 		
 		for (int i = 1; i <= _NX; i++) {
 			for (int j = 1; j <= _NY; j++) {
@@ -843,9 +1682,55 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 		setBoundary(2, y);
 	}
 	
+	protected void projectRowMajor(final float[] x, final float[] y, final float[] p, final float[] div)  {
+		projectDivergenceRows(x, y, p, div, 1, _NY + 1);
+		
+		setBoundary(0, div);
+		setBoundary(0, p);
+		
+		solvePressure(p, div);
+		
+		projectGradientRows(x, y, p, 1, _NY + 1);
+		
+		setBoundary(1, x);
+		setBoundary(2, y);
+	}
 	
 	
+	
+	protected void solvePressure(final float[] p, final float[] div) {
+		_solverPass = ResidualListener.PASS_PROJECT;
+		if(_projectionType == PROJECTION_MULTIGRID) {
+			for (int k = 0; k < _multigridCycles; k++) {
+				_multigrid.vCycle(p, div);
+				setBoundary(0, p);
+				if(_residualListener != null) _residualListener.onResidual(_solverPass, k, residual(p, div, 1, 4));
+			}
+			return;
+		}
+		linearSolver(0, p, div, 1, 4);
+	}
+	
 	protected void linearSolver(final int b, final float[] x, final float[] x0, final float a, final float c) {
+		if(_solverType == SOLVER_RED_BLACK) {
+			for (int k = 0; k < _solverIterations; k++) {
+				linearSolverRedBlackRows(x, x0, a, c, _omega, 0, 1, _NY + 1);
+				linearSolverRedBlackRows(x, x0, a, c, _omega, 1, 1, _NY + 1);
+				setBoundary(b, x);
+				if(_residualListener != null) _residualListener.onResidual(_solverPass, k, residual(x, x0, a, c));
+			}
+			return;
+		}
+		
+		if(_isRowMajor) {
+			for (int k = 0; k < _solverIterations; k++) {
+				linearSolverRows(x, x0, a, c, 1, _NY + 1);
+				setBoundary(b, x);
+				if(_residualListener != null) _residualListener.onResidual(_solverPass, k, residual(x, x0, a, c));
+			}
+			return;
+		}
+		
 		for (int k = 0; k < _solverIterations; k++) {
 			for (int i = 1; i <= _NX; i++) {
 				for (int j = 1; j <= _NY; j++) {
@@ -853,6 +1738,7 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 				}
 			}
 			setBoundary(b, x);
+			if(_residualListener != null) _residualListener.onResidual(_solverPass, k, residual(x, x0, a, c));
 		}
 	}
 	
@@ -860,6 +1746,25 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 	
 	protected void linearSolverRGB(final int bound, final float a, final float c) {
 		int index1, index2, index3, index4, index5;
+		if(_solverType == SOLVER_RED_BLACK) {
+			for (int k = 0; k < _solverIterations; k++) {
+				linearSolverRGBRedBlackRows(a, c, _omega, 0, 1, _NY + 1);
+				linearSolverRGBRedBlackRows(a, c, _omega, 1, 1, _NY + 1);
+				setBoundaryRGB(bound);
+				if(_residualListener != null) _residualListener.onResidual(_solverPass, k, residual(r, rOld, a, c) + residual(g, gOld, a, c) + residual(b, bOld, a, c));
+			}
+			return;
+		}
+		
+		if(_isRowMajor) {
+			for (int k = 0; k < _solverIterations; k++) {
+				linearSolverRGBRows(a, c, 1, _NY + 1);
+				setBoundaryRGB(bound);
+				if(_residualListener != null) _residualListener.onResidual(_solverPass, k, residual(r, rOld, a, c) + residual(g, gOld, a, c) + residual(b, bOld, a, c));
+			}
+			return;
+		}
+		
 		for (int k = 0; k < _solverIterations; k++) {		// MEMO
 			for (int i = 1; i <= _NX; i++) {
 				for (int j = 1; j <= _NY; j++) {
@@ -876,11 +1781,31 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 				}
 			}
 			setBoundaryRGB(bound);
+			if(_residualListener != null) _residualListener.onResidual(_solverPass, k, residual(r, rOld, a, c) + residual(g, gOld, a, c) + residual(b, bOld, a, c));
 		}
 	}
 	
 	protected void linearSolverUV(final int bound, final float a, final float c) {
 		int index1, index2, index3, index4, index5;
+		if(_solverType == SOLVER_RED_BLACK) {
+			for (int k = 0; k < _solverIterations; k++) {
+				linearSolverUVRedBlackRows(a, c, _omega, 0, 1, _NY + 1);
+				linearSolverUVRedBlackRows(a, c, _omega, 1, 1, _NY + 1);
+				setBoundaryUV();
+				if(_residualListener != null) _residualListener.onResidual(_solverPass, k, residual(u, uOld, a, c) + residual(v, vOld, a, c));
+			}
+			return;
+		}
+		
+		if(_isRowMajor) {
+			for (int k = 0; k < _solverIterations; k++) {
+				linearSolverUVRows(a, c, 1, _NY + 1);
+				setBoundaryUV();
+				if(_residualListener != null) _residualListener.onResidual(_solverPass, k, residual(u, uOld, a, c) + residual(v, vOld, a, c));
+			}
+			return;
+		}
+		
 		for (int k = 0; k < _solverIterations; k++) {		// MEMO
 			for (int i = 1; i <= _NX; i++) {
 				for (int j = 1; j <= _NY; j++) {
@@ -895,67 +1820,411 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 					//				x[FLUID_IX(i, j)] = (a * ( x[FLUID_IX(i-1, j)] + x[FLUID_IX(i+1, j)]  +  x[FLUID_IX(i, j-1)] + x[FLUID_IX(i, j+1)])  +  x0[FLUID_IX(i, j)]) / c;
 				}
 			}
-			setBoundaryRGB(bound);
+			setBoundaryUV();
+			if(_residualListener != null) _residualListener.onResidual(_solverPass, k, residual(u, uOld, a, c) + residual(v, vOld, a, c));
+		}
+	}
+	
+	
+	/**
+	 * root mean square residual of the linear system a * (neighbours of x) + x0 = c * x over the interior
+	 */
+	protected float residual(final float[] x, final float[] x0, final float a, final float c) {
+		final int rowStride = _NX + 2;
+		double sum = 0;
+		for (int j = 1; j <= _NY; j++) {
+			int index = 1 + rowStride * j;
+			for (int i = 1; i <= _NX; i++, index++) {
+				final float res = a * ( x[index - 1] + x[index + 1]  +   x[index - rowStride] + x[index + rowStride])  +  x0[index] - c * x[index];
+				sum += res * res;
+			}
+		}
+		return (float)Math.sqrt(sum / (_NX * _NY));
+	}
+	
+	/*
+	 * Row band kernels. Each one walks rows [jStart, jEnd) of the interior in memory order
+	 * and touches nothing outside of them, so bands can be handed to different threads.
+	 */
+	
+	protected void addSourceUVCells(final int start, final int end) {
+		for (int i = start; i < end; i++) {
+			u[i] += _dt * uOld[i];
+			v[i] += _dt * vOld[i];
+		}
+	}
+	
+	protected void addSourceRGBCells(final int start, final int end) {
+		for (int i = start; i < end; i++) {
+			r[i] += _dt * rOld[i];
+			g[i] += _dt * gOld[i];
+			b[i] += _dt * bOld[i];
+		}
+	}
+	
+	protected void advectRows(final float[] _d, final float[] d0, final float[] du, final float[] dv, final int jStart, final int jEnd) {
+		int i0, j0;
+		float x, y, s0, t0, s1, t1;
+		final float dt0 = _dt * _NX;
+		final int rowStride = _NX + 2;
+		for (int j = jStart; j < jEnd; j++) {
+			final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+			for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+				int index = runs[run] + rowStride * j;
+				for (int i = runs[run], iEnd = runs[run + 1]; i < iEnd; i++, index++) {
+					x = i - dt0 * du[index];
+					y = j - dt0 * dv[index];
+					
+					if (x > _NX + 0.5) x = _NX + 0.5f;
+					if (x < 0.5)     x = 0.5f;
+					
+					i0 = (int) x;
+					
+					if (y > _NY + 0.5) y = _NY + 0.5f;
+					if (y < 0.5)     y = 0.5f;
+					
+					j0 = (int) y;
+					
+					s1 = x - i0;
+					s0 = 1 - s1;
+					t1 = y - j0;
+					t0 = 1 - t1;
+					
+					final int index00 = i0 + rowStride * j0;
+					final int index01 = index00 + rowStride;
+					_d[index] = s0 * (t0 * d0[index00] + t1 * d0[index01])
+					+ s1 * (t0 * d0[index00 + 1] + t1 * d0[index01 + 1]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * MacCormack correction of a field that has just been advected semi-Lagrangian from d0 into d.
+	 * The field can be one channel of an interleaved array: cell index is at [stride * index + offset]
+	 * in d, d0 and back. back is scratch of the same size.
+	 */
+	protected void correctAdvection(final float[] d, final float[] d0, final float[] du, final float[] dv, final float[] back, final int stride, final int offset) {
+		final float dt0 = _dt * _NX;
+		final int rowStride = _NX + 2;
+		
+		// the backward trace reads the border of d, give it the border d0 had
+		for (int i = 0; i < rowStride; i++) {
+			d[stride * i + offset] = d0[stride * i + offset];
+			d[stride * (i + rowStride * (_NY + 1)) + offset] = d0[stride * (i + rowStride * (_NY + 1)) + offset];
+		}
+		for (int j = 1; j <= _NY; j++) {
+			d[stride * (rowStride * j) + offset] = d0[stride * (rowStride * j) + offset];
+			d[stride * (_NX + 1 + rowStride * j) + offset] = d0[stride * (_NX + 1 + rowStride * j) + offset];
+		}
+		
+		// back = d carried backwards, the same step with the velocity reversed
+		for (int j = 1; j <= _NY; j++) {
+			final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+			for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+				int index = runs[run] + rowStride * j;
+				for (int i = runs[run], iEnd = runs[run + 1]; i < iEnd; i++, index++) {
+					float x = i + dt0 * du[index];
+					float y = j + dt0 * dv[index];
+					if (x > _NX + 0.5) x = _NX + 0.5f;
+					if (x < 0.5)     x = 0.5f;
+					if (y > _NY + 0.5) y = _NY + 0.5f;
+					if (y < 0.5)     y = 0.5f;
+					final int i0 = (int) x;
+					final int j0 = (int) y;
+					final float s1 = x - i0;
+					final float t1 = y - j0;
+					final int c00 = stride * (i0 + rowStride * j0) + offset;
+					final int c01 = c00 + stride * rowStride;
+					back[stride * index + offset] = (1 - s1) * ((1 - t1) * d[c00] + t1 * d[c01])
+					+ s1 * ((1 - t1) * d[c00 + stride] + t1 * d[c01 + stride]);
+				}
+			}
+		}
+		
+		// d += (d0 - back) / 2, limited to the cells the forward step interpolated between
+		for (int j = 1; j <= _NY; j++) {
+			final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+			for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+				int index = runs[run] + rowStride * j;
+				for (int i = runs[run], iEnd = runs[run + 1]; i < iEnd; i++, index++) {
+					float x = i - dt0 * du[index];
+					float y = j - dt0 * dv[index];
+					if (x > _NX + 0.5) x = _NX + 0.5f;
+					if (x < 0.5)     x = 0.5f;
+					if (y > _NY + 0.5) y = _NY + 0.5f;
+					if (y < 0.5)     y = 0.5f;
+					final int c00 = stride * ((int) x + rowStride * (int) y) + offset;
+					final int c01 = c00 + stride * rowStride;
+					final float a = d0[c00], b = d0[c00 + stride], c = d0[c01], e = d0[c01 + stride];
+					final float min = Math.min(Math.min(a, b), Math.min(c, e));
+					final float max = Math.max(Math.max(a, b), Math.max(c, e));
+					
+					final int cell = stride * index + offset;
+					final float value = d[cell] + 0.5f * (d0[cell] - back[cell]);
+					d[cell] = value < min ? min : (value > max ? max : value);
+				}
+			}
+		}
+	}
+	
+	protected void advectRGBRows(final float[] du, final float[] dv, final int jStart, final int jEnd) {
+		int i0, j0;
+		float x, y, s0, t0, s1, t1;
+		final float dt0 = _dt * _NX;
+		final int rowStride = _NX + 2;
+		for (int j = jStart; j < jEnd; j++) {
+			final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+			for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+				int index = runs[run] + rowStride * j;
+				for (int i = runs[run], iEnd = runs[run + 1]; i < iEnd; i++, index++) {
+					x = i - dt0 * du[index];
+					y = j - dt0 * dv[index];
+					
+					if (x > _NX + 0.5) x = _NX + 0.5f;
+					if (x < 0.5)     x = 0.5f;
+					
+					i0 = (int) x;
+					
+					if (y > _NY + 0.5) y = _NY + 0.5f;
+					if (y < 0.5)     y = 0.5f;
+					
+					j0 = (int) y;
+					
+					s1 = x - i0;
+					s0 = 1 - s1;
+					t1 = y - j0;
+					t0 = 1 - t1;
+					
+					final int index00 = i0 + rowStride * j0;
+					final int index01 = index00 + rowStride;
+					r[index] = s0 * (t0 * rOld[index00] + t1 * rOld[index01])	+ s1 * (t0 * rOld[index00 + 1] + t1 * rOld[index01 + 1]);
+					g[index] = s0 * (t0 * gOld[index00] + t1 * gOld[index01])	+ s1 * (t0 * gOld[index00 + 1] + t1 * gOld[index01 + 1]);
+					b[index] = s0 * (t0 * bOld[index00] + t1 * bOld[index01])	+ s1 * (t0 * bOld[index00 + 1] + t1 * bOld[index01 + 1]);
+				}
+			}
+		}
+	}
+	
+	protected void projectDivergenceRows(final float[] x, final float[] y, final float[] p, final float[] div, final int jStart, final int jEnd) {
+		final int rowStride = _NX + 2;
+		for (int j = jStart; j < jEnd; j++) {
+			final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+			for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+				int index = runs[run] + rowStride * j;
+				for (int i = runs[run], iEnd = runs[run + 1]; i < iEnd; i++, index++) {
+					div[index] = (x[index + 1] - x[index - 1] + y[index + rowStride] - y[index - rowStride])
+					* - 0.5f / _NX;
+					p[index] = 0;
+				}
+			}
+		}
+	}
+	
+	protected void projectGradientRows(final float[] x, final float[] y, final float[] p, final int jStart, final int jEnd) {
+		final int rowStride = _NX + 2;
+		for (int j = jStart; j < jEnd; j++) {
+			final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+			for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+				int index = runs[run] + rowStride * j;
+				for (int i = runs[run], iEnd = runs[run + 1]; i < iEnd; i++, index++) {
+					x[index] -= 0.5f * _NX * (p[index + 1] - p[index - 1]);
+					y[index] -= 0.5f * _NX * (p[index + rowStride] - p[index - rowStride]);
+				}
+			}
+		}
+	}
+	
+	protected void linearSolverRows(final float[] x, final float[] x0, final float a, final float c, final int jStart, final int jEnd) {
+		final int rowStride = _NX + 2;
+		for (int j = jStart; j < jEnd; j++) {
+			final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+			for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+				int index = runs[run] + rowStride * j;
+				for (int i = runs[run], iEnd = runs[run + 1]; i < iEnd; i++, index++) {
+					x[index] = (a * ( x[index - 1] + x[index + 1]  +   x[index - rowStride] + x[index + rowStride])  +  x0[index]) / c;
+				}
+			}
 		}
 	}
 	
+	protected void linearSolverRGBRows(final float a, final float c, final int jStart, final int jEnd) {
+		int index1, index2, index3, index4, index5;
+		final int rowStride = _NX + 2;
+		for (int j = jStart; j < jEnd; j++) {
+			final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+			for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+				index5 = runs[run] + rowStride * j;
+				for (int i = runs[run], iEnd = runs[run + 1]; i < iEnd; i++, index5++) {
+					index1 = index5 - 1;
+					index2 = index5 + 1;
+					index3 = index5 - rowStride;
+					index4 = index5 + rowStride;
+					
+					r[index5] = (a * ( r[index1] + r[index2]  +  r[index3] + r[index4])  +  rOld[index5]) / c;
+					g[index5] = (a * ( g[index1] + g[index2]  +  g[index3] + g[index4])  +  gOld[index5]) / c;
+					b[index5] = (a * ( b[index1] + b[index2]  +  b[index3] + b[index4])  +  bOld[index5]) / c;
+				}
+			}
+		}
+	}
 	
+	protected void linearSolverUVRows(final float a, final float c, final int jStart, final int jEnd) {
+		int index1, index2, index3, index4, index5;
+		final int rowStride = _NX + 2;
+		for (int j = jStart; j < jEnd; j++) {
+			final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+			for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+				index5 = runs[run] + rowStride * j;
+				for (int i = runs[run], iEnd = runs[run + 1]; i < iEnd; i++, index5++) {
+					index1 = index5 - 1;
+					index2 = index5 + 1;
+					index3 = index5 - rowStride;
+					index4 = index5 + rowStride;
+					
+					u[index5] = (a * ( u[index1] + u[index2]  +  u[index3] + u[index4])  +  uOld[index5]) / c;
+					v[index5] = (a * ( v[index1] + v[index2]  +  v[index3] + v[index4])  +  vOld[index5]) / c;
+				}
+			}
+		}
+	}
 	
+	/*
+	 * Red-black variants: only update cells where (i + j) % 2 == parity. A red pass only reads
+	 * black neighbours and vice versa, so any split of the rows can run at the same time.
+	 * omega is the over-relaxation factor, each cell moves omega times the Gauss-Seidel step.
+	 */
+	
+	protected void linearSolverRedBlackRows(final float[] x, final float[] x0, final float a, final float c, final float omega, final int parity, final int jStart, final int jEnd) {
+		final int rowStride = _NX + 2;
+		for (int j = jStart; j < jEnd; j++) {
+			final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+			for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+				final int iStart = runs[run] + (((runs[run] + j) & 1) ^ parity);
+				for (int index = iStart + rowStride * j, last = runs[run + 1] + rowStride * j; index < last; index += 2) {
+					x[index] += omega * ((a * ( x[index - 1] + x[index + 1]  +   x[index - rowStride] + x[index + rowStride])  +  x0[index]) / c - x[index]);
+				}
+			}
+		}
+	}
+	
+	protected void linearSolverRGBRedBlackRows(final float a, final float c, final float omega, final int parity, final int jStart, final int jEnd) {
+		int index1, index2, index3, index4;
+		final int rowStride = _NX + 2;
+		for (int j = jStart; j < jEnd; j++) {
+			final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+			for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+				final int iStart = runs[run] + (((runs[run] + j) & 1) ^ parity);
+				for (int index5 = iStart + rowStride * j, last = runs[run + 1] + rowStride * j; index5 < last; index5 += 2) {
+					index1 = index5 - 1;
+					index2 = index5 + 1;
+					index3 = index5 - rowStride;
+					index4 = index5 + rowStride;
+					
+					r[index5] += omega * ((a * ( r[index1] + r[index2]  +  r[index3] + r[index4])  +  rOld[index5]) / c - r[index5]);
+					g[index5] += omega * ((a * ( g[index1] + g[index2]  +  g[index3] + g[index4])  +  gOld[index5]) / c - g[index5]);
+					b[index5] += omega * ((a * ( b[index1] + b[index2]  +  b[index3] + b[index4])  +  bOld[index5]) / c - b[index5]);
+				}
+			}
+		}
+	}
+	
+	protected void linearSolverUVRedBlackRows(final float a, final float c, final float omega, final int parity, final int jStart, final int jEnd) {
+		int index1, index2, index3, index4;
+		final int rowStride = _NX + 2;
+		for (int j = jStart; j < jEnd; j++) {
+			final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+			for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+				final int iStart = runs[run] + (((runs[run] + j) & 1) ^ parity);
+				for (int index5 = iStart + rowStride * j, last = runs[run + 1] + rowStride * j; index5 < last; index5 += 2) {
+					index1 = index5 - 1;
+					index2 = index5 + 1;
+					index3 = index5 - rowStride;
+					index4 = index5 + rowStride;
+					
+					u[index5] += omega * ((a * ( u[index1] + u[index2]  +  u[index3] + u[index4])  +  uOld[index5]) / c - u[index5]);
+					v[index5] += omega * ((a * ( v[index1] + v[index2]  +  v[index3] + v[index4])  +  vOld[index5]) / c - v[index5]);
+				}
+			}
+		}
+	}
+	
+	
+	
+	/**
+	 * fill the ghost cells around a field from the cells next to them, as setBoundaryType asks
+	 * @param b 0 for scalars (dye, pressure), 1 for the x velocity, 2 for the y velocity
+	 */
 	protected void setBoundary(final int b, final float[] x) {
-//		//return;
-//		for (int i = 1; i <= _NX; i++) {
-//			if(i<= _NY) {
-//				x[((0) + (_NX + 2)  *(i))] = b == 1 ? -x[((1) + (_NX + 2)  *(i))] : x[((1) + (_NX + 2)  *(i))];
-//				x[((_NX+1) + (_NX + 2)  *(i))] = b == 1 ? -x[((_NX) + (_NX + 2)  *(i))] : x[((_NX) + (_NX + 2)  *(i))];
-//			}
-//			
-//			x[((i) + (_NX + 2)  *(0))] = b == 2 ? -x[((i) + (_NX + 2)  *(1))] : x[((i) + (_NX + 2)  *(1))];
-//			x[((i) + (_NX + 2)  *(_NY+1))] = b == 2 ? -x[((i) + (_NX + 2)  *(_NY))] : x[((i) + (_NX + 2)  *(_NY))];
-//		}
-//		
-//		x[((0) + (_NX + 2)  *(0))] = 0.5f * (x[((1) + (_NX + 2)  *(0))] + x[((0) + (_NX + 2)  *(1))]);
-//		x[((0) + (_NX + 2)  *(_NY+1))] = 0.5f * (x[((1) + (_NX + 2)  *(_NY+1))] + x[((0) + (_NX + 2)  *(_NY))]);
-//		x[((_NX+1) + (_NX + 2)  *(0))] = 0.5f * (x[((_NX) + (_NX + 2)  *(0))] + x[((_NX+1) + (_NX + 2)  *(1))]);
-//		x[((_NX+1) + (_NX + 2)  *(_NY+1))] = 0.5f * (x[((_NX) + (_NX + 2)  *(_NY+1))] + x[((_NX+1) + (_NX + 2)  *(_NY))]);
+		if(_boundaryType == BOUNDARY_NONE) return;
+		setBoundary(b, x, 1, 0);
 	}
 	
-
+	/**
+	 * setBoundary for one channel of an interleaved array, cell n of the grid is x[stride * n + offset].
+	 * The top and bottom rows are contiguous runs, the side columns are a strided walk down the array.
+	 */
+	protected void setBoundary(final int b, final float[] x, final int stride, final int offset) {
+		final int rowStride = stride * (_NX + 2);
+		final boolean isWall = _boundaryType == BOUNDARY_FREE_SLIP || _boundaryType == BOUNDARY_NO_SLIP;
+		// which walls turn this component around
+		final float sideSign = isWall && (b == 1 || (b == 2 && _boundaryType == BOUNDARY_NO_SLIP)) ? -1 : 1;
+		final float rowSign = isWall && (b == 2 || (b == 1 && _boundaryType == BOUNDARY_NO_SLIP)) ? -1 : 1;
+		
+		final int top = offset;
+		final int bottom = offset + rowStride * (_NY + 1);
+		if(_boundaryType == BOUNDARY_WRAP) {
+			final int firstRow = top + rowStride;
+			final int lastRow = bottom - rowStride;
+			for (int c = stride, end = stride * (_NX + 1); c < end; c += stride) {
+				x[top + c] = x[lastRow + c];
+				x[bottom + c] = x[firstRow + c];
+			}
+			for (int left = top + rowStride, right = left + stride * (_NX + 1); left < bottom; left += rowStride, right += rowStride) {
+				x[left] = x[right - stride];
+				x[right] = x[left + stride];
+			}
+			x[top] = x[lastRow + stride * _NX];
+			x[top + stride * (_NX + 1)] = x[lastRow + stride];
+			x[bottom] = x[firstRow + stride * _NX];
+			x[bottom + stride * (_NX + 1)] = x[firstRow + stride];
+			return;
+		}
+		
+		for (int c = stride, end = stride * (_NX + 1); c < end; c += stride) {
+			x[top + c] = rowSign * x[top + rowStride + c];
+			x[bottom + c] = rowSign * x[bottom - rowStride + c];
+		}
+		for (int left = top + rowStride, right = left + stride * (_NX + 1); left < bottom; left += rowStride, right += rowStride) {
+			x[left] = sideSign * x[left + stride];
+			x[right] = sideSign * x[right - stride];
+		}
+		// corners take the average of the two ghost cells next to them
+		final int topRight = top + stride * (_NX + 1);
+		final int bottomRight = bottom + stride * (_NX + 1);
+		x[top] = 0.5f * (x[top + stride] + x[top + rowStride]);
+		x[topRight] = 0.5f * (x[topRight - stride] + x[topRight + rowStride]);
+		x[bottom] = 0.5f * (x[bottom + stride] + x[bottom - rowStride]);
+		x[bottomRight] = 0.5f * (x[bottomRight - stride] + x[bottomRight - rowStride]);
+	}
+	
+	/**
+	 * setBoundary for the three dye channels
+	 */
 	protected void setBoundaryRGB(final int bound) {
-//		int index1, index2;
-//		for (int i = 1; i <= _NX; i++) {
-//			if(i<= _NY) {
-//				index1 = ((0) + (_NX + 2)  *(i));
-//				index2 = ((1) + (_NX + 2)  *(i));
-//				r[index1] = bound == 1 ? -r[index2] : r[index2];
-//				g[index1] = bound == 1 ? -g[index2] : g[index2];
-//				b[index1] = bound == 1 ? -b[index2] : b[index2];
-//				
-//				index1 = ((_NX+1) + (_NX + 2)  *(i));
-//				index2 = ((_NX) + (_NX + 2)  *(i));
-//				r[index1] = bound == 1 ? -r[index2] : r[index2];
-//				g[index1] = bound == 1 ? -g[index2] : g[index2];
-//				b[index1] = bound == 1 ? -b[index2] : b[index2];
-//			}
-//			
-//			index1 = ((i) + (_NX + 2)  *(0));
-//			index2 = ((i) + (_NX + 2)  *(1));
-//			r[index1] = bound == 2 ? -r[index2] : r[index2];
-//			g[index1] = bound == 2 ? -g[index2] : g[index2];
-//			b[index1] = bound == 2 ? -b[index2] : b[index2];
-//			
-//			index1 = ((i) + (_NX + 2)  *(_NY+1));
-//			index2 = ((i) + (_NX + 2)  *(_NY));
-//			r[index1] = bound == 2 ? -r[index2] : r[index2];
-//			g[index1] = bound == 2 ? -g[index2] : g[index2];
-//			b[index1] = bound == 2 ? -b[index2] : b[index2];
-//			
-//		}
-//		
-////			x[FLUID_IX(  0,   0)] = 0.5f * (x[FLUID_IX(1, 0  )] + x[FLUID_IX(  0, 1)]);
-////			x[FLUID_IX(  0, _NY+1)] = 0.5f * (x[FLUID_IX(1, _NY+1)] + x[FLUID_IX(  0, _NY)]);
-////			x[FLUID_IX(_NX+1,   0)] = 0.5f * (x[FLUID_IX(_NX, 0  )] + x[FLUID_IX(_NX+1, 1)]);
-////			x[FLUID_IX(_NX+1, _NY+1)] = 0.5f * (x[FLUID_IX(_NX, _NY+1)] + x[FLUID_IX(_NX+1, _NY)]);
-//		
+		if(_boundaryType == BOUNDARY_NONE) return;
+		setBoundary(bound, r, 1, 0);
+		setBoundary(bound, g, 1, 0);
+		setBoundary(bound, b, 1, 0);
+	}
+	
+	/**
+	 * setBoundary for both velocity components
+	 */
+	protected void setBoundaryUV() {
+		if(_boundaryType == BOUNDARY_NONE) return;
+		setBoundary(1, u, 1, 0);
+		setBoundary(2, v, 1, 0);
 	}
 	
 	public int FLUID_IX(final int i, final int j) {
@@ -1035,13 +2304,47 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 	final protected float	_invNX, _invNY, _invNumCells;
 	protected float	_dt;
 	protected boolean	_isInited;
+	protected boolean	_isReleased;
 	protected boolean	_isRGB;				// for monochrome, only update r
+	protected boolean	_isRowMajor;		// walk kernels j outer, i inner (memory order)
+	protected boolean	_isFused;			// update() uses the fused full-grid passes
+	protected boolean	_isTimingSteps;
+	protected final long[]	_stepTimes = new long[NUM_STEPS];	// nanoseconds per STEP_ in the last update()
+	
+	protected boolean	_isDetectingIdle;
+	protected boolean	_isIdle;			// zeroed and waiting for a force or color (see enableIdleDetection)
+	protected float		_idleDensity;
+	protected float		_idleSpeed;
+	
+	protected boolean	_isTrackingTiles;
+	protected float		_tileDyeEpsilon;
+	protected float		_tileVelocityEpsilon;
+	protected float		_activeTileFraction = 1;
+	final protected int	_tilesX, _tilesY;
+	protected boolean[]	_tileActive;		// tiles the kernels visit this step
+	protected boolean[]	_tileAlive;			// tiles with something above the epsilons in them (scratch)
+	protected boolean[]	_tileSource;		// tiles a force or color was added to since the last step
+	protected boolean[]	_tileDilated;		// _tileAlive grown horizontally (scratch)
+	protected int[][]	_tileRuns;			// per row of tiles: start, end (exclusive) cell i of each run of active tiles
+	protected int[]		_tileRunCount;		// per row of tiles: number of entries used in _tileRuns
 	protected int		_solverIterations;
+	protected int		_solverType;
+	protected float		_omega;				// over-relaxation factor for SOLVER_RED_BLACK
+	protected ResidualListener	_residualListener;
+	protected int		_solverPass;		// ResidualListener.PASS_ of the solve in progress
+	protected int		_projectionType;
+	protected int		_advectionType;
+	protected int		_boundaryType;
+	protected int		_multigridCycles;
+	protected MultigridPoissonSolver	_multigrid;
 	
 	protected float	visc;
 	protected float	_fadeSpeed;
+	protected float	_vorticityConfinement;
+	protected float	_buoyancy;
 	
 	protected float[] _tmp;
+	private final FluidSplats _splats = new FluidSplats();
 	
 	protected float	_avgDensity;			// this will hold the average color of the last frame (how full it is)
 	protected float	uniformity;			// this will hold the uniformity of the last frame (how uniform the color is);
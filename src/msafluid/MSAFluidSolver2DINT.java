@@ -35,8 +35,6 @@ package msafluid;
 
 import java.util.Arrays;
 
-import android.util.Log;
-
 /**
  * this is a class for solving real-time fluid dynamics simulations based on Navier-Stokes equations 
  * and code from Jos Stam's paper "Real-Time Fluid Dynamics for Games" http://www.dgp.toronto.edu/people/stam/reality/Research/pdf/GDC03.pdf
@@ -47,6 +45,16 @@ import android.util.Log;
  * Gustav Taxen (C) - http://www.nada.kth.se/~gustavt/fluids/
  * Dave Wallin (C++) - http://nuigroup.com/touchlib/ (uses portions from Gustav's)
  * 
+ * Fixed point version for devices without a fast FPU. The public arrays hold fixed point ints:
+ * u, v (and the pressure inside project) have VEL_SHIFT fraction bits, about 0.000001 grid
+ * widths per step of resolution and +-2047 range. Touch velocities are only a few hundredths,
+ * with 16 bits the rounding alone was half a percent per frame.
+ * r, g, b have COLOR_SHIFT fraction bits, 1/4096 of a color step and +-524287 range, which leaves room for dye piling up under a
+ * finger on the 0...255 scale. Coefficients (dt, fade, solver weights, interpolation weights)
+ * have FP_SHIFT fraction bits. Products are done in long and rounded back down, so no step
+ * overflows as long as the values stay inside their range.
+ * The float setters and getters of FluidSolver convert to and from these formats.
+ * 
  * 
  * @example MSAFluid 
  * @author Memo Akten
@@ -83,7 +91,7 @@ import android.util.Log;
 - *
 - * ***********************************************************************/ 
 
-public class MSAFluidSolver2DINT {
+public class MSAFluidSolver2DINT implements FluidSolver {
 	public final int[]	r;
 	public final int[]	g;
 	public final int[]	b;
@@ -109,14 +117,26 @@ public class MSAFluidSolver2DINT {
 		return VERSION;
 	}
 
+	/** fraction bits of the coefficients (timestep, fade, solver weights) **/
+	public final static int		FP_SHIFT		= 16;
+	/** fraction bits of u, v and the pressure **/
+	public final static int		VEL_SHIFT		= 20;
+	/** fraction bits of r, g, b **/
+	public final static int		COLOR_SHIFT		= 12;
+	
+	public final static int		FP_ONE			= 1 << FP_SHIFT;
+	public final static int		VEL_ONE			= 1 << VEL_SHIFT;
+	public final static int		COLOR_ONE		= 1 << COLOR_SHIFT;
+	
+	final static long			FP_HALF			= 1L << (FP_SHIFT - 1);
+	final static float			INV_VEL_ONE		= 1.0f / VEL_ONE;
+	final static float			INV_COLOR_ONE	= 1.0f / COLOR_ONE;
+
 	final static int    FLUID_DEFAULT_NX                    = 100;
 	final static int    FLUID_DEFAULT_NY                    = 100;
-	final static int    FLUID_DEFAULT_DT_T                  = 1;
-	final static int    FLUID_DEFAULT_DT_B                  = 1;
-	final static int    FLUID_DEFAULT_VISC_T                = 1;
-	final static int    FLUID_DEFAULT_VISC_B                = 10000;
-	final static int    FLUID_DEFAULT_FADESPEED_T           = 0;
-	final static int    FLUID_DEFAULT_FADESPEED_B           = 0;
+	final static float  FLUID_DEFAULT_DT                    = 1.0f;
+	final static float  FLUID_DEFAULT_VISC                  = 0.0001f;
+	final static float  FLUID_DEFAULT_FADESPEED             = 0;
 	final static int    FLUID_DEFAULT_SOLVER_ITERATIONS	    = 10;
 
 	
@@ -128,52 +148,36 @@ public class MSAFluidSolver2DINT {
 	public MSAFluidSolver2DINT(final int NX, final int NY) {
 		
 		_isInited = false;
-		setDeltaT(FLUID_DEFAULT_DT_T, FLUID_DEFAULT_DT_B);
-		setFadeSpeed(FLUID_DEFAULT_FADESPEED_T, FLUID_DEFAULT_FADESPEED_B  );
-		setSolverIterations(FLUID_DEFAULT_SOLVER_ITERATIONS);
-		
 		_NX = NX;
 		_NY = NY;
 		_numCells = (_NX + 2) * (_NY + 2);
 		
+		setDeltaT(FLUID_DEFAULT_DT);
+		setFadeSpeed(FLUID_DEFAULT_FADESPEED);
+		setSolverIterations(FLUID_DEFAULT_SOLVER_ITERATIONS);
+		setVisc(FLUID_DEFAULT_VISC);
+		
 		width		= getWidth();
 		height		= getHeight();
-		invWidth	= 1;
-		invHeight	= 1;
 		
+		r    = FluidArrayPool.takeInts(_numCells);
+		rOld = FluidArrayPool.takeInts(_numCells);
 		
+		g    = FluidArrayPool.takeInts(_numCells);
+		gOld = FluidArrayPool.takeInts(_numCells);
 		
-		r    = new int[_numCells];
-		rOld = new int[_numCells];
-
+		b    = FluidArrayPool.takeInts(_numCells);
+		bOld = FluidArrayPool.takeInts(_numCells);
 		
-		g    = new int[_numCells];
-		gOld = new int[_numCells];
-		
-		b    = new int[_numCells];
-		bOld = new int[_numCells];
-		
-		u    = new int[_numCells];
-		uOld = new int[_numCells];
-		v    = new int[_numCells];
-		vOld = new int[_numCells];
-
-		_tmp = new int[_numCells];
+		u    = FluidArrayPool.takeInts(_numCells);
+		uOld = FluidArrayPool.takeInts(_numCells);
+		v    = FluidArrayPool.takeInts(_numCells);
+		vOld = FluidArrayPool.takeInts(_numCells);
 
-		
-		
-		
+		_tmp = FluidArrayPool.takeInts(_numCells);
 		
 		reset();
 		
-		
-		
-
-		
-		
-		
-		
-		
 		enableRGB(false);
 	}
 
@@ -195,10 +199,10 @@ public class MSAFluidSolver2DINT {
 	 * @param dt timestep
 	 * @return instance of MSAFluidSolver2D for further configuration
 	 */
-	public MSAFluidSolver2DINT setDeltaT(final int dt_t, final int dt_b) {
-		_dt_t = dt_t;
-		_dt_b = dt_b;
-		return this;	
+	public MSAFluidSolver2DINT setDeltaT(final float dt) {
+		_dt = dt;
+		_dtQ = toFixed(dt);
+		return this;
 	}
 
 	
@@ -207,10 +211,10 @@ public class MSAFluidSolver2DINT {
 	 * @param fadeSpeed (0...1)
 	 * @return instance of MSAFluidSolver2D for further configuration
 	 */
-	public MSAFluidSolver2DINT setFadeSpeed(final int fadeSpeed_t, final int fadeSpeed_b) {
-		_fadeSpeed_t = fadeSpeed_t;
-		_fadeSpeed_b = fadeSpeed_b;
-		return this;	
+	public MSAFluidSolver2DINT setFadeSpeed(final float fadeSpeed) {
+		_fadeSpeed = fadeSpeed;
+		_holdAmountQ = toFixed(1 - fadeSpeed);
+		return this;
 	}
 
 	
@@ -239,9 +243,8 @@ public class MSAFluidSolver2DINT {
 	 * @param newVisc
 	 * @return instance of MSAFluidSolver2D for further configuration
 	 */		
-	public MSAFluidSolver2DINT setVisc(final int newVisc_T, final int newVisc_B) {
-		visc_t = newVisc_T;
-		visc_b = newVisc_B;
+	public MSAFluidSolver2DINT setVisc(final float newVisc) {
+		visc = newVisc;
 		return this;
 	}
 
@@ -254,6 +257,18 @@ public class MSAFluidSolver2DINT {
 	}
 	
 	
+	/**
+	 * hand the cell arrays back to the pool for the next solver of the same size,
+	 * the solver can't be used afterwards
+	 */
+	public void release() {
+		if(_isReleased) return;
+		_isReleased = true;
+		destroy();
+		FluidArrayPool.giveInts(r, rOld, g, gOld, b, bOld, u, uOld, v, vOld, _tmp);
+	}
+	
+	
 	/**
 	 * initialize solver (remove all velocities and dye)
 	*/	
@@ -261,34 +276,19 @@ public class MSAFluidSolver2DINT {
 		destroy();
 		_isInited = true;
 		
-//		r    = new float[_numCells];
 		Arrays.fill(r, 0);
-//		rOld = new float[_numCells];
 		Arrays.fill(rOld, 0);
-
 		
-//		g    = new float[_numCells];
 		Arrays.fill(g, 0);
-//		gOld = new float[_numCells];
 		Arrays.fill(gOld, 0);
 		
-//		b    = new float[_numCells];
 		Arrays.fill(b, 0);
-//		bOld = new float[_numCells];
 		Arrays.fill(bOld, 0);
 		
-//		u    = new float[_numCells];
 		Arrays.fill(u, 0);
-//		uOld = new float[_numCells];
 		Arrays.fill(uOld, 0);
-//		v    = new float[_numCells];
 		Arrays.fill(v, 0);
-//		vOld = new float[_numCells];
 		Arrays.fill(vOld, 0);
-//		for (int i = 0; i < _numCells; i++) {
-//			u[i] = uOld[i] = v[i] = vOld[i] = 0.0f;
-//			r[i] = rOld[i] = g[i] = gOld[i] = b[i] = bOld[i] = 0;
-//		}
 	}
 	
 	/**
@@ -347,9 +347,15 @@ public class MSAFluidSolver2DINT {
 	 * (INFO) return viscosity
 	*/
 	public float getVisc() {
-		return (float)visc_t/(float)visc_b;
+		return visc;
 	}
 	
+	/**
+	 * (INFO) return fade speed
+	*/
+	public float getFadeSpeed() {
+		return _fadeSpeed;
+	}
 	
 	
 	
@@ -360,57 +366,8 @@ public class MSAFluidSolver2DINT {
 		addForceAtCell(i, j, vx, vy);
 	}
 	
-	public void addForceAtPosInterp(final float x, final float y, final float vx, final float vy) {
-		final float rI = x * _NX + 2;
-		final float rJ = y * _NY + 2;
-		final int i1 = (int) (x * _NX + 2);
-		final int i2 = (rI - i1 < 0) ? (int) (x * _NX + 3) : (int) (x* _NX + 1);
-		final int j1 = (int) (y * _NY + 2);
-		final int j2 = (rJ - j1 < 0) ? (int) (y * _NY + 3) : (int) (y* _NY + 1);
-		
-		final float diffx = (1-(rI-i1));
-		final float diffy = (1-(rJ-j1));
-		
-		final float vx1 = vx * diffx*diffy;
-		final float vy1 = vy * diffy*diffx;
-		
-		final float vx2 = vx * (1-diffx)*diffy;
-		final float vy2 = vy * diffy*(1-diffx);
-		
-		final float vx3 = vx * diffx*(1-diffy);
-		final float vy3 = vy * (1-diffy)*diffx;
-		
-		final float vx4 = vx * (1-diffx)*(1-diffy);
-		final float vy4 = vy * (1-diffy)*(1-diffx);
-		
-		/*
-D/MSAFluidSolver(13634): Adding force 1 (orig:dx2.1063147 dy:-0.9879706  ): [49,19]: dx: 0.026681103  dy:-0.012514818 diffx:0.0930748 diffy:0.13609695
-D/MSAFluidSolver(13634): Adding force 2 (orig:dx2.1063147 dy:-0.9879706  ): [48,19]: dx: 1.9102699  dy:-0.12194498 diffx:0.9069252 diffy:0.12342976
-D/MSAFluidSolver(13634): Adding force 3 (orig:dx2.1063147 dy:-0.9879706  ): [49,18]: dx: 0.16936372  dy:-0.8535108 diffx:0.080407605 diffy:0.86390305
-D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,18]: dx: 1.650288  dy:-0.77407044 diffx:0.7834954 diffy:0.7834954
-
-		 */
-		
-		if(i1<2 || i1>_NX-1 || j1<2 || j1>_NY-1) return;
-
-		Log.d("MSAFluidSolver", "Adding force 1 (orig:dx"+vx+" dy:"+vy+"  ): ["+i1+","+j1+"]: dx: "+vx1+"  dy:"+vy1+" diffx:"+diffx+" diffy:"+diffy);
-		Log.d("MSAFluidSolver", "Adding force 2 (orig:dx"+vx+" dy:"+vy+"  ): ["+i2+","+j1+"]: dx: "+vx2+"  dy:"+vy2+" diffx:"+(1-diffx)+" diffy:"+diffy*(1-diffx));
-		Log.d("MSAFluidSolver", "Adding force 3 (orig:dx"+vx+" dy:"+vy+"  ): ["+i1+","+j2+"]: dx: "+vx3+"  dy:"+vy3+" diffx:"+diffx*(1-diffy)+" diffy:"+(1-diffy));
-		Log.d("MSAFluidSolver", "Adding force 4 (orig:dx"+vx+" dy:"+vy+"  ): ["+i2+","+j2+"]: dx: "+vx4+"  dy:"+vy4+" diffx:"+(1-diffx)*(1-diffy)+" diffy:"+(1-diffx)*(1-diffy));
-		addForceAtCell(i1, j1, vx1, vy1);
-		addForceAtCell(i2, j1, vx2, vy2);
-		addForceAtCell(i1, j2, vx3, vy3);
-		addForceAtCell(i2, j2, vx4, vy4);
-
-	}
-	
 	public void addForceAtCell(final int i, final int j, final float vx, final float vy) {
-		//	if(safeToRun()){
-		final int index = ((i) + (_NX + 2)  *(j));
-		uOld[index] += vx;
-		vOld[index] += vy;
-		//		unlock();
-		//	}
+		addForceAtIndex(((i) + (_NX + 2)  *(j)), vx, vy);
 	}
 	
 	
@@ -422,108 +379,98 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 	}
 	
 	public void addColorAtCell(final int i, final int j, final float r, final float g, final float b) {
-		//	if(safeToRun()){
-		final int index = ((i) + (_NX + 2)  *(j));
-		rOld[index] += r;
+		addColorAtIndex(((i) + (_NX + 2)  *(j)), r, g, b);
+	}
+	
+	public void addForceAtIndex(final int index, final float vx, final float vy) {
+		uOld[index] += (int)(vx * VEL_ONE);
+		vOld[index] += (int)(vy * VEL_ONE);
+	}
+	
+	public void addColorAtIndex(final int index, final float r, final float g, final float b) {
+		rOld[index] += (int)(r * COLOR_ONE);
 		if(_isRGB) {
-			gOld[index] += g;
-			bOld[index] += b;
+			gOld[index] += (int)(g * COLOR_ONE);
+			bOld[index] += (int)(b * COLOR_ONE);
 		}
-		//		unlock();
-		//	}
 	}
-
 	
-	/*	
-		public void getInfoAtPos(float x, float y, PVector vel, PVector col) {
-			int i= (int)(x * (_NX+2));
-			int j= (int)(y * (_NY+2));
-			getInfoAtCell(i, j, vel, col);
-		}
-		
-		public void getInfoAtCell(int i, int j,  PVector vel, PVector col) {
-			if(i<0) i = 0; else if(i > _NX+1) i = _NX+1;
-			if(j<0) j = 0; else if(j > _NY+1) j = _NY+1;
-			getInfoAtCell(FLUID_IX(i, j), vel, col);
-		}
-		
-		
-		public void getInfoAtCell(int i,  PVector vel, PVector col) {
-			//	if(safeToRun()){
-			if(vel != null) vel.set(u[i] * _invNX, v[i] * _invNY, 0);
-			if(col != null) {
-				if(_isRGB) col.set(r[i], g[i], b[i]);
-				else col.set(r[i], r[i], r[i]);
-			}
-			//		unlock();
-			//	}
-		}
-		
-		
-		
-		public void addForceAtPos(float x, float y, float vx, float vy) {
-			int i = (int) (x * _NX + 1);
-			int j = (int) (y * _NY + 1);
-			if(i<0 || i>_NX+1 || j<0 || j>_NY+1) return;
-			addForceAtCell(i, j, vx, vy);
-		}
-		
-		public void addForceAtCell(int i, int j, float vx, float vy) {
-			//	if(safeToRun()){
-			int index = FLUID_IX(i, j);
-			uOld[index] += vx * _NX;
-			vOld[index] += vy * _NY;
-			//		unlock();
-			//	}
-		}
-		
-		
-		public void addColorAtPos(float x, float y, float r, float g, float b) {
-			int i = (int) (x * _NX + 1);
-			int j = (int) (y * _NY + 1);
-			if(i<0 || i>_NX+1 || j<0 || j>_NY+1) return;
-			addColorAtCell(i, j, r, g, b);	
-		}
-		
-		public void addColorAtCell(int i, int j, float r, float g, float b) {
-			//	if(safeToRun()){
-			int index = FLUID_IX(i, j);
-			rOld[index] += r;
-			if(_isRGB) {
-				gOld[index] += g;
-				bOld[index] += b;
-			}
-			//		unlock();
-			//	}
-		}
-		
-		public void randomizeColor() {
-			for(int i=0; i< getWidth(); i++) {
-				for(int j=0; j< getHeight(); j++) {
-					int index = FLUID_IX(i, j);
-					r[index] = rOld[index] = random(0, 1);
-					if(_isRGB) {
-						g[index] = gOld[index] = random(0, 1);
-						b[index] = bOld[index] = random(0, 1);
-					}
-				} 
-			}
+	/**
+	 * add force and dye around several normalized positions at once, each spread over a
+	 * gaussian footprint (see FluidSolver.addSplats)
+	 */
+	public void addSplats(final int count, final float[] xs, final float[] ys, final float[] dxs, final float[] dys,
+			final int[] colors, final float[] amounts, final float radius) {
+		_splats.add(this, _NX, _NY, count, xs, ys, dxs, dys, colors, amounts, radius);
+	}
+	
+	public void setVelocityAtIndex(final int index, final float vx, final float vy) {
+		u[index] = (int)(vx * VEL_ONE);
+		v[index] = (int)(vy * VEL_ONE);
+	}
+	
+	public void setColorAtIndex(final int index, final float r, final float g, final float b) {
+		this.r[index] = (int)(r * COLOR_ONE);
+		if(_isRGB) {
+			this.g[index] = (int)(g * COLOR_ONE);
+			this.b[index] = (int)(b * COLOR_ONE);
 		}
-	*/	
+	}
+	
+	/**
+	 * (INFO) red dye at the given cell, converted from COLOR_SHIFT fixed point
+	 */
+	public float getRed(final int index) {
+		return r[index] * INV_COLOR_ONE;
+	}
+	
+	/**
+	 * (INFO) green dye at the given cell (the red dye when not RGB)
+	 */
+	public float getGreen(final int index) {
+		return (_isRGB ? g[index] : r[index]) * INV_COLOR_ONE;
+	}
+	
+	/**
+	 * (INFO) blue dye at the given cell (the red dye when not RGB)
+	 */
+	public float getBlue(final int index) {
+		return (_isRGB ? b[index] : r[index]) * INV_COLOR_ONE;
+	}
+	
+	/**
+	 * (INFO) x velocity at the given cell, converted from VEL_SHIFT fixed point
+	 */
+	public float getVelocityX(final int index) {
+		return u[index] * INV_VEL_ONE;
+	}
+	
+	/**
+	 * (INFO) y velocity at the given cell, converted from VEL_SHIFT fixed point
+	 */
+	public float getVelocityY(final int index) {
+		return v[index] * INV_VEL_ONE;
+	}
+	
+	/**
+	 * convert a float coefficient to FP_SHIFT fixed point, rounding to nearest
+	 */
+	static int toFixed(final float value) {
+		return Math.round(value * FP_ONE);
+	}
+	
 			
 	/**
 	 * this must be called once every frame to move the solver one step forward 
 	 * i.e. in your sketch draw() method
 	*/
 	public void update() {
-//		ADD_SOURCE_UV();
 		addSourceUV();
 		
 		swapU();
 		swapV();
 		
-//		DIFFUSE_UV();
-		diffuseUV(0, visc_t, visc_b);
+		diffuseUV(0, visc);
 		
 		project(u, v, uOld, vOld);
 		
@@ -536,15 +483,12 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 		project(u, v, uOld, vOld);
 		
 		if(_isRGB) {
-			//ADD_SOURCE_RGB();
 			addSourceRGB();
 			swapRGB();
 			
-			//DIFFUSE_RGB();
-			diffuseRGB(0, visc_t, visc_b);
+			diffuseRGB(0, 0);
 			swapRGB();
 			
-			//ADVECT_RGB();
 			advectRGB(0, u, v);
 			
 			fadeRGB();
@@ -552,7 +496,7 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 			addSource(r, rOld);
 			swapR();
 			
-			diffuse(0, r, rOld, 1, 1);
+			diffuse(0, r, rOld, 0);
 			swapRGB();
 			
 			advect(0, r, rOld, u, v);	
@@ -562,13 +506,15 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 
 	
 	protected void fadeR() {
-		
+		final long holdAmount = _holdAmountQ;
 		for (int i = 0; i < _numCells; i++) {
 			// clear old values
 			uOld[i] = vOld[i] = 0; 
 			rOld[i] = 0;
+			// monochrome dye is 0...1 like the float solver
+			if(r[i] > COLOR_ONE) r[i] = COLOR_ONE;
 			// fade out old
-			r[i] = (r[i] * _fadeSpeed_t)/_fadeSpeed_b;
+			r[i] = (int)((r[i] * holdAmount + FP_HALF) >> FP_SHIFT);
 		}
 	}
 	
@@ -580,220 +526,254 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 		Arrays.fill(gOld, 0);
 		Arrays.fill(bOld, 0);
 		
+		final long holdAmount = _holdAmountQ;
 		for (int i = 0; i < _numCells; i++) {
-			r[i] = (r[i] * _fadeSpeed_t)/_fadeSpeed_b;
-			g[i] = (g[i] * _fadeSpeed_t)/_fadeSpeed_b;
-			b[i] = (b[i] * _fadeSpeed_t)/_fadeSpeed_b;
-			
+			r[i] = (int)((r[i] * holdAmount + FP_HALF) >> FP_SHIFT);
+			g[i] = (int)((g[i] * holdAmount + FP_HALF) >> FP_SHIFT);
+			b[i] = (int)((b[i] * holdAmount + FP_HALF) >> FP_SHIFT);
 		}
 	}
 	
 	
 	protected void addSourceUV() {
+		final long dt = _dtQ;
 		for (int i = 0; i < _numCells; i++) {
-			u[i] += (_dt_t * uOld[i])/_dt_b;
-			v[i] += (_dt_t * vOld[i])/_dt_b;
+			u[i] += (int)((dt * uOld[i] + FP_HALF) >> FP_SHIFT);
+			v[i] += (int)((dt * vOld[i] + FP_HALF) >> FP_SHIFT);
 		}
 	}
 	
 	protected void addSourceRGB() {
+		final long dt = _dtQ;
 		for (int i = 0; i < _numCells; i++) {
-			r[i] += (_dt_t * rOld[i])/_dt_b;
-			g[i] += (_dt_t * gOld[i])/_dt_b;
-			b[i] += (_dt_t * bOld[i])/_dt_b;		
+			r[i] += (int)((dt * rOld[i] + FP_HALF) >> FP_SHIFT);
+			g[i] += (int)((dt * gOld[i] + FP_HALF) >> FP_SHIFT);
+			b[i] += (int)((dt * bOld[i] + FP_HALF) >> FP_SHIFT);
 		}
 	}
 	
 	
 	
 	protected void addSource(final int[] x, final int[] x0) {
+		final long dt = _dtQ;
 		for (int i = 0; i < _numCells; i++) {
-			x[i] += (_dt_t * x0[i]) / _dt_b;
+			x[i] += (int)((dt * x0[i] + FP_HALF) >> FP_SHIFT);
 		}
 	}
 	
 	
+	/**
+	 * back trace each cell along the velocity and bilinearly sample d0 there.
+	 * Positions and interpolation weights are FP_SHIFT fixed point, each stage of the
+	 * interpolation is done in long and shifted back down so it can't overflow.
+	 */
 	protected void advect(final int b, final int[] _d, final int[] d0, final int[] du, final int[] dv) {
-		int i0, j0, i1, j1;
-		int x, y, s0, t0, s1, t1, dt0_t, dt0_b;
-		
-		dt0_t = _dt_t * _NX;
-		dt0_b = _dt_b;
-		
-		for (int i = 1; i <= _NX; i++) {
-			for (int j = 1; j <= _NY; j++) {
-				x = i - (dt0_t * du[((i) + (_NX + 2)  *(j))])/dt0_b;//
-				y = j - (dt0_t * dv[((i) + (_NX + 2)  *(j))])/dt0_b;
-				
-				if (x > _NX + 1) x = _NX; //eeeh?
-				if (x < 1)     x = 1;
-				
-				i0 = x;
-				i1 = i0 + 1;
+		final long dt0 = (long)_dtQ * _NX;
+		final long xMax = ((long)_NX << FP_SHIFT) + FP_HALF;
+		final long yMax = ((long)_NY << FP_SHIFT) + FP_HALF;
+		final int rowStride = _NX + 2;
+		
+		for (int j = 1; j <= _NY; j++) {
+			int index = 1 + rowStride * j;
+			for (int i = 1; i <= _NX; i++, index++) {
+				long x = ((long)i << FP_SHIFT) - ((dt0 * du[index]) >> VEL_SHIFT);
+				long y = ((long)j << FP_SHIFT) - ((dt0 * dv[index]) >> VEL_SHIFT);
 				
-				if (y > _NY + 1) y = _NY; //eeeeeh?
-				if (y < 1)     y = 1;
+				if (x > xMax) x = xMax;
+				if (x < FP_HALF) x = FP_HALF;
+				if (y > yMax) y = yMax;
+				if (y < FP_HALF) y = FP_HALF;
 				
-				j0 = y;
-				j1 = j0 + 1;
+				final int i0 = (int)(x >> FP_SHIFT);
+				final int j0 = (int)(y >> FP_SHIFT);
 				
-				s1 = x - i0;
-				s0 = 1 - s1;
-				t1 = y - j0;
-				t0 = 1 - t1;
-				
-				_d[((i) + (_NX + 2)  *(j))] = s0 * (t0 * d0[((i0) + (_NX + 2)  *(j0))] + t1 * d0[((i0) + (_NX + 2)  *(j1))])
-				+ s1 * (t0 * d0[((i1) + (_NX + 2)  *(j0))] + t1 * d0[((i1) + (_NX + 2)  *(j1))]);
+				final long s1 = x & (FP_ONE - 1);
+				final long s0 = FP_ONE - s1;
+				final long t1 = y & (FP_ONE - 1);
+				final long t0 = FP_ONE - t1;
 				
+				final int index00 = i0 + rowStride * j0;
+				final int index01 = index00 + rowStride;
+				_d[index] = lerp2(s0, s1, t0, t1, d0[index00], d0[index01], d0[index00 + 1], d0[index01 + 1]);
 			}
 		}
+		setBoundary(b, _d);
 	}
 	
 	protected void advectRGB(final int bound, final int[] du, final int[] dv) {
-		int i0, j0, i1, j1;
-		int x, y, s0, t0, s1, t1, dt0_t, dt0_b;
-		
-		dt0_t = _dt_t * _NX;
-		dt0_b = _dt_b;
-		
-		for (int i = 1; i <= _NX; i++) {
-			for (int j = 1; j <= _NY; j++) {
-				x = i - (dt0_t * du[((i) + (_NX + 2)  *(j))])/dt0_b;
-				y = j - (dt0_t * dv[((i) + (_NX + 2)  *(j))])/dt0_b;
-				
-				if (x > _NX + 1) x = _NX; //ehhh?
-				if (x < 1)     x = 1;
+		final long dt0 = (long)_dtQ * _NX;
+		final long xMax = ((long)_NX << FP_SHIFT) + FP_HALF;
+		final long yMax = ((long)_NY << FP_SHIFT) + FP_HALF;
+		final int rowStride = _NX + 2;
+		
+		for (int j = 1; j <= _NY; j++) {
+			int index = 1 + rowStride * j;
+			for (int i = 1; i <= _NX; i++, index++) {
+				long x = ((long)i << FP_SHIFT) - ((dt0 * du[index]) >> VEL_SHIFT);
+				long y = ((long)j << FP_SHIFT) - ((dt0 * dv[index]) >> VEL_SHIFT);
 				
-				i0 = x;
-				i1 = i0 + 1;
+				if (x > xMax) x = xMax;
+				if (x < FP_HALF) x = FP_HALF;
+				if (y > yMax) y = yMax;
+				if (y < FP_HALF) y = FP_HALF;
 				
-				if (y > _NY + 1) y = _NY; //ehhh?
-				if (y < 1)     y = 1;
+				final int i0 = (int)(x >> FP_SHIFT);
+				final int j0 = (int)(y >> FP_SHIFT);
 				
-				j0 = y;
-				j1 = j0 + 1;
+				final long s1 = x & (FP_ONE - 1);
+				final long s0 = FP_ONE - s1;
+				final long t1 = y & (FP_ONE - 1);
+				final long t0 = FP_ONE - t1;
 				
-				s1 = x - i0;
-				s0 = 1 - s1;
-				t1 = y - j0;
-				t0 = 1 - t1;
-				
-				r[((i) + (_NX + 2)  *(j))] = s0 * (t0 * rOld[((i0) + (_NX + 2)  *(j0))] + t1 * rOld[((i0) + (_NX + 2)  *(j1))])	+ s1 * (t0 * rOld[((i1) + (_NX + 2)  *(j0))] + t1 * rOld[((i1) + (_NX + 2)  *(j1))]);
-				g[((i) + (_NX + 2)  *(j))] = s0 * (t0 * gOld[((i0) + (_NX + 2)  *(j0))] + t1 * gOld[((i0) + (_NX + 2)  *(j1))])	+ s1 * (t0 * gOld[((i1) + (_NX + 2)  *(j0))] + t1 * gOld[((i1) + (_NX + 2)  *(j1))]);			
-				b[((i) + (_NX + 2)  *(j))] = s0 * (t0 * bOld[((i0) + (_NX + 2)  *(j0))] + t1 * bOld[((i0) + (_NX + 2)  *(j1))])	+ s1 * (t0 * bOld[((i1) + (_NX + 2)  *(j0))] + t1 * bOld[((i1) + (_NX + 2)  *(j1))]);				
+				final int index00 = i0 + rowStride * j0;
+				final int index01 = index00 + rowStride;
+				r[index] = lerp2(s0, s1, t0, t1, rOld[index00], rOld[index01], rOld[index00 + 1], rOld[index01 + 1]);
+				g[index] = lerp2(s0, s1, t0, t1, gOld[index00], gOld[index01], gOld[index00 + 1], gOld[index01 + 1]);
+				b[index] = lerp2(s0, s1, t0, t1, bOld[index00], bOld[index01], bOld[index00 + 1], bOld[index01 + 1]);
 			}
 		}
 		setBoundaryRGB(bound);
 	}
 	
+	/**
+	 * bilinear interpolation with FP_SHIFT weights (s0 + s1 == t0 + t1 == FP_ONE).
+	 * Every intermediate fits in a long for any int input.
+	 */
+	private static int lerp2(final long s0, final long s1, final long t0, final long t1, final int d00, final int d01, final int d10, final int d11) {
+		final long col0 = (t0 * d00 + t1 * d01 + FP_HALF) >> FP_SHIFT;
+		final long col1 = (t0 * d10 + t1 * d11 + FP_HALF) >> FP_SHIFT;
+		return (int)((s0 * col0 + s1 * col1 + FP_HALF) >> FP_SHIFT);
+	}
+	
 	
 	
-	protected void diffuse(final int b, final int[] c, final int[] c0, final int _diff_t, final int _diff_b) {
-		final int a = (_dt_t * _diff_t * _NX * _NY)/(_dt_b*_diff_b);
-		Log.d("FluidSimINT", "diffuse, a:"+a);
-		linearSolver(b, c, c0, a, 1 + 4 * a);
+	protected void diffuse(final int b, final int[] c, final int[] c0, final float _diff) {
+		final float a = _dt * _diff * _NX * _NY;
+		linearSolver(b, c, c0, toFixed(a), toFixed(1.0f / (1.0f + 4 * a)));
 	}
 	
-	protected void diffuseRGB(final int b, final int _diff_t, final int _diff_b) {
-		final int a_t = (_dt_t * _diff_t * _NX * _NY);
-		final int a_b = (_dt_b * _diff_b);
-		Log.d("FluidSimINT", "diffuseRGB, a_t:"+a_t);
-		Log.d("FluidSimINT", "diffuseRGB, a_b:"+a_b);
-		linearSolverRGB(b, a_t, a_b + 4 * a_t, a_b);
+	protected void diffuseRGB(final int b, final float _diff) {
+		final float a = _dt * _diff * _NX * _NY;
+		linearSolverRGB(b, toFixed(a), toFixed(1.0f / (1.0f + 4 * a)));
 	}
 	
-	protected void diffuseUV(final int b, final int _diff_t, final int _diff_b) {
-		final int a_t = (_dt_t * _diff_t * _NX * _NY);
-		final int a_b = (_dt_b*_diff_b);
-		Log.d("FluidSimINT", "diffuseUV, a_t:"+a_t);
-		Log.d("FluidSimINT", "diffuseUV, a_b:"+a_b);
-		linearSolverUV(b, a_t, a_b + 4 * a_t, a_b);
+	protected void diffuseUV(final int b, final float _diff) {
+		final float a = _dt * _diff * _NX * _NY;
+		linearSolverUV(b, toFixed(a), toFixed(1.0f / (1.0f + 4 * a)));
 	}
 	
 	
+	/**
+	 * Same as the float solver, but the pressure is kept multiplied by _NX. That takes the
+	 * -0.5 / _NX out of the divergence and the 0.5 * _NX out of the gradient, so the small
+	 * divergences don't get lost to rounding and the gradient doesn't magnify the rounding error.
+	 */
 	protected void project(final int[] x, final int[] y, final int[] p, final int[] div)  {
-		for (int i = 1; i <= _NX; i++) {
-			for (int j = 1; j <= _NY; j++) {
-				div[((i) + (_NX + 2)  *(j))] = (x[((i+1) + (_NX + 2)  *(j))] - x[((i-1) + (_NX + 2)  *(j))] + y[((i) + (_NX + 2)  *(j+1))] - y[((i) + (_NX + 2)  *(j-1))])
-				/ (_NX * -2);
-				p[((i) + (_NX + 2)  *(j))] = 0;
+		final int rowStride = _NX + 2;
+		for (int j = 1; j <= _NY; j++) {
+			int index = 1 + rowStride * j;
+			for (int i = 1; i <= _NX; i++, index++) {
+				div[index] = -(x[index + 1] - x[index - 1] + y[index + rowStride] - y[index - rowStride]) >> 1;
+				p[index] = 0;
 			}
 		}
 		
+		setBoundary(0, div);
+		setBoundary(0, p);
 		
-		linearSolver(0, p, div, 1, 4);
+		linearSolver(0, p, div, FP_ONE, FP_ONE / 4);
 		
-		for (int i = 1; i <= _NX; i++) {
-			for (int j = 1; j <= _NY; j++) {
-				x[((i) + (_NX + 2)  *(j))] -= (_NX * (p[((i+1) + (_NX + 2)  *(j))] - p[((i-1) + (_NX + 2)  *(j))])/2);
-				y[((i) + (_NX + 2)  *(j))] -= (_NX * (p[((i) + (_NX + 2)  *(j+1))] - p[((i) + (_NX + 2)  *(j-1))])/2);
+		for (int j = 1; j <= _NY; j++) {
+			int index = 1 + rowStride * j;
+			for (int i = 1; i <= _NX; i++, index++) {
+				x[index] -= (p[index + 1] - p[index - 1]) >> 1;
+				y[index] -= (p[index + rowStride] - p[index - rowStride]) >> 1;
 			}
 		}
 		
+		setBoundary(1, x);
+		setBoundary(2, y);
 	}
 	
 	
 	
-	protected void linearSolver(final int b, final int[] x, final int[] x0, final int a, final int c) {
+	/**
+	 * Gauss-Seidel relaxation of x = (a * neighbours + x0) / c
+	 * @param a FP_SHIFT fixed point
+	 * @param invC 1 / c in FP_SHIFT fixed point
+	 */
+	protected void linearSolver(final int b, final int[] x, final int[] x0, final int a, final int invC) {
+		final int rowStride = _NX + 2;
 		for (int k = 0; k < _solverIterations; k++) {
-			for (int i = 1; i <= _NX; i++) {
-				for (int j = 1; j <= _NY; j++) {
-					x[((i) + (_NX + 2)  *(j))] = (a * ( x[((i-1) + (_NX + 2)  *(j))] + x[((i+1) + (_NX + 2)  *(j))]  +   x[((i) + (_NX + 2)  *(j-1))] + x[((i) + (_NX + 2)  *(j+1))])  +  x0[((i) + (_NX + 2)  *(j))]) / c;
+			for (int j = 1; j <= _NY; j++) {
+				int index = 1 + rowStride * j;
+				for (int i = 1; i <= _NX; i++, index++) {
+					x[index] = relax(a, invC, x[index - 1], x[index + 1], x[index - rowStride], x[index + rowStride], x0[index]);
 				}
 			}
+			setBoundary(b, x);
 		}
 	}
 	
-	//#define LINEAR_SOLVE_EQ	(x, x0)			(a * ( x[] + x[]  +  x[] + x[])  +  x0[]) / c;
-	
-	protected void linearSolverRGB(final int bound, final int a_t, final int c, final int a_b) {
+	protected void linearSolverRGB(final int bound, final int a, final int invC) {
 		int index1, index2, index3, index4, index5;
-		for (int k = 0; k < _solverIterations; k++) {		// MEMO
-			for (int i = 1; i <= _NX; i++) {
-				for (int j = 1; j <= _NY; j++) {
-					index5 = ((i) + (_NX + 2)  *(j));
-					index1 = index5 - 1;//FLUID_IX(i-1, j);
-					index2 = index5 + 1;//FLUID_IX(i+1, j);
-					index3 = index5 - (_NX + 2);//FLUID_IX(i, j-1);
-					index4 = index5 + (_NX + 2);//FLUID_IX(i, j+1);
+		final int rowStride = _NX + 2;
+		for (int k = 0; k < _solverIterations; k++) {
+			for (int j = 1; j <= _NY; j++) {
+				index5 = 1 + rowStride * j;
+				for (int i = 1; i <= _NX; i++, index5++) {
+					index1 = index5 - 1;
+					index2 = index5 + 1;
+					index3 = index5 - rowStride;
+					index4 = index5 + rowStride;
 					
-					r[index5] = (a_t * ( r[index1] + r[index2]  +  r[index3] + r[index4])  +  rOld[index5]) / (c*a_b);
-					g[index5] = (a_t * ( g[index1] + g[index2]  +  g[index3] + g[index4])  +  gOld[index5]) / (c*a_b);
-					b[index5] = (a_t * ( b[index1] + b[index2]  +  b[index3] + b[index4])  +  bOld[index5]) / (c*a_b);				
-					//				x[FLUID_IX(i, j)] = (a * ( x[FLUID_IX(i-1, j)] + x[FLUID_IX(i+1, j)]  +  x[FLUID_IX(i, j-1)] + x[FLUID_IX(i, j+1)])  +  x0[FLUID_IX(i, j)]) / c;
+					r[index5] = relax(a, invC, r[index1], r[index2], r[index3], r[index4], rOld[index5]);
+					g[index5] = relax(a, invC, g[index1], g[index2], g[index3], g[index4], gOld[index5]);
+					b[index5] = relax(a, invC, b[index1], b[index2], b[index3], b[index4], bOld[index5]);
 				}
 			}
 			setBoundaryRGB(bound);
 		}
 	}
 	
-	protected void linearSolverUV(final int bound, final int a_t, final int c, final int a_b) {
+	protected void linearSolverUV(final int bound, final int a, final int invC) {
 		int index1, index2, index3, index4, index5;
-		for (int k = 0; k < _solverIterations; k++) {		// MEMO
-			for (int i = 1; i <= _NX; i++) {
-				for (int j = 1; j <= _NY; j++) {
-					index5 = ((i) + (_NX + 2)  *(j));
-					index1 = index5 - 1;//FLUID_IX(i-1, j);
-					index2 = index5 + 1;//FLUID_IX(i+1, j);
-					index3 = index5 - (_NX + 2);//FLUID_IX(i, j-1);
-					index4 = index5 + (_NX + 2);//FLUID_IX(i, j+1);
+		final int rowStride = _NX + 2;
+		for (int k = 0; k < _solverIterations; k++) {
+			for (int j = 1; j <= _NY; j++) {
+				index5 = 1 + rowStride * j;
+				for (int i = 1; i <= _NX; i++, index5++) {
+					index1 = index5 - 1;
+					index2 = index5 + 1;
+					index3 = index5 - rowStride;
+					index4 = index5 + rowStride;
 					
-					u[index5] = (a_t * ( u[index1] + u[index2]  +  u[index3] + u[index4])  +  uOld[index5]) / (c*a_b);
-					v[index5] = (a_t * ( v[index1] + v[index2]  +  v[index3] + v[index4])  +  vOld[index5]) / (c*a_b);
-					//				x[FLUID_IX(i, j)] = (a * ( x[FLUID_IX(i-1, j)] + x[FLUID_IX(i+1, j)]  +  x[FLUID_IX(i, j-1)] + x[FLUID_IX(i, j+1)])  +  x0[FLUID_IX(i, j)]) / c;
+					u[index5] = relax(a, invC, u[index1], u[index2], u[index3], u[index4], uOld[index5]);
+					v[index5] = relax(a, invC, v[index1], v[index2], v[index3], v[index4], vOld[index5]);
 				}
 			}
 			setBoundaryRGB(bound);
 		}
 	}
 	
+	/**
+	 * one Gauss-Seidel update, (a * (x1 + x2 + x3 + x4) + x0) * invC, summed in long
+	 */
+	private static int relax(final long a, final long invC, final int x1, final int x2, final int x3, final int x4, final int x0) {
+		final long sum = (long)x1 + x2 + x3 + x4;
+		final long rhs = ((a * sum + FP_HALF) >> FP_SHIFT) + x0;
+		return (int)((rhs * invC + FP_HALF) >> FP_SHIFT);
+	}
 	
 	
-	protected void setBoundary(final int b, final float[] x) {
+	
+	protected void setBoundary(final int b, final int[] x) {
+		// left open, like MSAFluidSolver2D
 	}
 	
 
 	protected void setBoundaryRGB(final int bound) {
+		// left open, like MSAFluidSolver2D
 	}
 	
 	public int FLUID_IX(final int i, final int j) {
@@ -843,22 +823,20 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 	
 	final protected int width;
 	final protected int height;
-	final protected int invWidth;
-	final protected int invHeight;
 	
 	final protected int		_NX, _NY, _numCells;
-	protected int	_dt_t;
-	protected int	_dt_b;
+	protected float	_dt;
+	protected int	_dtQ;				// _dt in FP_SHIFT fixed point
 	protected boolean	_isInited;
+	protected boolean	_isReleased;
 	protected boolean	_isRGB;				// for monochrome, only update r
 	protected int		_solverIterations;
 	
-	protected int	visc_t;
-	protected int	visc_b;
-	protected int	_fadeSpeed_t;
-	protected int	_fadeSpeed_b;
+	protected float	visc;
+	protected float	_fadeSpeed;
+	protected int	_holdAmountQ;		// 1 - _fadeSpeed in FP_SHIFT fixed point
 	
 	protected int[] _tmp;
+	private final FluidSplats _splats = new FluidSplats();
 	
 }
-
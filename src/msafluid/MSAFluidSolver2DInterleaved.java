@@ -0,0 +1,299 @@
+package msafluid;
+
+import java.util.Arrays;
+
+/**
+ * MSAFluidSolver2D that keeps the RGB dye interleaved in one array, rgb[3 * index + channel],
+ * instead of the separate r, g, b arrays. The RGB solve and advection read all three channels of
+ * a cell together, so they pull from one cache line instead of three (six with the old copies).
+ *
+ * In RGB mode the dye lives in rgb / rgbOld and the r, g, b arrays are not used, read it
+ * through getRed / getGreen / getBlue or straight from rgb. Monochrome mode still uses r.
+ * Velocities are laid out as in MSAFluidSolver2D.
+ */
+public class MSAFluidSolver2DInterleaved extends MSAFluidSolver2D {
+	public final float[]	rgb;
+	public final float[]	rgbOld;
+
+	private final float[]	_tmpRGB;
+
+	/**
+	 * Constructor to initialize solver and setup number of cells
+	 * @param NX number of cells in X direction
+	 * @param NY number of cells in Y direction
+	 */
+	public MSAFluidSolver2DInterleaved(final int NX, final int NY) {
+		super(NX, NY);
+		rgb = FluidArrayPool.takeFloats(3 * _numCells);
+		rgbOld = FluidArrayPool.takeFloats(3 * _numCells);
+		_tmpRGB = FluidArrayPool.takeFloats(3 * _numCells);
+	}
+
+	@Override
+	public void release() {
+		if (!_isReleased) FluidArrayPool.giveFloats(rgb, rgbOld, _tmpRGB);
+		super.release();
+	}
+
+
+	@Override
+	public void reset() {
+		super.reset();
+		// reset() is called from the super constructor, before the interleaved arrays exist
+		if (rgb == null) return;
+		Arrays.fill(rgb, 0);
+		Arrays.fill(rgbOld, 0);
+	}
+
+	@Override
+	public void randomizeColor() {
+		if (!_isRGB) { super.randomizeColor(); return; }
+		_isIdle = false;
+		for (int c = 0; c < rgb.length; c++) {
+			rgb[c] = rgbOld[c] = (float)Math.random();
+		}
+	}
+
+	@Override
+	public void addColorAtCell(final int i, final int j, final float r, final float g, final float b) {
+		addColorAtIndex(((i) + (_NX + 2)  *(j)), r, g, b);
+	}
+
+	@Override
+	public void addColorAtIndex(final int index, final float r, final float g, final float b) {
+		markSource(index);
+		if (!_isRGB) { rOld[index] += r; return; }
+		final int c = 3 * index;
+		rgbOld[c] += r;
+		rgbOld[c + 1] += g;
+		rgbOld[c + 2] += b;
+	}
+
+	@Override
+	public void setColorAtIndex(final int index, final float r, final float g, final float b) {
+		if (!_isRGB) { super.setColorAtIndex(index, r, g, b); return; }
+		markSource(index);
+		final int c = 3 * index;
+		rgb[c] = r;
+		rgb[c + 1] = g;
+		rgb[c + 2] = b;
+	}
+
+	@Override
+	public float getRed(final int index) {
+		return _isRGB ? rgb[3 * index] : r[index];
+	}
+
+	@Override
+	public float getGreen(final int index) {
+		return _isRGB ? rgb[3 * index + 1] : r[index];
+	}
+
+	@Override
+	public float getBlue(final int index) {
+		return _isRGB ? rgb[3 * index + 2] : r[index];
+	}
+
+
+	@Override
+	protected boolean isDyeQuiescent() {
+		if (!_isRGB) return super.isDyeQuiescent();
+		return isWithin(rgb, -Float.MAX_VALUE, _idleDensity);
+	}
+
+	@Override
+	protected void clearCells(final int from, final int to) {
+		super.clearCells(from, to);
+		Arrays.fill(rgb, 3 * from, 3 * to, 0);
+		Arrays.fill(rgbOld, 3 * from, 3 * to, 0);
+	}
+
+	@Override
+	protected void addSourceRGB() {
+		for (int c = rgb.length - 1; c >= 0; c--) {
+			rgb[c] += _dt * rgbOld[c];
+		}
+	}
+
+	@Override
+	protected void swapRGB() {
+		// the monochrome path of update() swaps through here too
+		if (!_isRGB) { swapR(); return; }
+		System.arraycopy(rgb, 0, _tmpRGB, 0, rgb.length);
+		System.arraycopy(rgbOld, 0, rgb, 0, rgb.length);
+		System.arraycopy(_tmpRGB, 0, rgbOld, 0, rgb.length);
+	}
+
+	@Override
+	protected void setBoundaryRGB(final int bound) {
+		if (_boundaryType == BOUNDARY_NONE) return;
+		for (int channel = 0; channel < 3; channel++) {
+			setBoundary(bound, rgb, 3, channel);
+		}
+	}
+
+	@Override
+	protected void addSourceCopyRGB() {
+		final int rowStride = _NX + 2;
+		for (int j = 0; j < _NY + 2; j++) {
+			final boolean isBorderRow = (j == 0 || j == _NY + 1);
+			int c = 3 * rowStride * j;
+			for (int i = 0; i < rowStride; i++, c += 3) {
+				final float rSum = rgb[c] + _dt * rgbOld[c];
+				final float gSum = rgb[c + 1] + _dt * rgbOld[c + 1];
+				final float bSum = rgb[c + 2] + _dt * rgbOld[c + 2];
+				rgb[c] = rSum;
+				rgb[c + 1] = gSum;
+				rgb[c + 2] = bSum;
+				if(isBorderRow || i == 0 || i == _NX + 1) continue;
+				rgbOld[c] = rSum;
+				rgbOld[c + 1] = gSum;
+				rgbOld[c + 2] = bSum;
+			}
+		}
+		if (_boundaryType != BOUNDARY_NONE) {
+			for (int channel = 0; channel < 3; channel++) {
+				setBoundary(0, rgbOld, 3, channel);
+			}
+		}
+	}
+
+	@Override
+	protected void fadeRGB() {
+		final float holdAmount = 1 - _fadeSpeed;
+		Arrays.fill(uOld, 0);
+		Arrays.fill(vOld, 0);
+		Arrays.fill(rgbOld, 0);
+		for (int c = rgb.length - 1; c >= 0; c--) {
+			rgb[c] *= holdAmount;
+		}
+	}
+
+	@Override
+	protected void fadeClearRGB() {
+		final float holdAmount = 1 - _fadeSpeed;
+		float totalDensity = 0;
+		float totalDensitySq = 0;
+		float totalSpeed = 0;
+		for (int i = _numCells-1, c = 3 * i; i >= 0 ; i--, c -= 3) {
+			uOld[i] = vOld[i] = 0;
+			rgbOld[c] = rgbOld[c + 1] = rgbOld[c + 2] = 0;
+
+			totalSpeed += u[i] * u[i] + v[i] * v[i];
+
+			final float density = Math.max(rgb[c], Math.max(rgb[c + 1], rgb[c + 2]));
+			totalDensity += density;
+			totalDensitySq += density * density;
+
+			rgb[c] *= holdAmount;
+			rgb[c + 1] *= holdAmount;
+			rgb[c + 2] *= holdAmount;
+		}
+		setStatistics(totalDensity, totalDensitySq, totalSpeed);
+	}
+
+	@Override
+	protected void advectRGB(final int bound, final float[] du, final float[] dv) {
+		int i0, j0;
+		float x, y, s0, t0, s1, t1;
+		final float dt0 = _dt * _NX;
+		final int rowStride = _NX + 2;
+		final int cRowStride = 3 * rowStride;
+		for (int j = 1; j <= _NY; j++) {
+			final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+			for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+				int index = runs[run] + rowStride * j;
+				for (int i = runs[run], iEnd = runs[run + 1]; i < iEnd; i++, index++) {
+					x = i - dt0 * du[index];
+					y = j - dt0 * dv[index];
+
+					if (x > _NX + 0.5) x = _NX + 0.5f;
+					if (x < 0.5)     x = 0.5f;
+
+					i0 = (int) x;
+
+					if (y > _NY + 0.5) y = _NY + 0.5f;
+					if (y < 0.5)     y = 0.5f;
+
+					j0 = (int) y;
+
+					s1 = x - i0;
+					s0 = 1 - s1;
+					t1 = y - j0;
+					t0 = 1 - t1;
+
+					final int c = 3 * index;
+					final int c00 = 3 * (i0 + rowStride * j0);
+					final int c01 = c00 + cRowStride;
+					rgb[c] = s0 * (t0 * rgbOld[c00] + t1 * rgbOld[c01])	+ s1 * (t0 * rgbOld[c00 + 3] + t1 * rgbOld[c01 + 3]);
+					rgb[c + 1] = s0 * (t0 * rgbOld[c00 + 1] + t1 * rgbOld[c01 + 1])	+ s1 * (t0 * rgbOld[c00 + 4] + t1 * rgbOld[c01 + 4]);
+					rgb[c + 2] = s0 * (t0 * rgbOld[c00 + 2] + t1 * rgbOld[c01 + 2])	+ s1 * (t0 * rgbOld[c00 + 5] + t1 * rgbOld[c01 + 5]);
+				}
+			}
+		}
+		if(_advectionType == ADVECTION_MACCORMACK) {
+			for (int channel = 0; channel < 3; channel++) {
+				correctAdvection(rgb, rgbOld, du, dv, _tmpRGB, 3, channel);
+			}
+		}
+		setBoundaryRGB(bound);
+	}
+
+	@Override
+	protected void linearSolverRGB(final int bound, final float a, final float c) {
+		final int cRowStride = 3 * (_NX + 2);
+		for (int k = 0; k < _solverIterations; k++) {
+			if(_solverType == SOLVER_RED_BLACK) {
+				linearSolverRGBRedBlack(a, c, _omega, 0);
+				linearSolverRGBRedBlack(a, c, _omega, 1);
+			} else {
+				for (int j = 1; j <= _NY; j++) {
+					final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+					for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+						for (int c5 = 3 * runs[run] + cRowStride * j, last = 3 * runs[run + 1] + cRowStride * j; c5 < last; c5 += 3) {
+							rgb[c5] = (a * ( rgb[c5 - 3] + rgb[c5 + 3]  +  rgb[c5 - cRowStride] + rgb[c5 + cRowStride])  +  rgbOld[c5]) / c;
+							rgb[c5 + 1] = (a * ( rgb[c5 - 2] + rgb[c5 + 4]  +  rgb[c5 + 1 - cRowStride] + rgb[c5 + 1 + cRowStride])  +  rgbOld[c5 + 1]) / c;
+							rgb[c5 + 2] = (a * ( rgb[c5 - 1] + rgb[c5 + 5]  +  rgb[c5 + 2 - cRowStride] + rgb[c5 + 2 + cRowStride])  +  rgbOld[c5 + 2]) / c;
+						}
+					}
+				}
+			}
+			setBoundaryRGB(bound);
+			if(_residualListener != null) _residualListener.onResidual(_solverPass, k, residualRGB(a, c));
+		}
+	}
+
+	private void linearSolverRGBRedBlack(final float a, final float c, final float omega, final int parity) {
+		final int cRowStride = 3 * (_NX + 2);
+		for (int j = 1; j <= _NY; j++) {
+			final int[] runs = _tileRuns[(j - 1) >> TILE_SHIFT];
+			for (int run = 0, runCount = _tileRunCount[(j - 1) >> TILE_SHIFT]; run < runCount; run += 2) {
+				final int iStart = runs[run] + (((runs[run] + j) & 1) ^ parity);
+				for (int c5 = 3 * iStart + cRowStride * j, last = 3 * runs[run + 1] + cRowStride * j; c5 < last; c5 += 6) {
+					rgb[c5] += omega * ((a * ( rgb[c5 - 3] + rgb[c5 + 3]  +  rgb[c5 - cRowStride] + rgb[c5 + cRowStride])  +  rgbOld[c5]) / c - rgb[c5]);
+					rgb[c5 + 1] += omega * ((a * ( rgb[c5 - 2] + rgb[c5 + 4]  +  rgb[c5 + 1 - cRowStride] + rgb[c5 + 1 + cRowStride])  +  rgbOld[c5 + 1]) / c - rgb[c5 + 1]);
+					rgb[c5 + 2] += omega * ((a * ( rgb[c5 - 1] + rgb[c5 + 5]  +  rgb[c5 + 2 - cRowStride] + rgb[c5 + 2 + cRowStride])  +  rgbOld[c5 + 2]) / c - rgb[c5 + 2]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * sum of the root mean square residuals of the three channels, like the planar solver reports
+	 */
+	private float residualRGB(final float a, final float c) {
+		final int cRowStride = 3 * (_NX + 2);
+		final double[] sum = new double[3];
+		for (int j = 1; j <= _NY; j++) {
+			for (int c5 = 3 + cRowStride * j, last = 3 * _NX + cRowStride * j; c5 <= last; c5 += 3) {
+				for (int ch = 0; ch < 3; ch++) {
+					final int n = c5 + ch;
+					final float res = a * ( rgb[n - 3] + rgb[n + 3]  +   rgb[n - cRowStride] + rgb[n + cRowStride])  +  rgbOld[n] - c * rgb[n];
+					sum[ch] += res * res;
+				}
+			}
+		}
+		final int cells = _NX * _NY;
+		return (float)(Math.sqrt(sum[0] / cells) + Math.sqrt(sum[1] / cells) + Math.sqrt(sum[2] / cells));
+	}
+}
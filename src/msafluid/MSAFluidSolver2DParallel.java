@@ -0,0 +1,309 @@
+package msafluid;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+import android.util.Log;
+
+/**
+ * MSAFluidSolver2D that splits the grid into horizontal bands of rows and runs the
+ * source, advection, projection and linear solver passes on a small set of worker threads.
+ *
+ * The Gauss-Seidel passes are always done in red-black order (with the setSOR factor) so
+ * that bands never write a cell another band is reading. That ordering converges a little
+ * differently from the serial solver, so the output is close to but not bitwise equal to
+ * MSAFluidSolver2D.
+ *
+ * Grids narrower than PARALLEL_MIN_NX (e.g. the 40 cell quality level) don't gain anything
+ * from the hand-off and just use the serial kernels.
+ *
+ * If a band throws, the exception comes out of update() on the calling thread as it would from
+ * the serial kernels, and the solver goes on with the serial kernels.
+ *
+ * Call shutdown() when you are done with the solver to stop the worker threads.
+ */
+public class MSAFluidSolver2DParallel extends MSAFluidSolver2D {
+	public final static int PARALLEL_MIN_NX = 64;
+
+	private final static int KERNEL_ADD_SOURCE_UV		= 0;
+	private final static int KERNEL_ADD_SOURCE_RGB		= 1;
+	private final static int KERNEL_ADVECT				= 2;
+	private final static int KERNEL_ADVECT_RGB			= 3;
+	private final static int KERNEL_DIVERGENCE			= 4;
+	private final static int KERNEL_GRADIENT			= 5;
+	private final static int KERNEL_LINEAR_SOLVE		= 6;
+	private final static int KERNEL_LINEAR_SOLVE_RGB	= 7;
+	private final static int KERNEL_LINEAR_SOLVE_UV		= 8;
+
+	private final int _numBands;
+	private final CyclicBarrier _start;
+	private final CyclicBarrier _done;
+	private final Thread[] _workers;
+	private volatile boolean _isShutdown;
+	/** thrown by a worker's band, handed to the calling thread at the done barrier **/
+	private volatile Throwable _bandFailure;
+
+	/* arguments of the kernel currently being run, published to the workers by the start barrier */
+	private int _kernel;
+	private float[] _kx, _ky, _kp, _kd;
+	private float _ka, _kc;
+	private int _kParity;
+
+	/**
+	 * Constructor to initialize solver with one band per available processor
+	 * @param NX number of cells in X direction
+	 * @param NY number of cells in Y direction
+	 */
+	public MSAFluidSolver2DParallel(final int NX, final int NY) {
+		this(NX, NY, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor to initialize solver and setup number of cells
+	 * @param NX number of cells in X direction
+	 * @param NY number of cells in Y direction
+	 * @param threads number of threads (bands) to use, including the calling thread
+	 */
+	public MSAFluidSolver2DParallel(final int NX, final int NY, final int threads) {
+		super(NX, NY);
+		_numBands = (NX < PARALLEL_MIN_NX) ? 1 : Math.max(1, Math.min(threads, NY));
+		if (_numBands > 1) {
+			_start = new CyclicBarrier(_numBands);
+			_done = new CyclicBarrier(_numBands);
+			_workers = new Thread[_numBands - 1];
+			for (int t = 0; t < _workers.length; t++) {
+				final int band = t + 1;
+				_workers[t] = new Thread(new Runnable() {
+					public void run() {
+						workerLoop(band);
+					}
+				}, "MSAFluidSolver-" + band);
+				_workers[t].setDaemon(true);
+				_workers[t].start();
+			}
+		} else {
+			_start = null;
+			_done = null;
+			_workers = null;
+		}
+	}
+
+	/**
+	 * (INFO) number of bands the grid is split into (1 means the serial kernels are used)
+	 */
+	public int getNumBands() {
+		return _numBands;
+	}
+
+	/**
+	 * stop the worker threads. The solver falls back to the serial kernels afterwards.
+	 */
+	public void shutdown() {
+		if (_workers == null || _isShutdown) return;
+		_isShutdown = true;
+		for (final Thread worker : _workers) {
+			worker.interrupt();
+		}
+	}
+
+	private boolean isParallel() {
+		return _numBands > 1 && !_isShutdown;
+	}
+
+	@Override
+	protected boolean isDyeCopyExact() {
+		// the bands always sweep red-black
+		return !isParallel() && super.isDyeCopyExact();
+	}
+
+
+	@Override
+	protected void addSourceUV() {
+		if (!isParallel()) { super.addSourceUV(); return; }
+		runBands(KERNEL_ADD_SOURCE_UV);
+	}
+
+	@Override
+	protected void addSourceRGB() {
+		if (!isParallel()) { super.addSourceRGB(); return; }
+		runBands(KERNEL_ADD_SOURCE_RGB);
+	}
+
+	@Override
+	protected void advect(final int b, final float[] _d, final float[] d0, final float[] du, final float[] dv) {
+		if (!isParallel()) { super.advect(b, _d, d0, du, dv); return; }
+		_kd = _d; _kp = d0; _kx = du; _ky = dv;
+		runBands(KERNEL_ADVECT);
+		// the correction runs on this thread
+		if (_advectionType == ADVECTION_MACCORMACK) correctAdvection(_d, d0, du, dv, _tmp, 1, 0);
+		setBoundary(b, _d);
+	}
+
+	@Override
+	protected void advectRGB(final int bound, final float[] du, final float[] dv) {
+		if (!isParallel()) { super.advectRGB(bound, du, dv); return; }
+		_kx = du; _ky = dv;
+		runBands(KERNEL_ADVECT_RGB);
+		if (_advectionType == ADVECTION_MACCORMACK) {
+			correctAdvection(r, rOld, du, dv, _tmp, 1, 0);
+			correctAdvection(g, gOld, du, dv, _tmp, 1, 0);
+			correctAdvection(b, bOld, du, dv, _tmp, 1, 0);
+		}
+		setBoundaryRGB(bound);
+	}
+
+	@Override
+	protected void project(final float[] x, final float[] y, final float[] p, final float[] div)  {
+		if (!isParallel()) { super.project(x, y, p, div); return; }
+		_kx = x; _ky = y; _kp = p; _kd = div;
+		runBands(KERNEL_DIVERGENCE);
+
+		setBoundary(0, div);
+		setBoundary(0, p);
+
+		solvePressure(p, div);
+
+		_kx = x; _ky = y; _kp = p;
+		runBands(KERNEL_GRADIENT);
+
+		setBoundary(1, x);
+		setBoundary(2, y);
+	}
+
+	@Override
+	protected void linearSolver(final int b, final float[] x, final float[] x0, final float a, final float c) {
+		if (!isParallel()) { super.linearSolver(b, x, x0, a, c); return; }
+		_kx = x; _kd = x0; _ka = a; _kc = c;
+		for (int k = 0; k < _solverIterations; k++) {
+			_kParity = 0;
+			runBands(KERNEL_LINEAR_SOLVE);
+			_kParity = 1;
+			runBands(KERNEL_LINEAR_SOLVE);
+			setBoundary(b, x);
+			if(_residualListener != null) _residualListener.onResidual(_solverPass, k, residual(x, x0, a, c));
+		}
+	}
+
+	@Override
+	protected void linearSolverRGB(final int bound, final float a, final float c) {
+		if (!isParallel()) { super.linearSolverRGB(bound, a, c); return; }
+		_ka = a; _kc = c;
+		for (int k = 0; k < _solverIterations; k++) {
+			_kParity = 0;
+			runBands(KERNEL_LINEAR_SOLVE_RGB);
+			_kParity = 1;
+			runBands(KERNEL_LINEAR_SOLVE_RGB);
+			setBoundaryRGB(bound);
+			if(_residualListener != null) _residualListener.onResidual(_solverPass, k, residual(r, rOld, a, c) + residual(g, gOld, a, c) + residual(b, bOld, a, c));
+		}
+	}
+
+	@Override
+	protected void linearSolverUV(final int bound, final float a, final float c) {
+		if (!isParallel()) { super.linearSolverUV(bound, a, c); return; }
+		_ka = a; _kc = c;
+		for (int k = 0; k < _solverIterations; k++) {
+			_kParity = 0;
+			runBands(KERNEL_LINEAR_SOLVE_UV);
+			_kParity = 1;
+			runBands(KERNEL_LINEAR_SOLVE_UV);
+			setBoundaryUV();
+			if(_residualListener != null) _residualListener.onResidual(_solverPass, k, residual(u, uOld, a, c) + residual(v, vOld, a, c));
+		}
+	}
+
+
+	/**
+	 * run the given kernel over all bands, band 0 on the calling thread, and wait for all of them
+	 */
+	private void runBands(final int kernel) {
+		_kernel = kernel;
+		try {
+			_start.await();
+		} catch (final Exception e) {
+			// no worker got past the start barrier, so do all of the bands here
+			Log.w("MSAFluidSolver", "band workers gone, falling back to serial: " + e);
+			_isShutdown = true;
+			for (int band = 0; band < _numBands; band++) runBand(band);
+			return;
+		}
+		try {
+			runBand(0);
+		} finally {
+			// the workers wait here for band 0 even if it threw
+			try {
+				_done.await();
+			} catch (final Exception e) {
+				Log.w("MSAFluidSolver", "band workers gone, falling back to serial: " + e);
+				_isShutdown = true;
+			}
+		}
+		final Throwable failure = _bandFailure;
+		if (failure != null) {
+			Log.w("MSAFluidSolver", "band worker failed, falling back to serial: " + failure);
+			shutdown();
+			if (failure instanceof RuntimeException) throw (RuntimeException)failure;
+			if (failure instanceof Error) throw (Error)failure;
+			throw new RuntimeException(failure);
+		}
+	}
+
+	private void workerLoop(final int band) {
+		try {
+			while (!_isShutdown) {
+				_start.await();
+				try {
+					runBand(band);
+				} catch (final Throwable t) {
+					// stay for the done barrier so the calling thread isn't left waiting, it gives up on the workers
+					_bandFailure = t;
+				}
+				_done.await();
+			}
+		} catch (final InterruptedException e) {
+			// shutdown
+		} catch (final BrokenBarrierException e) {
+			// shutdown
+		}
+	}
+
+	private void runBand(final int band) {
+		final int jStart = 1 + (_NY * band) / _numBands;
+		final int jEnd = 1 + (_NY * (band + 1)) / _numBands;
+		switch (_kernel) {
+			case KERNEL_ADD_SOURCE_UV: {
+				final int start = (band == 0) ? 0 : jStart * (_NX + 2);
+				final int end = (band == _numBands - 1) ? _numCells : jEnd * (_NX + 2);
+				addSourceUVCells(start, end);
+				break;
+			}
+			case KERNEL_ADD_SOURCE_RGB: {
+				final int start = (band == 0) ? 0 : jStart * (_NX + 2);
+				final int end = (band == _numBands - 1) ? _numCells : jEnd * (_NX + 2);
+				addSourceRGBCells(start, end);
+				break;
+			}
+			case KERNEL_ADVECT:
+				advectRows(_kd, _kp, _kx, _ky, jStart, jEnd);
+				break;
+			case KERNEL_ADVECT_RGB:
+				advectRGBRows(_kx, _ky, jStart, jEnd);
+				break;
+			case KERNEL_DIVERGENCE:
+				projectDivergenceRows(_kx, _ky, _kp, _kd, jStart, jEnd);
+				break;
+			case KERNEL_GRADIENT:
+				projectGradientRows(_kx, _ky, _kp, jStart, jEnd);
+				break;
+			case KERNEL_LINEAR_SOLVE:
+				linearSolverRedBlackRows(_kx, _kd, _ka, _kc, _omega, _kParity, jStart, jEnd);
+				break;
+			case KERNEL_LINEAR_SOLVE_RGB:
+				linearSolverRGBRedBlackRows(_ka, _kc, _omega, _kParity, jStart, jEnd);
+				break;
+			case KERNEL_LINEAR_SOLVE_UV:
+				linearSolverUVRedBlackRows(_ka, _kc, _omega, _kParity, jStart, jEnd);
+				break;
+		}
+	}
+}
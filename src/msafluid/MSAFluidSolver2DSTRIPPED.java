@@ -83,7 +83,7 @@ import android.util.Log;
 - *
 - * ***********************************************************************/ 
 
-public class MSAFluidSolver2DSTRIPPED {
+public class MSAFluidSolver2DSTRIPPED implements FluidSolver {
 	public final float[]	r;
 	public final float[]	g;
 	public final float[]	b;
@@ -139,22 +139,22 @@ public class MSAFluidSolver2DSTRIPPED {
 		
 		
 		
-		r    = new float[_numCells];
-		rOld = new float[_numCells];
+		r    = FluidArrayPool.takeFloats(_numCells);
+		rOld = FluidArrayPool.takeFloats(_numCells);
 
 		
-		g    = new float[_numCells];
-		gOld = new float[_numCells];
+		g    = FluidArrayPool.takeFloats(_numCells);
+		gOld = FluidArrayPool.takeFloats(_numCells);
 		
-		b    = new float[_numCells];
-		bOld = new float[_numCells];
+		b    = FluidArrayPool.takeFloats(_numCells);
+		bOld = FluidArrayPool.takeFloats(_numCells);
 		
-		u    = new float[_numCells];
-		uOld = new float[_numCells];
-		v    = new float[_numCells];
-		vOld = new float[_numCells];
+		u    = FluidArrayPool.takeFloats(_numCells);
+		uOld = FluidArrayPool.takeFloats(_numCells);
+		v    = FluidArrayPool.takeFloats(_numCells);
+		vOld = FluidArrayPool.takeFloats(_numCells);
 
-		_tmp = new float[_numCells];
+		_tmp = FluidArrayPool.takeFloats(_numCells);
 
 		
 		
@@ -261,6 +261,18 @@ public class MSAFluidSolver2DSTRIPPED {
 	}
 	
 	
+	/**
+	 * hand the cell arrays back to the pool for the next solver of the same size,
+	 * the solver can't be used afterwards
+	 */
+	public void release() {
+		if(_isReleased) return;
+		_isReleased = true;
+		destroy();
+		FluidArrayPool.giveFloats(r, rOld, g, gOld, b, bOld, u, uOld, v, vOld, _tmp);
+	}
+	
+	
 	/**
 	 * initialize solver (remove all velocities and dye)
 	*/	
@@ -439,6 +451,76 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 		//		unlock();
 		//	}
 	}
+	
+	public void addForceAtIndex(final int index, final float vx, final float vy) {
+		uOld[index] += vx;
+		vOld[index] += vy;
+	}
+	
+	public void addColorAtIndex(final int index, final float r, final float g, final float b) {
+		rOld[index] += r;
+		if(_isRGB) {
+			gOld[index] += g;
+			bOld[index] += b;
+		}
+	}
+	
+	/**
+	 * add force and dye around several normalized positions at once, each spread over a
+	 * gaussian footprint (see FluidSolver.addSplats)
+	 */
+	public void addSplats(final int count, final float[] xs, final float[] ys, final float[] dxs, final float[] dys,
+			final int[] colors, final float[] amounts, final float radius) {
+		_splats.add(this, _NX, _NY, count, xs, ys, dxs, dys, colors, amounts, radius);
+	}
+	
+	public void setVelocityAtIndex(final int index, final float vx, final float vy) {
+		u[index] = vx;
+		v[index] = vy;
+	}
+	
+	public void setColorAtIndex(final int index, final float r, final float g, final float b) {
+		this.r[index] = r;
+		if(_isRGB) {
+			this.g[index] = g;
+			this.b[index] = b;
+		}
+	}
+	
+	/**
+	 * (INFO) return red dye (or the monochrome dye) at cell index
+	 */
+	public float getRed(final int index) {
+		return r[index];
+	}
+	
+	/**
+	 * (INFO) return green dye at cell index
+	 */
+	public float getGreen(final int index) {
+		return _isRGB ? g[index] : r[index];
+	}
+	
+	/**
+	 * (INFO) return blue dye at cell index
+	 */
+	public float getBlue(final int index) {
+		return _isRGB ? b[index] : r[index];
+	}
+	
+	/**
+	 * (INFO) return x velocity at cell index
+	 */
+	public float getVelocityX(final int index) {
+		return u[index];
+	}
+	
+	/**
+	 * (INFO) return y velocity at cell index
+	 */
+	public float getVelocityY(final int index) {
+		return v[index];
+	}
 
 	
 	/*	
@@ -863,6 +945,7 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 	final protected int		_NX, _NY, _numCells;
 	protected float	_dt;
 	protected boolean	_isInited;
+	protected boolean	_isReleased;
 	protected boolean	_isRGB;				// for monochrome, only update r
 	protected int		_solverIterations;
 	
@@ -870,6 +953,7 @@ D/MSAFluidSolver(13634): Adding force 4 (orig:dx2.1063147 dy:-0.9879706  ): [48,
 	protected float	_fadeSpeed;
 	
 	protected float[] _tmp;
+	private final FluidSplats _splats = new FluidSplats();
 	
 }
 
@@ -0,0 +1,302 @@
+package msafluid;
+
+import java.util.Arrays;
+
+/**
+ * V-cycle multigrid solver for the pressure equation of MSAFluidSolver2D,
+ * 4 * x[i,j] - (x[i-1,j] + x[i+1,j] + x[i,j-1] + x[i,j+1]) = b[i,j]
+ * on a cell centered grid laid out like the solver's arrays ((NX+2) * (NY+2), index i + (NX+2) * j).
+ *
+ * Each level halves the resolution until a side would drop below MIN_COARSE_SIZE cells, so the
+ * coarsest level is only a handful of cells. Each axis is coarsened on its own (see Transfer):
+ * an even number of cells pairs them up, n / 2 coarse cells over the same span. An odd number
+ * keeps every other cell as a coarse one, (n - 1) / 2 coarse cells on the even fine cells, whose
+ * ghost cells land on the fine ghost cells. Either way the coarse grid covers exactly the fine one.
+ * Smoothing is red-black Gauss-Seidel, the residual is restricted with the weights of the
+ * interpolation (times 4, the coarse cells being twice as big) and the correction is brought back
+ * up with linear interpolation along each axis. The finest level's ghost cells are left to the
+ * caller and stay as they are during a cycle, so the correction is zero there. Coarse ghost cells
+ * are extrapolated from the cells next to them so the correction is zero at the same place, the
+ * centers of the finest ghost cells, which for cell centered levels lie between the ghost cells
+ * and the first cells.
+ *
+ * Cost is a handful of Gauss-Seidel sweeps per cycle no matter the grid size, where plain
+ * Gauss-Seidel needs more iterations the bigger the grid gets.
+ */
+public class MultigridPoissonSolver {
+	final static int	MIN_COARSE_SIZE		= 2;
+	final static int	COARSEST_SWEEPS		= 32;
+
+	private final int		_levels;
+	private final int[]		_nx;
+	private final int[]		_ny;
+	private final float[][]	_x;		// solution (level 0 is the caller's array)
+	private final float[][]	_b;		// right hand side (level 0 is the caller's array)
+	private final Transfer[]	_transferX;	// from each level to the next coarser one
+	private final Transfer[]	_transferY;
+	private final float[]	_ghostX;	// per level, ghost cell = this * the cell next to it, to be zero at the finest ghost cell centers
+	private final float[]	_ghostY;
+	private final float[]	_res;	// residual of the finest level, coarser levels reuse the front of it
+
+	private int _preSweeps = 2;
+	private int _postSweeps = 2;
+
+	/**
+	 * @param NX number of interior cells in X direction
+	 * @param NY number of interior cells in Y direction
+	 */
+	public MultigridPoissonSolver(final int NX, final int NY) {
+		int levels = 1;
+		for (int nx = NX, ny = NY; canCoarsen(nx, ny); nx = coarseSize(nx), ny = coarseSize(ny)) {
+			levels++;
+		}
+		_levels = levels;
+		_nx = new int[levels];
+		_ny = new int[levels];
+		_x = new float[levels][];
+		_b = new float[levels][];
+		_transferX = new Transfer[levels - 1];
+		_transferY = new Transfer[levels - 1];
+		_ghostX = new float[levels];
+		_ghostY = new float[levels];
+		_nx[0] = NX;
+		_ny[0] = NY;
+		// centers of the first and the ghost cell of each axis, in finest cells from the finest ghost cell center
+		float firstX = 1, ghostX = 0, firstY = 1, ghostY = 0;
+		for (int l = 1; l < levels; l++) {
+			final float h = 1 << (l - 1);
+			_transferX[l-1] = new Transfer(_nx[l-1]);
+			_transferY[l-1] = new Transfer(_ny[l-1]);
+			_nx[l] = _transferX[l-1].coarse;
+			_ny[l] = _transferY[l-1].coarse;
+			if ((_nx[l-1] & 1) == 0) {
+				firstX += h / 2;
+				ghostX -= h / 2;
+			} else {
+				firstX += h;
+			}
+			if ((_ny[l-1] & 1) == 0) {
+				firstY += h / 2;
+				ghostY -= h / 2;
+			} else {
+				firstY += h;
+			}
+			_ghostX[l] = ghostX / firstX;
+			_ghostY[l] = ghostY / firstY;
+			_x[l] = new float[(_nx[l] + 2) * (_ny[l] + 2)];
+			_b[l] = new float[(_nx[l] + 2) * (_ny[l] + 2)];
+		}
+		_res = new float[(NX + 2) * (NY + 2)];
+	}
+
+	private static int coarseSize(final int n) {
+		return (n & 1) == 0 ? n / 2 : (n - 1) / 2;
+	}
+
+	private static boolean canCoarsen(final int nx, final int ny) {
+		return Math.min(coarseSize(nx), coarseSize(ny)) >= MIN_COARSE_SIZE;
+	}
+
+	/**
+	 * How the cells of one axis map onto the next coarser level. Fine cell i is interpolated from
+	 * coarse cells c0[i] and c1[i] with weights p0[i] and p1[i], and its residual is restricted
+	 * into the same two cells with weights r0[i] and r1[i] (before the factor 4). A weight of 0
+	 * means the cell has only one coarse cell, the coarse index can then be anything in range.
+	 *
+	 * Even n, cell centered: coarse cell I covers fine cells 2I-1 and 2I, a fine cell takes 3/4
+	 * of its own coarse cell and 1/4 of the nearer neighbour, restriction averages the pair.
+	 * Odd n, vertex centered: coarse cell I sits on fine cell 2I, fine cells in between take half
+	 * of each side, restriction is 1/4, 1/2, 1/4.
+	 */
+	private static class Transfer {
+		final int		coarse;
+		final int[]		c0, c1;
+		final float[]	p0, p1, r0, r1;
+
+		Transfer(final int n) {
+			coarse = coarseSize(n);
+			c0 = new int[n + 2];
+			c1 = new int[n + 2];
+			p0 = new float[n + 2];
+			p1 = new float[n + 2];
+			r0 = new float[n + 2];
+			r1 = new float[n + 2];
+			final boolean isEven = (n & 1) == 0;
+			for (int i = 1; i <= n; i++) {
+				if (isEven) {
+					final int I = (i + 1) >> 1;
+					c0[i] = I;
+					c1[i] = (i & 1) == 1 ? I - 1 : I + 1;
+					p0[i] = 0.75f;
+					p1[i] = 0.25f;
+					r0[i] = 0.5f;
+				} else if ((i & 1) == 0) {
+					c0[i] = i >> 1;
+					c1[i] = i >> 1;
+					p0[i] = 1;
+					r0[i] = 0.5f;
+				} else {
+					c0[i] = i >> 1;
+					c1[i] = (i >> 1) + 1;
+					p0[i] = p1[i] = 0.5f;
+					r0[i] = r1[i] = 0.25f;
+				}
+			}
+		}
+	}
+
+	/**
+	 * set how many red-black sweeps are done on each level before and after the coarse correction
+	 */
+	public MultigridPoissonSolver setSweeps(final int preSweeps, final int postSweeps) {
+		_preSweeps = preSweeps;
+		_postSweeps = postSweeps;
+		return this;
+	}
+
+	/**
+	 * (INFO) number of grid levels, including the finest one
+	 */
+	public int getNumLevels() {
+		return _levels;
+	}
+
+	/**
+	 * run one V-cycle, improving x in place
+	 * @param x current guess, (NX+2) * (NY+2)
+	 * @param b right hand side, (NX+2) * (NY+2)
+	 */
+	public void vCycle(final float[] x, final float[] b) {
+		_x[0] = x;
+		_b[0] = b;
+		vCycle(0);
+	}
+
+	/**
+	 * (INFO) root mean square residual of the finest level for the given x and b
+	 */
+	public float residual(final float[] x, final float[] b) {
+		computeResidual(x, b, _res, _nx[0], _ny[0]);
+		final int rowStride = _nx[0] + 2;
+		double sum = 0;
+		for (int j = 1; j <= _ny[0]; j++) {
+			int index = 1 + rowStride * j;
+			for (int i = 1; i <= _nx[0]; i++, index++) {
+				sum += _res[index] * _res[index];
+			}
+		}
+		return (float)Math.sqrt(sum / (_nx[0] * _ny[0]));
+	}
+
+	private void vCycle(final int level) {
+		final int nx = _nx[level];
+		final int ny = _ny[level];
+		final float[] x = _x[level];
+		final float[] b = _b[level];
+		final boolean isCoarse = level > 0;
+
+		if (level == _levels - 1) {
+			smooth(x, b, nx, ny, COARSEST_SWEEPS, isCoarse, _ghostX[level], _ghostY[level]);
+			return;
+		}
+
+		smooth(x, b, nx, ny, _preSweeps, isCoarse, _ghostX[level], _ghostY[level]);
+
+		if (isCoarse) fillGhosts(x, nx, ny, _ghostX[level], _ghostY[level]);
+		computeResidual(x, b, _res, nx, ny);
+		restrict(_res, nx, ny, _b[level + 1], _nx[level + 1], _transferX[level], _transferY[level]);
+		Arrays.fill(_x[level + 1], 0);
+		vCycle(level + 1);
+		fillGhosts(_x[level + 1], _nx[level + 1], _ny[level + 1], _ghostX[level + 1], _ghostY[level + 1]);
+		prolongAndCorrect(_x[level + 1], _nx[level + 1], x, nx, ny, _transferX[level], _transferY[level]);
+
+		smooth(x, b, nx, ny, _postSweeps, isCoarse, _ghostX[level], _ghostY[level]);
+	}
+
+	/**
+	 * @param isCoarse whether to extrapolate the ghost cells (with ghostX and ghostY) before each half sweep
+	 */
+	private static void smooth(final float[] x, final float[] b, final int nx, final int ny, final int sweeps,
+			final boolean isCoarse, final float ghostX, final float ghostY) {
+		final int rowStride = nx + 2;
+		for (int k = 0; k < sweeps; k++) {
+			for (int parity = 0; parity < 2; parity++) {
+				if (isCoarse) fillGhosts(x, nx, ny, ghostX, ghostY);
+				for (int j = 1; j <= ny; j++) {
+					final int iStart = ((1 + j) & 1) == parity ? 1 : 2;
+					for (int index = iStart + rowStride * j, last = nx + rowStride * j; index <= last; index += 2) {
+						x[index] = (x[index - 1] + x[index + 1] + x[index - rowStride] + x[index + rowStride] + b[index]) * 0.25f;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * ghost cells of a coarse level, the rows first so the corners end up as ghostX * ghostY * their diagonal neighbour
+	 */
+	private static void fillGhosts(final float[] x, final int nx, final int ny, final float ghostX, final float ghostY) {
+		final int rowStride = nx + 2;
+		final int top = rowStride * (ny + 1);
+		for (int i = 1; i <= nx; i++) {
+			x[i] = ghostY * x[i + rowStride];
+			x[i + top] = ghostY * x[i + top - rowStride];
+		}
+		for (int index = 0; index <= top; index += rowStride) {
+			x[index] = ghostX * x[index + 1];
+			x[index + nx + 1] = ghostX * x[index + nx];
+		}
+	}
+
+	private static void computeResidual(final float[] x, final float[] b, final float[] res, final int nx, final int ny) {
+		final int rowStride = nx + 2;
+		for (int j = 1; j <= ny; j++) {
+			int index = 1 + rowStride * j;
+			for (int i = 1; i <= nx; i++, index++) {
+				res[index] = b[index] - (4 * x[index] - (x[index - 1] + x[index + 1] + x[index - rowStride] + x[index + rowStride]));
+			}
+		}
+	}
+
+	/**
+	 * coarse ghost cells pick up some of the weight next to the edges, but they are never read
+	 */
+	private static void restrict(final float[] res, final int nx, final int ny, final float[] coarseB, final int cnx, final Transfer tx, final Transfer ty) {
+		final int rowStride = nx + 2;
+		final int coarseStride = cnx + 2;
+		Arrays.fill(coarseB, 0);
+		for (int j = 1; j <= ny; j++) {
+			final int row0 = coarseStride * ty.c0[j];
+			final int row1 = coarseStride * ty.c1[j];
+			final float ry0 = 4 * ty.r0[j];
+			final float ry1 = 4 * ty.r1[j];
+			int index = 1 + rowStride * j;
+			for (int i = 1; i <= nx; i++, index++) {
+				final float r0 = tx.r0[i] * res[index];
+				final float r1 = tx.r1[i] * res[index];
+				coarseB[tx.c0[i] + row0] += ry0 * r0;
+				coarseB[tx.c1[i] + row0] += ry0 * r1;
+				coarseB[tx.c0[i] + row1] += ry1 * r0;
+				coarseB[tx.c1[i] + row1] += ry1 * r1;
+			}
+		}
+	}
+
+	private static void prolongAndCorrect(final float[] e, final int cnx, final float[] x, final int nx, final int ny, final Transfer tx, final Transfer ty) {
+		final int rowStride = nx + 2;
+		final int coarseStride = cnx + 2;
+		for (int j = 1; j <= ny; j++) {
+			final int row0 = coarseStride * ty.c0[j];
+			final int row1 = coarseStride * ty.c1[j];
+			final float py0 = ty.p0[j];
+			final float py1 = ty.p1[j];
+			int index = 1 + rowStride * j;
+			for (int i = 1; i <= nx; i++, index++) {
+				final int c0 = tx.c0[i];
+				final int c1 = tx.c1[i];
+				x[index] += py0 * (tx.p0[i] * e[c0 + row0] + tx.p1[i] * e[c1 + row0])
+						+ py1 * (tx.p0[i] * e[c0 + row1] + tx.p1[i] * e[c1 + row1]);
+			}
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package msafluid;
+
+/**
+ * Receives the residual of the fluid solver's linear solves after every iteration,
+ * so the convergence of the different solver types can be compared.
+ */
+public interface ResidualListener {
+	public final static int PASS_DIFFUSE		= 0;
+	public final static int PASS_DIFFUSE_UV		= 1;
+	public final static int PASS_DIFFUSE_RGB	= 2;
+	public final static int PASS_PROJECT		= 3;
+
+	/**
+	 * @param pass which solve this is, one of the PASS_ constants
+	 * @param iteration iteration of the solve (0 based)
+	 * @param residual root mean square of (x0 + a * neighbours - c * x) over the interior cells
+	 */
+	public void onResidual(int pass, int iteration, float residual);
+}